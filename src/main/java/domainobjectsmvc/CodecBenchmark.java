@@ -0,0 +1,118 @@
+package domainobjectsmvc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import domainobjectsmvc.domain.model.AggregateCodec;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderItem;
+import domainobjectsmvc.domain.model.OrderItemId;
+import domainobjectsmvc.domain.model.ProductId;
+
+/**
+ * Compares the size, and the time to encode and decode, of orders with the
+ * {@link AggregateCodec} and with Java serialization. Since an
+ * {@link Order} is not serializable, Java serialization is given the same
+ * content, as a map of {@link OrderItemId} to quantity (plus the order ID).
+ * Each measurement runs for a second, after a second of warm-up.
+ * <p>
+ * The codec is measured twice: with its product dictionary (<code>dict</code>,
+ * as in caches), whose encodings refer to products by code, so their size
+ * leaves out the dictionary; and without one (<code>inline</code>), whose
+ * encodings hold the product IDs, and are as self-contained as Java
+ * serialization.
+ *
+ * <pre>
+ * java -cp ... domainobjectsmvc.CodecBenchmark [item counts...]
+ * </pre>
+ *
+ */
+public class CodecBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int[] itemCounts = args.length > 0
+				? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 10, 1_000, 10_000 };
+		AggregateCodec codec = new AggregateCodec(65536);
+		AggregateCodec inlineCodec = new AggregateCodec(0);
+		System.out.printf("%8s %-6s %12s %14s %14s%n",
+				"items", "codec", "bytes", "encode ns/op", "decode ns/op");
+		for (int itemCount : itemCounts) {
+			Order order = new Order();
+			for (int i = 0; i < itemCount; i++) {
+				order.addItem(1 + i % 10, new ProductId("product-" + i));
+			}
+			byte[] encoded = codec.encode(order);
+			print(itemCount, "dict", encoded.length,
+					time(() -> codec.encode(order)),
+					time(() -> codec.decodeOrder(encoded)));
+			byte[] inline = inlineCodec.encode(order);
+			print(itemCount, "inline", inline.length,
+					time(() -> inlineCodec.encode(order)),
+					time(() -> inlineCodec.decodeOrder(inline)));
+			Serializable content = content(order, 1234567890123L);
+			byte[] serialized = serialize(content);
+			print(itemCount, "java", serialized.length,
+					time(() -> serialize(content)),
+					time(() -> deserialize(serialized)));
+		}
+		System.out.println("dict bytes leave out the product dictionary"
+				+ " (held by the codec, in memory)");
+	}
+
+	private static Serializable content(Order order, Long id) {
+		HashMap<OrderItemId, Integer> items = new HashMap<>();
+		for (OrderItem item : order.getItems()) {
+			items.put(new OrderItemId(id, item.getProductId()), item.getQuantity());
+		}
+		return new Object[] { id, items };
+	}
+
+	private static byte[] serialize(Serializable content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(content);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws Exception {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+
+	/**
+	 * @return the average nanoseconds per call
+	 */
+	private static long time(Callable<?> operation) throws Exception {
+		run(operation, TimeUnit.SECONDS.toNanos(1));
+		return run(operation, TimeUnit.SECONDS.toNanos(1));
+	}
+
+	private static long run(Callable<?> operation, long durationNanos) throws Exception {
+		long start = System.nanoTime();
+		long calls = 0;
+		long elapsed;
+		do {
+			operation.call();
+			calls++;
+		} while ((elapsed = System.nanoTime() - start) < durationNanos);
+		return elapsed / calls;
+	}
+
+	private static void print(int itemCount, String codec, int bytes,
+			long encodeNanos, long decodeNanos) {
+		System.out.printf("%8d %-6s %12d %14d %14d%n",
+				itemCount, codec, bytes, encodeNanos, decodeNanos);
+	}
+
+}
@@ -0,0 +1,35 @@
+package domainobjectsmvc;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import domainobjectsmvc.infrastructure.archive.OrderArchiver;
+
+/**
+ * Archives old orders (see {@link OrderArchiver}), without starting the web
+ * server (or warming up). Arguments are passed on to the application, e.g.
+ * to point it at the database, or to override the age or ID watermark:
+ *
+ * <pre>
+ * java -cp ... domainobjectsmvc.OrderArchiveJob --spring.datasource.url=... --app.archive.orders.max-age-days=90
+ * </pre>
+ *
+ */
+public class OrderArchiveJob {
+
+	public static void main(String[] args) throws Exception {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.web(WebApplicationType.NONE)
+				.properties("app.warm-up.enabled=false",
+						"app.search.versioned-entities.rebuild-on-startup=false")
+				.run(args);
+		try {
+			System.out.printf("Archived %d orders%n",
+					context.getBean(OrderArchiver.class).archive());
+		} finally {
+			context.close();
+		}
+	}
+
+}
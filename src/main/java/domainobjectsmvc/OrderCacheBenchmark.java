@@ -0,0 +1,128 @@
+package domainobjectsmvc;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import domainobjectsmvc.domain.model.AggregateCodec;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderItem;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.cache.OrderCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Compares the heap use and garbage collection pauses of the
+ * {@link OrderCache} with only its on-heap tier, and with its off-heap tier
+ * (and a small on-heap tier). The cache is filled with large orders, then
+ * read by simulated requests (which make some garbage of their own), while
+ * one in every 1,000 reads invalidates and reloads an order. Run each setup
+ * in its own JVM, with the same heap size:
+ *
+ * <pre>
+ * java -Xmx1g -cp ... domainobjectsmvc.OrderCacheBenchmark heap|off-heap [orders] [items per order] [seconds]
+ * </pre>
+ *
+ */
+public class OrderCacheBenchmark {
+
+	private static final int PRODUCTS = 50_000;
+
+	/** Without a dictionary, so that decoded orders have their own product IDs */
+	private static final AggregateCodec loading = new AggregateCodec(0);
+
+	public static void main(String[] args) throws Exception {
+		boolean offHeap = "off-heap".equals(args.length > 0 ? args[0] : "heap");
+		int orders = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+		int items = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+		AggregateCodec codec = new AggregateCodec(65536);
+		OrderCache cache = offHeap
+				? new OrderCache(codec, 10_000, 16L * orders * items, 4096, TimeUnit.HOURS.toMillis(1),
+						new SimpleMeterRegistry())
+				: new OrderCache(codec, Integer.MAX_VALUE, 0, 4096, TimeUnit.HOURS.toMillis(1),
+						new SimpleMeterRegistry());
+		for (long id = 0; id < orders; id++) {
+			long orderId = id;
+			cache.get(orderId, () -> Optional.of(order(orderId, items)));
+		}
+		System.gc();
+		long liveBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+		AtomicLong maxPauseMillis = new AtomicLong();
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+				long duration = GarbageCollectionNotificationInfo.from(
+						(CompositeData) notification.getUserData()).getGcInfo().getDuration();
+				maxPauseMillis.accumulateAndGet(duration, Math::max);
+			}, notification -> notification.getType().equals(
+					GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION), null);
+		}
+		long[] gcBefore = gcCountAndMillis();
+		long reads = 0;
+		long checksum = 0;
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		while (System.nanoTime() - end < 0) {
+			long id = ThreadLocalRandom.current().nextInt(orders);
+			if (++reads % 1_000 == 0) {
+				cache.invalidate(id);
+			}
+			Order order = cache.get(id, () -> Optional.of(order(id, items))).get();
+			checksum += render(order);
+		}
+		long[] gcAfter = gcCountAndMillis();
+
+		System.out.printf("%s: %d orders of %d items (%s)%n", offHeap ? "off-heap" : "heap",
+				orders, items, cache.sizes());
+		System.out.printf("live heap after filling:  %,d KB%n", liveBytes / 1024);
+		System.out.printf("reads:                    %,d per second%n", reads / seconds);
+		System.out.printf("collections:              %,d (%,d ms in total, %,d ms at most)%n",
+				gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1], maxPauseMillis.get());
+		System.out.printf("(checksum %d)%n", checksum);
+	}
+
+	/**
+	 * Like an order read from the database: with new product IDs, and without
+	 * the events raised by adding its items.
+	 */
+	private static Order order(long id, int items) {
+		Random random = new Random(id);
+		Order order = new Order();
+		for (int i = 0; i < items; i++) {
+			order.addItem(1 + random.nextInt(10), new ProductId("product-" + random.nextInt(PRODUCTS)));
+		}
+		return loading.decodeOrder(loading.encode(order));
+	}
+
+	/**
+	 * Makes as much garbage as rendering a view of the order would.
+	 */
+	private static long render(Order order) {
+		StringBuilder view = new StringBuilder();
+		for (OrderItem item : order.getItems()) {
+			view.append(item.getProductId().getValue()).append(": ")
+				.append(item.getQuantity()).append('\n');
+		}
+		return view.toString().length();
+	}
+
+	private static long[] gcCountAndMillis() {
+		long count = 0;
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += gc.getCollectionCount();
+			millis += gc.getCollectionTime();
+		}
+		return new long[] { count, millis };
+	}
+
+}
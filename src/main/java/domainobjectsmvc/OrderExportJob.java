@@ -0,0 +1,55 @@
+package domainobjectsmvc;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import domainobjectsmvc.infrastructure.export.OrderExport;
+import domainobjectsmvc.infrastructure.export.OrderExport.PartitionResult;
+
+/**
+ * Exports all orders to the directory given as the first argument (see
+ * {@link OrderExport}), without starting the web server (or warming up),
+ * and reports the rows per second of each partition. Run it again with the
+ * same directory to resume an interrupted export. Other arguments are
+ * passed on to the application, e.g. to point it at the database:
+ *
+ * <pre>
+ * java -cp ... domainobjectsmvc.OrderExportJob /data/export/orders --spring.datasource.url=...
+ * </pre>
+ *
+ */
+public class OrderExportJob {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: OrderExportJob <directory> [<application arguments>]");
+			System.exit(2);
+		}
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.web(WebApplicationType.NONE)
+				.properties("app.warm-up.enabled=false",
+						"app.search.versioned-entities.rebuild-on-startup=false")
+				.run(Arrays.copyOfRange(args, 1, args.length));
+		try {
+			List<PartitionResult> results = context.getBean(OrderExport.class)
+					.export(Paths.get(args[0]));
+			System.out.printf("%5s %9s %10s %8s %12s%n",
+					"shard", "partition", "rows", "ms", "rows/s");
+			for (PartitionResult result : results) {
+				System.out.printf("%5d %9d %10s %8s %12s%n",
+						result.getPartition().getShard(), result.getPartition().getIndex(),
+						result.isSkipped() ? "skipped" : result.getRows(),
+						result.isSkipped() ? "" : result.getMillis(),
+						result.isSkipped() ? "" : Math.round(result.getRowsPerSecond()));
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+}
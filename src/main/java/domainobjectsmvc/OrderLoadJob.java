@@ -0,0 +1,53 @@
+package domainobjectsmvc;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import domainobjectsmvc.infrastructure.load.OrderFileLoader;
+import domainobjectsmvc.infrastructure.load.OrderFileLoader.LoadResult;
+import domainobjectsmvc.infrastructure.load.OrderFileLoader.Rejection;
+
+/**
+ * Loads the order file given as the first argument (see
+ * {@link OrderFileLoader}), without starting the web server (or warming
+ * up), and reports the throughput and the rejected lines. Other arguments
+ * are passed on to the application, e.g. to point it at the database:
+ *
+ * <pre>
+ * java -cp ... domainobjectsmvc.OrderLoadJob /data/import/orders.csv --spring.datasource.url=...
+ * </pre>
+ *
+ */
+public class OrderLoadJob {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: OrderLoadJob <file> [<application arguments>]");
+			System.exit(2);
+		}
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.web(WebApplicationType.NONE)
+				.properties("app.warm-up.enabled=false",
+						"app.search.versioned-entities.rebuild-on-startup=false")
+				.run(Arrays.copyOfRange(args, 1, args.length));
+		try {
+			LoadResult result = context.getBean(OrderFileLoader.class)
+					.load(Paths.get(args[0]));
+			System.out.printf("Lines:    %10d (%d ms, %d lines/s)%n", result.getLines(),
+					result.getMillis(), Math.round(result.getLinesPerSecond()));
+			System.out.printf("Orders:   %10d%n", result.getOrders());
+			System.out.printf("Items:    %10d%n", result.getItems());
+			System.out.printf("Rejected: %10d%n", result.getRejected());
+			for (Rejection rejection : result.getRejections()) {
+				System.out.println("  " + rejection);
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+}
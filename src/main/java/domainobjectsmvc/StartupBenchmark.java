@@ -0,0 +1,78 @@
+package domainobjectsmvc;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Starts the {@link Application} on a random port, and reports the time
+ * from JVM start to the context being started, to the application being
+ * ready (i.e. after the application runners, such as the warm-up), and to
+ * the first successful request (to the path given by the
+ * <code>benchmark.path</code> system property). Then stops the application.
+ * Since startup can only be measured once per JVM, run it several times,
+ * e.g. with and without the <code>fast-startup</code> profile:
+ *
+ * <pre>
+ * java -cp ... domainobjectsmvc.StartupBenchmark --spring.profiles.active=fast-startup
+ * </pre>
+ *
+ * It is also the training run of the <code>fast-startup</code> Maven profile,
+ * which archives the classes loaded here for class data sharing.
+ *
+ */
+public class StartupBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String path = System.getProperty("benchmark.path", "/actuator/health");
+		long mainMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+		String[] arguments = Arrays.copyOf(args, args.length + 1);
+		arguments[args.length] = "--server.port=0";
+		long[] startedMillis = new long[1];
+		SpringApplication application = new SpringApplication(Application.class);
+		application.addListeners((ApplicationListener<ApplicationStartedEvent>) event ->
+				startedMillis[0] = ManagementFactory.getRuntimeMXBean().getUptime());
+		ConfigurableApplicationContext context = application.run(arguments);
+		try {
+			long readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+			int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+			URL url = new URL("http", "localhost", port, path);
+			long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+			int attempts = 1;
+			while (!isSuccessful(url)) {
+				if (System.nanoTime() - deadline > 0) {
+					throw new IllegalStateException("No successful GET " + path);
+				}
+				TimeUnit.MILLISECONDS.sleep(1);
+				attempts++;
+			}
+			long firstRequestMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+			System.out.printf("JVM start to main:          %6d ms%n", mainMillis);
+			System.out.printf("JVM start to started:       %6d ms%n", startedMillis[0]);
+			System.out.printf("JVM start to ready:         %6d ms%n", readyMillis);
+			System.out.printf("JVM start to first success: %6d ms (GET %s, %d attempt(s))%n",
+					firstRequestMillis, path, attempts);
+		} finally {
+			context.close();
+		}
+	}
+
+	private static boolean isSuccessful(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			return connection.getResponseCode() / 100 == 2;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+}
@@ -2,14 +2,19 @@ package domainobjectsmvc.domain.model;
 
 import javax.persistence.*;
 
+import org.springframework.data.domain.AbstractAggregateRoot;
+
 /**
  * Sample domain entity that does not provide a public default constructor (i.e.
  * does not provide a public zero-arguments constructor).
+ * <p>
+ * Creating an account raises an {@link AccountCreated} event.
  *
  */
 @Entity
-@Table(name="accounts")
-public class Account {
+@Table(name="accounts",
+	indexes=@Index(name="accounts_name_idx", columnList="name", unique=true))
+public class Account extends AbstractAggregateRoot<Account> {
 
 	private final String name;
 
@@ -20,6 +25,16 @@ public class Account {
 		}
 		this.name = name;
 		this.id = null;
+		registerEvent(new AccountCreated(this));
+	}
+
+	/**
+	 * For accounts read from outside the accounts table (see
+	 * {@link AggregateCodec}), so no event is raised.
+	 */
+	Account(Long id, String name) {
+		this.name = name;
+		this.id = id;
 	}
 
 	public String getName() {
@@ -51,7 +66,7 @@ public class Account {
 		return true;
 	}
 
-	@Id @GeneratedValue(strategy=GenerationType.IDENTITY)
+	@Id @GeneratedValue(generator="snowflake")
 	private final Long id;
 
 	public Long getId() {
@@ -0,0 +1,26 @@
+package domainobjectsmvc.domain.model;
+
+public class AccountCreated extends DomainEvent {
+
+	// The account's ID is only assigned when it is saved
+	private final Account account;
+
+	AccountCreated(Account account) {
+		this.account = account;
+	}
+
+	public Long getAccountId() {
+		return account.getId();
+	}
+
+	public String getName() {
+		return account.getName();
+	}
+
+	@Override
+	public String toString() {
+		return "AccountCreated [accountId=" + getAccountId()
+				+ ", name=" + getName() + "]";
+	}
+
+}
@@ -1,8 +1,10 @@
 package domainobjectsmvc.domain.model;
 
-import org.springframework.data.repository.PagingAndSortingRepository;
+import java.util.Optional;
 
 public interface AccountRepository
-		extends PagingAndSortingRepository<Account, Long> {
+		extends BatchRepository<Account, Long>, AccountRepositoryCustom {
+
+	Optional<Account> findByName(String name);
 
 }
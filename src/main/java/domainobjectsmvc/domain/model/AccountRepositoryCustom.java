@@ -0,0 +1,28 @@
+package domainobjectsmvc.domain.model;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+public interface AccountRepositoryCustom {
+
+	/**
+	 * Checks whether an {@link Account} with the given name exists. Names that
+	 * were never saved are answered from memory, without a query.
+	 */
+	boolean existsByName(String name);
+
+	/**
+	 * Finds accounts whose name contains the given fragment (ignoring case),
+	 * ordered by the pageable's sort (by ID and/or name) and then by ID.
+	 * Matching IDs come from an in-memory index, and only the requested page
+	 * of accounts is fetched (in one query).
+	 */
+	Page<Account> searchByName(String fragment, Pageable pageable);
+
+	/**
+	 * Same as {@link BatchRepository#deleteAllByIdInBatch(Iterable)}, but
+	 * also removes the deleted accounts from the in-memory name index.
+	 */
+	int deleteAllByIdInBatch(Iterable<Long> ids);
+
+}
@@ -0,0 +1,91 @@
+package domainobjectsmvc.domain.model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import domainobjectsmvc.infrastructure.index.AccountNameFilter;
+import domainobjectsmvc.infrastructure.index.AccountNameIndex;
+import domainobjectsmvc.infrastructure.persistence.Batches;
+
+/**
+ * Custom implementation of {@link AccountRepositoryCustom} (picked up by
+ * Spring Data because of the "Impl" suffix).
+ *
+ */
+public class AccountRepositoryImpl implements AccountRepositoryCustom {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final AccountNameFilter nameFilter;
+	private final AccountNameIndex nameIndex;
+
+	@Autowired
+	public AccountRepositoryImpl(
+			AccountNameFilter nameFilter, AccountNameIndex nameIndex) {
+		this.nameFilter = nameFilter;
+		this.nameIndex = nameIndex;
+	}
+
+	@Override
+	@Transactional(readOnly=true)
+	public boolean existsByName(String name) {
+		if (name == null || !nameFilter.mightContain(name)) {
+			return false;
+		}
+		return entityManager.createQuery(
+				"select count(a) from Account a where a.name = :name", Long.class)
+			.setParameter("name", name)
+			.getSingleResult() > 0;
+	}
+
+	@Override
+	@Transactional(readOnly=true)
+	public Page<Account> searchByName(String fragment, Pageable pageable) {
+		Page<Long> ids = nameIndex.search(fragment, pageable);
+		if (!ids.hasContent()) {
+			return new PageImpl<>(
+					Collections.emptyList(), pageable, ids.getTotalElements());
+		}
+		Map<Long, Account> accounts = entityManager.createQuery(
+				"select a from Account a where a.id in :ids", Account.class)
+			.setParameter("ids", ids.getContent())
+			.getResultList().stream()
+			.collect(Collectors.toMap(Account::getId, Function.identity()));
+		// in the index's order (skipping accounts deleted in the meantime)
+		return new PageImpl<>(ids.getContent().stream()
+				.map(accounts::get)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList()), pageable, ids.getTotalElements());
+	}
+
+	@Override
+	@Transactional
+	public int deleteAllByIdInBatch(Iterable<Long> ids) {
+		int deleted = Batches.deleteAllById(entityManager, "Account", "id", ids);
+		// Bulk deletes do not trigger the index's entity listener
+		TransactionSynchronizationManager.registerSynchronization(
+				new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						ids.forEach(nameIndex::remove);
+					}
+				});
+		return deleted;
+	}
+
+}
@@ -0,0 +1,254 @@
+package domainobjectsmvc.domain.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import domainobjectsmvc.infrastructure.codec.BinaryReader;
+import domainobjectsmvc.infrastructure.codec.BinaryWriter;
+
+/**
+ * Compact binary encoding of aggregates ({@link Order} with its items,
+ * {@link Account}, and {@link VersionedEntity}), e.g. for caches. Unlike
+ * Java serialization, it writes no class descriptors, numbers take as few
+ * bytes as their value needs, and product IDs are references into a
+ * dictionary.
+ * <p>
+ * An encoding starts with the format version and the type:
+ *
+ * <pre>
+ * order:            1 1 id item-count (product quantity)*
+ * account:          1 2 id name
+ * versioned entity: 1 3 id version data payload-id data-length
+ * </pre>
+ *
+ * Numbers are variable-length (see {@link BinaryWriter}). IDs are written
+ * plus one (zero for no ID). A product is either its dictionary code times
+ * two, or one followed by its ID (when the dictionary is full).
+ * <p>
+ * The dictionary is held by the codec, and grows as products are encoded.
+ * So an encoding can only be decoded by the codec that encoded it (as in
+ * in-process caches), and decoded orders share their {@link ProductId}s.
+ * Decoded aggregates are detached, and raise no events. A decoded versioned
+ * entity's payload is loaded through the codec's payload loader when its
+ * data is asked for (without a loader, only its inline data can be read).
+ * <p>
+ * Thread-safe.
+ *
+ */
+public class AggregateCodec {
+
+	/**
+	 * The version of the layout only. Product codes refer to this codec's
+	 * dictionary, which lives in memory, so the version does not make an
+	 * encoding readable by another process, or after a restart: encodings
+	 * must not outlive the codec (e.g. in shared or persistent caches).
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int ORDER = 1;
+	private static final int ACCOUNT = 2;
+	private static final int VERSIONED_ENTITY = 3;
+
+	private final int maxDictionarySize;
+	private final Function<Long, VersionedEntityPayload> payloadLoader;
+
+	private final ConcurrentMap<ProductId, Integer> codes = new ConcurrentHashMap<>();
+	// Appended to while holding "codes", and published by writing "size"
+	private volatile ProductId[] products = new ProductId[64];
+	private volatile int size;
+
+	public AggregateCodec(int maxDictionarySize) {
+		this(maxDictionarySize, null);
+	}
+
+	/**
+	 * @param payloadLoader
+	 *            finds a {@link VersionedEntityPayload} by ID (or returns
+	 *            <code>null</code> if it no longer exists)
+	 */
+	public AggregateCodec(int maxDictionarySize,
+			Function<Long, VersionedEntityPayload> payloadLoader) {
+		if (maxDictionarySize < 0) {
+			throw new IllegalArgumentException("Max dictionary size must not be negative");
+		}
+		this.maxDictionarySize = maxDictionarySize;
+		this.payloadLoader = payloadLoader;
+	}
+
+	/**
+	 * Loads the order's items, if not loaded yet.
+	 */
+	public byte[] encode(Order order) {
+		Collection<OrderItem> items = order.getItems();
+		BinaryWriter writer = header(ORDER, 16 + 4 * items.size());
+		writeId(writer, order.getId());
+		writer.writeVarInt(items.size());
+		for (OrderItem item : items) {
+			writeProductId(writer, item.getProductId());
+			writer.writeVarInt(item.getQuantity());
+		}
+		return writer.toByteArray();
+	}
+
+	public byte[] encode(Account account) {
+		BinaryWriter writer = header(ACCOUNT, 16 + account.getName().length());
+		writeId(writer, account.getId());
+		writer.writeString(account.getName());
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Writes inline data, but only the ID of a payload (without loading it).
+	 */
+	public byte[] encode(VersionedEntity entity) {
+		String data = entity.getInlineData();
+		BinaryWriter writer = header(VERSIONED_ENTITY, 32 + (data != null ? data.length() : 0));
+		writeId(writer, entity.getId());
+		writer.writeVarInt(entity.getVersion());
+		writer.writeString(data);
+		writeId(writer, entity.getPayloadId());
+		writer.writeVarLong(entity.getDataLength());
+		return writer.toByteArray();
+	}
+
+	public Order decodeOrder(byte[] bytes) {
+		return decodeOrder(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads from the buffer's position (and advances it).
+	 */
+	public Order decodeOrder(ByteBuffer buffer) {
+		BinaryReader reader = reader(buffer, ORDER);
+		Long id = readId(reader);
+		int count = reader.readVarInt();
+		// Each item takes at least two bytes
+		if (count > reader.remaining() / 2) {
+			throw new IllegalArgumentException("Unexpected end of input");
+		}
+		Order order = new Order(id, count);
+		Map<ProductId, OrderItem> items = order.getItemsInternal();
+		for (int i = 0; i < count; i++) {
+			ProductId productId = readProductId(reader);
+			items.put(productId, new OrderItem(order, productId, reader.readVarInt()));
+		}
+		return order;
+	}
+
+	public Account decodeAccount(byte[] bytes) {
+		return decodeAccount(ByteBuffer.wrap(bytes));
+	}
+
+	public Account decodeAccount(ByteBuffer buffer) {
+		BinaryReader reader = reader(buffer, ACCOUNT);
+		Long id = readId(reader);
+		return new Account(id, reader.readString());
+	}
+
+	public VersionedEntity decodeVersionedEntity(byte[] bytes) {
+		return decodeVersionedEntity(ByteBuffer.wrap(bytes));
+	}
+
+	public VersionedEntity decodeVersionedEntity(ByteBuffer buffer) {
+		BinaryReader reader = reader(buffer, VERSIONED_ENTITY);
+		Long id = readId(reader);
+		int version = reader.readVarInt();
+		String data = reader.readString();
+		Long payloadId = readId(reader);
+		return new VersionedEntity(id, data,
+				payloadId != null ? new VersionedEntityPayload(payloadId, payloadLoader) : null,
+				reader.readVarLong(), version);
+	}
+
+	/**
+	 * @return the number of products in the dictionary
+	 */
+	public int dictionarySize() {
+		return size;
+	}
+
+	private static BinaryWriter header(int type, int expectedSize) {
+		return new BinaryWriter(expectedSize)
+				.writeByte(FORMAT_VERSION)
+				.writeByte(type);
+	}
+
+	private static BinaryReader reader(ByteBuffer buffer, int expectedType) {
+		BinaryReader reader = new BinaryReader(buffer);
+		int version = reader.readByte();
+		if (version != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported format version " + version);
+		}
+		int type = reader.readByte();
+		if (type != expectedType) {
+			throw new IllegalArgumentException(
+					"Expected type " + expectedType + ", but was " + type);
+		}
+		return reader;
+	}
+
+	private static void writeId(BinaryWriter writer, Long id) {
+		writer.writeVarLong(id != null ? id + 1 : 0);
+	}
+
+	private static Long readId(BinaryReader reader) {
+		long value = reader.readVarLong();
+		return value != 0 ? value - 1 : null;
+	}
+
+	private void writeProductId(BinaryWriter writer, ProductId productId) {
+		Integer code = codes.get(productId);
+		if (code == null) {
+			code = register(productId);
+		}
+		if (code >= 0) {
+			writer.writeVarInt(code << 1);
+		} else {
+			writer.writeVarInt(1).writeString(productId.getValue());
+		}
+	}
+
+	/**
+	 * @return the product's code, or -1 if the dictionary is full
+	 */
+	private int register(ProductId productId) {
+		synchronized (codes) {
+			Integer code = codes.get(productId);
+			if (code != null) {
+				return code;
+			}
+			int n = size;
+			if (n >= maxDictionarySize) {
+				return -1;
+			}
+			ProductId[] products = this.products;
+			if (n == products.length) {
+				products = Arrays.copyOf(products, n * 2);
+				this.products = products;
+			}
+			products[n] = productId;
+			size = n + 1;
+			codes.put(productId, n);
+			return n;
+		}
+	}
+
+	private ProductId readProductId(BinaryReader reader) {
+		int reference = reader.readVarInt();
+		if ((reference & 1) != 0) {
+			return new ProductId(reader.readString());
+		}
+		int code = reference >>> 1;
+		// Reads "size" before "products", which is replaced before "size" grows
+		if (code >= size) {
+			throw new IllegalArgumentException("Unknown product code " + code);
+		}
+		return products[code];
+	}
+
+}
@@ -0,0 +1,51 @@
+package domainobjectsmvc.domain.model;
+
+import java.time.Instant;
+import java.util.List;
+
+import javax.persistence.*;
+
+/**
+ * An {@link Order} (with its items) that was moved out of the order tables
+ * once it got old, so that they only hold the orders that are still in use.
+ * Archived orders are read-only.
+ *
+ */
+@Entity
+@Table(name="orders_archive")
+public class ArchivedOrder {
+
+	@Id
+	private Long id;
+
+	private Instant archivedAt;
+
+	@OneToMany(mappedBy="order")
+	private List<ArchivedOrderItem> items;
+
+	protected ArchivedOrder() {
+		/* as required by ORM/JPA, not by design */
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public Instant getArchivedAt() {
+		return archivedAt;
+	}
+
+	/**
+	 * @return the order as it was when it was archived (without raising any
+	 *         events)
+	 */
+	public Order toOrder() {
+		Order order = new Order(id);
+		for (ArchivedOrderItem item : items) {
+			order.getItemsInternal().put(item.getProductId(),
+					new OrderItem(order, item.getProductId(), item.getQuantity()));
+		}
+		return order;
+	}
+
+}
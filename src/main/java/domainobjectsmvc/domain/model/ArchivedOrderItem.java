@@ -0,0 +1,34 @@
+package domainobjectsmvc.domain.model;
+
+import javax.persistence.*;
+
+@Entity
+@Table(name="order_items_archive")
+public class ArchivedOrderItem {
+
+	@EmbeddedId
+	@AttributeOverrides({
+		@AttributeOverride(name="orderId", column=@Column(name="order_id")),
+		@AttributeOverride(name="productId.value", column=@Column(name="product_id"))
+	})
+	private OrderItemId orderItemId;
+
+	@ManyToOne(optional=false)
+	@MapsId("orderId")
+	private ArchivedOrder order;
+
+	private int quantity;
+
+	protected ArchivedOrderItem() {
+		/* as required by ORM/JPA, not by design */
+	}
+
+	public ProductId getProductId() {
+		return orderItemId.getProductId();
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+}
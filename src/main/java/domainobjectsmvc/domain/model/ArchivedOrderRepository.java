@@ -0,0 +1,16 @@
+package domainobjectsmvc.domain.model;
+
+import java.util.Optional;
+
+import org.springframework.data.repository.Repository;
+
+/**
+ * Read-only access to {@link ArchivedOrder}s (orders are archived in bulk,
+ * see {@link domainobjectsmvc.infrastructure.archive.OrderArchiver}).
+ *
+ */
+public interface ArchivedOrderRepository extends Repository<ArchivedOrder, Long> {
+
+	Optional<ArchivedOrder> findById(Long id);
+
+}
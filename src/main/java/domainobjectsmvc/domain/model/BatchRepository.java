@@ -0,0 +1,34 @@
+package domainobjectsmvc.domain.model;
+
+import java.util.List;
+
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.data.repository.PagingAndSortingRepository;
+
+/**
+ * Repository with bulk operations that take a number of statements
+ * proportional to the number of IDs divided by the batch size (instead of one
+ * or two statements per ID).
+ *
+ */
+@NoRepositoryBean
+public interface BatchRepository<T, ID> extends PagingAndSortingRepository<T, ID> {
+
+	/**
+	 * Retrieves the entities with the given IDs, using one
+	 * <code>IN (...)</code> query per batch of IDs. IDs that are not found
+	 * are ignored.
+	 */
+	@Override
+	List<T> findAllById(Iterable<ID> ids);
+
+	/**
+	 * Deletes the entities with the given IDs, using one bulk
+	 * <code>DELETE</code> per batch of IDs, without loading them first. Note
+	 * that this bypasses cascades, version checks and entity listeners.
+	 *
+	 * @return the number of deleted entities
+	 */
+	int deleteAllByIdInBatch(Iterable<ID> ids);
+
+}
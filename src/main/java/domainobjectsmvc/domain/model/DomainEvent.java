@@ -0,0 +1,29 @@
+package domainobjectsmvc.domain.model;
+
+import java.time.Instant;
+
+/**
+ * Something that happened to an aggregate. Raised by the aggregate, and
+ * published (by Spring Data) when the aggregate is saved.
+ *
+ */
+public abstract class DomainEvent {
+
+	private final Instant occurredOn;
+
+	protected DomainEvent() {
+		this.occurredOn = Instant.now();
+	}
+
+	/**
+	 * A copy of the given event (that occurred at the same time).
+	 */
+	protected DomainEvent(DomainEvent event) {
+		this.occurredOn = event.occurredOn;
+	}
+
+	public Instant getOccurredOn() {
+		return occurredOn;
+	}
+
+}
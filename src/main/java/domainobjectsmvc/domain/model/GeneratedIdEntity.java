@@ -11,7 +11,7 @@ import javax.persistence.*;
 @Table(name="entities")
 public class GeneratedIdEntity {
 
-	@Id @GeneratedValue(strategy=GenerationType.IDENTITY)
+	@Id @GeneratedValue(generator="snowflake")
 	private final Long id;
 	// other fields not included
 
@@ -1,8 +1,6 @@
 package domainobjectsmvc.domain.model;
 
-import org.springframework.data.repository.PagingAndSortingRepository;
-
 public interface GeneratedIdEntityRepository
-		extends PagingAndSortingRepository<GeneratedIdEntity, Long> {
+		extends BatchRepository<GeneratedIdEntity, Long> {
 
 }
@@ -2,31 +2,66 @@ package domainobjectsmvc.domain.model;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 import javax.persistence.*;
 
+import org.hibernate.annotations.CollectionType;
+import org.hibernate.annotations.LazyCollection;
+import org.hibernate.annotations.LazyCollectionOption;
+import org.springframework.data.domain.AbstractAggregateRoot;
+import org.springframework.data.domain.DomainEvents;
+
 /**
  * Sample domain entity with child entities that are not exposed as a mutable
  * list.
+ * <p>
+ * Items are extra-lazy: {@link #getItemCount()}, {@link #hasItem(ProductId)},
+ * and {@link #getItem(ProductId)} (and adding or removing an item) query the
+ * database for just what they need, so that large orders are not loaded in
+ * full. Iterating over {@link #getItems()} loads all items, into a compact
+ * {@link ProductIdMap}.
+ * <p>
+ * Adding and removing items raise {@link OrderItemAdded} and
+ * {@link OrderItemRemoved} events.
  *
  */
 @Entity
 @Table(name = "orders")
-public class Order {
+public class Order extends AbstractAggregateRoot<Order> {
 
 	@OneToMany(mappedBy="order")
+	@LazyCollection(LazyCollectionOption.EXTRA)
+	@CollectionType(type="domainobjectsmvc.infrastructure.persistence.ProductIdMapType")
 	private Map<ProductId, OrderItem> items;
 
 	public Order() {
 		this.id = null;
 	}
 
+	/**
+	 * For orders read from outside the order tables (see
+	 * {@link ArchivedOrder} and {@link AggregateCodec}).
+	 */
+	Order(Long id) {
+		this.id = id;
+	}
+
+	/**
+	 * With room for the given number of items, so that decoding a large order
+	 * does not resize its item map.
+	 */
+	Order(Long id, int expectedItemCount) {
+		this.id = id;
+		this.items = new ProductIdMap<>(expectedItemCount);
+	}
+
 	protected Map<ProductId, OrderItem> getItemsInternal() {
 		// Lazily initialize "items" field
 		if (items == null) {
-			this.items = new HashMap<>();
+			this.items = new ProductIdMap<>();
 		}
 		return items;
 	}
@@ -39,10 +74,13 @@ public class Order {
 		} else {
 			item.addQuantity(quantity);
 		}
+		registerEvent(new OrderItemAdded(id, productId, quantity));
 	}
 
 	public void removeItem(ProductId productId) {
-		getItemsInternal().remove(productId);
+		if (getItemsInternal().remove(productId) != null) {
+			registerEvent(new OrderItemRemoved(id, productId));
+		}
 	}
 	
 	public Collection<OrderItem> getItems() {
@@ -50,6 +88,36 @@ public class Order {
 				getItemsInternal().values());
 	}
 
+	public int getItemCount() {
+		return getItemsInternal().size();
+	}
+
+	public boolean hasItem(ProductId productId) {
+		return getItemsInternal().containsKey(productId);
+	}
+
+	public Optional<OrderItem> getItem(ProductId productId) {
+		return Optional.ofNullable(getItemsInternal().get(productId));
+	}
+
+	/**
+	 * Events carry the order's ID (not the order, which may no longer be
+	 * usable when they are handled). A new order only has an ID once it is
+	 * saved, which is when its events are published, so it is filled in
+	 * here.
+	 */
+	@Override
+	@DomainEvents
+	protected Collection<Object> domainEvents() {
+		return super.domainEvents().stream()
+				.map(event -> event instanceof OrderItemAdded
+						? ((OrderItemAdded) event).forOrder(id)
+						: event instanceof OrderItemRemoved
+						? ((OrderItemRemoved) event).forOrder(id)
+						: event)
+				.collect(Collectors.toList());
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -75,7 +143,7 @@ public class Order {
 		return true;
 	}
 
-	@Id @GeneratedValue(strategy=GenerationType.IDENTITY)
+	@Id @GeneratedValue(generator="snowflake")
 	private final Long id;
 	
 	public Long getId() {
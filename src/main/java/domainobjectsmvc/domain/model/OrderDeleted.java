@@ -0,0 +1,32 @@
+package domainobjectsmvc.domain.model;
+
+public class OrderDeleted extends DomainEvent {
+
+	private final Long orderId;
+	private final boolean archived;
+
+	/**
+	 * @param archived
+	 *            whether the order (with its items) was moved to the archive
+	 *            (see {@link ArchivedOrder}), instead of being deleted for good
+	 */
+	public OrderDeleted(Long orderId, boolean archived) {
+		this.orderId = orderId;
+		this.archived = archived;
+	}
+
+	public Long getOrderId() {
+		return orderId;
+	}
+
+	public boolean isArchived() {
+		return archived;
+	}
+
+	@Override
+	public String toString() {
+		return "OrderDeleted [orderId=" + orderId
+				+ ", archived=" + archived + "]";
+	}
+
+}
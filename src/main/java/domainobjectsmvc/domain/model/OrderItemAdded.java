@@ -0,0 +1,51 @@
+package domainobjectsmvc.domain.model;
+
+public class OrderItemAdded extends DomainEvent {
+
+	private final Long orderId;
+	private final ProductId productId;
+	private final int quantity;
+
+	OrderItemAdded(Long orderId, ProductId productId, int quantity) {
+		this.orderId = orderId;
+		this.productId = productId;
+		this.quantity = quantity;
+	}
+
+	private OrderItemAdded(OrderItemAdded event, Long orderId) {
+		super(event);
+		this.orderId = orderId;
+		this.productId = event.productId;
+		this.quantity = event.quantity;
+	}
+
+	/**
+	 * @return this event, for the given order (see {@link Order#domainEvents()})
+	 */
+	OrderItemAdded forOrder(Long orderId) {
+		return this.orderId != null ? this : new OrderItemAdded(this, orderId);
+	}
+
+	public Long getOrderId() {
+		return orderId;
+	}
+
+	public ProductId getProductId() {
+		return productId;
+	}
+
+	/**
+	 * @return the added quantity (not the item's new quantity)
+	 */
+	public int getQuantity() {
+		return quantity;
+	}
+
+	@Override
+	public String toString() {
+		return "OrderItemAdded [orderId=" + orderId
+				+ ", productId=" + productId.getValue()
+				+ ", quantity=" + quantity + "]";
+	}
+
+}
@@ -0,0 +1,40 @@
+package domainobjectsmvc.domain.model;
+
+public class OrderItemRemoved extends DomainEvent {
+
+	private final Long orderId;
+	private final ProductId productId;
+
+	OrderItemRemoved(Long orderId, ProductId productId) {
+		this.orderId = orderId;
+		this.productId = productId;
+	}
+
+	private OrderItemRemoved(OrderItemRemoved event, Long orderId) {
+		super(event);
+		this.orderId = orderId;
+		this.productId = event.productId;
+	}
+
+	/**
+	 * @return this event, for the given order (see {@link Order#domainEvents()})
+	 */
+	OrderItemRemoved forOrder(Long orderId) {
+		return this.orderId != null ? this : new OrderItemRemoved(this, orderId);
+	}
+
+	public Long getOrderId() {
+		return orderId;
+	}
+
+	public ProductId getProductId() {
+		return productId;
+	}
+
+	@Override
+	public String toString() {
+		return "OrderItemRemoved [orderId=" + orderId
+				+ ", productId=" + productId.getValue() + "]";
+	}
+
+}
@@ -1,8 +1,10 @@
 package domainobjectsmvc.domain.model;
 
-import org.springframework.data.repository.PagingAndSortingRepository;
-
 public interface OrderRepository
-		extends PagingAndSortingRepository<Order, Long> {
+		extends BatchRepository<Order, Long>, OrderRepositoryCustom {
+
+	// Declared by both, and implemented by OrderRepositoryImpl
+	@Override
+	void delete(Order order);
 
 }
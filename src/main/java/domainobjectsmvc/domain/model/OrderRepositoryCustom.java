@@ -0,0 +1,43 @@
+package domainobjectsmvc.domain.model;
+
+import java.util.Optional;
+
+/**
+ * Operations on {@link Order}s that are better done in the database than by
+ * loading the whole aggregate.
+ *
+ */
+public interface OrderRepositoryCustom {
+
+	/**
+	 * Adds the given quantity to the order's line for the given product, or
+	 * adds the line if the order does not have it yet. This is done with a
+	 * single <code>UPDATE</code> (or <code>INSERT</code>) without loading the
+	 * order and its items.
+	 *
+	 * @return the number of affected lines (zero if the order does not exist)
+	 */
+	int incrementQuantity(Long orderId, ProductId productId, int delta);
+
+	/**
+	 * Same as {@link BatchRepository#findById(Object)}, but reads from the
+	 * primary database, even with a replica (e.g. to fill a cache that a
+	 * lagging replica would fill with what was just invalidated).
+	 */
+	Optional<Order> findPrimaryById(Long id);
+
+	/**
+	 * Same as {@link BatchRepository#delete(Object)}, but also deletes the
+	 * order's items (which are not cascaded), and publishes an
+	 * {@link OrderDeleted} event.
+	 */
+	void delete(Order order);
+
+	/**
+	 * Same as {@link BatchRepository#deleteAllByIdInBatch(Iterable)}, but
+	 * also deletes the items of the deleted orders, and publishes an
+	 * {@link OrderDeleted} event for each given ID.
+	 */
+	int deleteAllByIdInBatch(Iterable<Long> ids);
+
+}
@@ -0,0 +1,147 @@
+package domainobjectsmvc.domain.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Collections;
+import java.util.Optional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import domainobjectsmvc.infrastructure.persistence.Batches;
+
+/**
+ * Custom implementation of {@link OrderRepositoryCustom} (picked up by Spring
+ * Data because of the "Impl" suffix).
+ *
+ */
+public class OrderRepositoryImpl implements OrderRepositoryCustom {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final ApplicationEventPublisher eventPublisher;
+	private final JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	public OrderRepositoryImpl(ApplicationEventPublisher eventPublisher,
+			DataSource dataSource) {
+		this.eventPublisher = eventPublisher;
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	/**
+	 * Note that this is a bulk update. Any {@link OrderItem}
+	 * already loaded in the current persistence context will not see the new
+	 * quantity. When two callers add the same missing line at the same time,
+	 * the second <code>INSERT</code> fails with a primary key violation. It is
+	 * rolled back to a savepoint (so that the transaction can go on), and the
+	 * <code>UPDATE</code> is done again.
+	 * <p>
+	 * Since the order is not loaded, the {@link OrderItemAdded} event is
+	 * published here (instead of being raised by {@link Order#addItem}).
+	 */
+	@Override
+	@Transactional
+	public int incrementQuantity(Long orderId, ProductId productId, int delta) {
+		if (orderId == null) {
+			throw new IllegalArgumentException("Order ID must not be null");
+		}
+		if (productId == null) {
+			throw new IllegalArgumentException("Product ID must not be null");
+		}
+		if (delta <= 0) {
+			throw new IllegalArgumentException("Added quantity must be greater than zero");
+		}
+		int updated = updateQuantity(orderId, productId, delta);
+		if (updated == 0) {
+			// Line is missing. Insert it, but only if the order exists.
+			try {
+				updated = insertItem(orderId, productId, delta);
+			} catch (DuplicateKeyException e) {
+				// inserted by a concurrent caller in the meantime
+				updated = updateQuantity(orderId, productId, delta);
+			}
+		}
+		if (updated > 0) {
+			eventPublisher.publishEvent(new OrderItemAdded(orderId, productId, delta));
+		}
+		return updated;
+	}
+
+	/**
+	 * Inserts through JDBC (in the same transaction), since a failed JPA
+	 * query would mark the whole transaction for rollback.
+	 */
+	private int insertItem(Long orderId, ProductId productId, int delta) {
+		return jdbcTemplate.execute((Connection connection) -> {
+			Savepoint savepoint = connection.setSavepoint();
+			try (PreparedStatement statement = connection.prepareStatement(
+					"insert into order_items (order_id, product_id, quantity)"
+					+ " select o.id, cast(? as varchar(255)), cast(? as integer)"
+					+ " from orders o where o.id = ?")) {
+				statement.setString(1, productId.getValue());
+				statement.setInt(2, delta);
+				statement.setLong(3, orderId);
+				int inserted = statement.executeUpdate();
+				connection.releaseSavepoint(savepoint);
+				return inserted;
+			} catch (SQLException e) {
+				connection.rollback(savepoint);
+				throw e;
+			}
+		});
+	}
+
+	private int updateQuantity(Long orderId, ProductId productId, int delta) {
+		return entityManager.createQuery(
+				"update OrderItem i set i.quantity = i.quantity + :delta"
+				+ " where i.orderItemId.orderId = :orderId"
+				+ " and i.orderItemId.productId = :productId")
+			.setParameter("delta", delta)
+			.setParameter("orderId", orderId)
+			.setParameter("productId", productId)
+			.executeUpdate();
+	}
+
+	@Override
+	// Not read-only, so that it reads from the primary
+	@Transactional
+	public Optional<Order> findPrimaryById(Long id) {
+		return Optional.ofNullable(entityManager.find(Order.class, id));
+	}
+
+	/**
+	 * Deletes the order the way Spring Data does, but Spring Data publishes
+	 * no events on delete (only on <code>save</code>).
+	 */
+	@Override
+	@Transactional
+	public void delete(Order order) {
+		Batches.deleteAllById(entityManager, "OrderItem", "orderItemId.orderId",
+				Collections.singleton(order.getId()));
+		entityManager.remove(entityManager.contains(order) ? order : entityManager.merge(order));
+		eventPublisher.publishEvent(new OrderDeleted(order.getId(), false));
+	}
+
+	@Override
+	@Transactional
+	public int deleteAllByIdInBatch(Iterable<Long> ids) {
+		Batches.deleteAllById(entityManager, "OrderItem", "orderItemId.orderId", ids);
+		int deleted = Batches.deleteAllById(entityManager, "Order", "id", ids);
+		if (deleted > 0) {
+			ids.forEach(id -> eventPublisher.publishEvent(new OrderDeleted(id, false)));
+		}
+		return deleted;
+	}
+
+}
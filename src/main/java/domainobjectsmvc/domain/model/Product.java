@@ -16,6 +16,10 @@ public class Product {
 		this.id = id;
 	}
 
+	protected Product() {
+		/* as required by ORM/JPA, not by design */
+	}
+
 	public ProductId getId() {
 		return id;
 	}
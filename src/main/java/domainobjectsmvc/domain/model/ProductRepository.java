@@ -0,0 +1,6 @@
+package domainobjectsmvc.domain.model;
+
+public interface ProductRepository
+		extends BatchRepository<Product, ProductId>, ProductRepositoryCustom {
+
+}
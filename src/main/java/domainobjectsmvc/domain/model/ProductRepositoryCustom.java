@@ -0,0 +1,11 @@
+package domainobjectsmvc.domain.model;
+
+public interface ProductRepositoryCustom {
+
+	/**
+	 * Same as {@link BatchRepository#deleteAllByIdInBatch(Iterable)}, but
+	 * also removes the deleted products from the in-memory catalog index.
+	 */
+	int deleteAllByIdInBatch(Iterable<ProductId> ids);
+
+}
@@ -0,0 +1,51 @@
+package domainobjectsmvc.domain.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import domainobjectsmvc.infrastructure.index.ProductCatalogIndex;
+import domainobjectsmvc.infrastructure.persistence.Batches;
+
+/**
+ * Custom implementation of {@link ProductRepositoryCustom} (picked up by
+ * Spring Data because of the "Impl" suffix).
+ *
+ */
+public class ProductRepositoryImpl implements ProductRepositoryCustom {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final ProductCatalogIndex catalogIndex;
+
+	@Autowired
+	public ProductRepositoryImpl(ProductCatalogIndex catalogIndex) {
+		this.catalogIndex = catalogIndex;
+	}
+
+	@Override
+	@Transactional
+	public int deleteAllByIdInBatch(Iterable<ProductId> ids) {
+		List<String> values = new ArrayList<>();
+		ids.forEach(id -> values.add(id.getValue()));
+		int deleted = Batches.deleteAllById(entityManager, "Product", "id.value", values);
+		// Bulk deletes do not trigger the index's entity listener
+		TransactionSynchronizationManager.registerSynchronization(
+				new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						ids.forEach(catalogIndex::remove);
+					}
+				});
+		return deleted;
+	}
+
+}
@@ -1,33 +1,121 @@
 package domainobjectsmvc.domain.model;
 
+import java.util.Objects;
+
 import javax.persistence.*;
 
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.proxy.HibernateProxy;
+
 /**
  * Sample domain entity with version for optimistic concurrency control.
+ * <p>
+ * Updates only include the modified columns (and the version), so that an
+ * unchanged {@link #getData() data} is not written again.
+ * <p>
+ * Data of up to {@value #MAX_INLINE_LENGTH} characters is stored inline.
+ * Longer data is stored as a {@link VersionedEntityPayload} (a LOB), which is
+ * not loaded with the entity, but only when {@link #getData()} is called. Its
+ * length is stored inline, so views can show it (and link to the streamed
+ * data) without loading the data.
  *
  */
 @Entity
+@DynamicUpdate
 @Table(name="versioned_entities")
 public class VersionedEntity {
 	
-	@Id @GeneratedValue(strategy=GenerationType.IDENTITY)
+	@Id @GeneratedValue(generator="snowflake")
 	private Long id;
 	
+	public static final int MAX_INLINE_LENGTH = 255;
+
+	@Column(length=MAX_INLINE_LENGTH)
 	private String data;
+
+	@OneToOne(fetch=FetchType.LAZY, cascade=CascadeType.ALL, orphanRemoval=true)
+	@JoinColumn(name="payload_id")
+	private VersionedEntityPayload payload;
+
+	private long dataLength;
 	
 	@Version
 	private int version;
 
+	public VersionedEntity() {
+	}
+
+	/**
+	 * For entities read from outside the table (see {@link AggregateCodec}).
+	 * A copy of an entity with a payload has a payload that is not loaded.
+	 */
+	VersionedEntity(Long id, String data, VersionedEntityPayload payload,
+			long dataLength, int version) {
+		this.id = id;
+		this.data = data;
+		this.payload = payload;
+		this.dataLength = dataLength;
+		this.version = version;
+	}
+
 	public Long getId() {
 		return id;
 	}
 
+	/**
+	 * Loads the payload, if the data is not inline.
+	 */
 	public String getData() {
-		return data;
+		return payload != null ? payload.getText() : data;
 	}
 
+	/**
+	 * Leaves the data as it is when unchanged, so that it is not written
+	 * again. The payload is only loaded to compare data of the same length.
+	 */
 	public void setData(String data) {
-		this.data = data;
+		if ((data != null ? data.length() : 0) == dataLength
+				&& Objects.equals(data, getData())) {
+			return;
+		}
+		if (data != null && data.length() > MAX_INLINE_LENGTH) {
+			this.data = null;
+			this.payload = VersionedEntityPayload.of(data);
+		} else {
+			this.data = data;
+			this.payload = null;
+		}
+		this.dataLength = data != null ? data.length() : 0;
+	}
+
+	public boolean isDataInline() {
+		return payload == null;
+	}
+
+	/**
+	 * @return the number of characters of the data (without loading it)
+	 */
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	/**
+	 * @return the inline data, or <code>null</code> if the data is stored as
+	 *         a payload (without loading it)
+	 */
+	String getInlineData() {
+		return data;
+	}
+
+	/**
+	 * @return the payload's ID (without loading it), or <code>null</code> if
+	 *         the data is inline
+	 */
+	Long getPayloadId() {
+		if (payload instanceof HibernateProxy) {
+			return (Long) ((HibernateProxy) payload).getHibernateLazyInitializer().getIdentifier();
+		}
+		return payload != null ? payload.getId() : null;
 	}
 
 	public int getVersion() {
@@ -0,0 +1,112 @@
+package domainobjectsmvc.domain.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.persistence.*;
+
+/**
+ * {@link VersionedEntity#getData() Data} that is too long to be stored
+ * inline, stored as a LOB (UTF-8, and gzipped if that makes it smaller) in a
+ * table of its own. It is only loaded when the data is asked for (or when it
+ * is replaced or deleted), and can be streamed without loading it (see
+ * {@link VersionedEntityRepositoryCustom#streamData(Long, java.io.OutputStream)}).
+ * <p>
+ * Payloads are never changed: new data gets a new payload.
+ *
+ */
+@Entity
+@Table(name="versioned_entity_payloads")
+public class VersionedEntityPayload {
+
+	@Id @GeneratedValue(generator="snowflake")
+	private Long id;
+
+	private boolean compressed;
+
+	@Lob
+	@Column(length=Integer.MAX_VALUE)
+	private byte[] content;
+
+	// loads the content of a payload that is not loaded
+	@Transient
+	private Function<Long, VersionedEntityPayload> loader;
+
+	protected VersionedEntityPayload() {
+		/* as required by ORM/JPA, not by design */
+	}
+
+	/**
+	 * A payload that is not loaded (see {@link AggregateCodec}). Its content
+	 * is loaded by the given loader (if any) when its text is asked for.
+	 */
+	VersionedEntityPayload(Long id, Function<Long, VersionedEntityPayload> loader) {
+		this.id = id;
+		this.loader = loader;
+	}
+
+	static VersionedEntityPayload of(String text) {
+		VersionedEntityPayload payload = new VersionedEntityPayload();
+		byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+		byte[] gzipped = gzip(utf8);
+		payload.compressed = gzipped.length < utf8.length;
+		payload.content = payload.compressed ? gzipped : utf8;
+		return payload;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getText() {
+		if (content == null) {
+			load();
+		}
+		try (InputStream in = open(compressed, new ByteArrayInputStream(content))) {
+			ByteArrayOutputStream text = new ByteArrayOutputStream(content.length);
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				text.write(buffer, 0, n);
+			}
+			return new String(text.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void load() {
+		VersionedEntityPayload loaded = (loader != null) ? loader.apply(id) : null;
+		if (loaded == null) {
+			throw new IllegalStateException(
+					"Payload " + id + " is not loaded (stream it instead)");
+		}
+		this.compressed = loaded.compressed;
+		this.content = loaded.content;
+	}
+
+	/**
+	 * @return the UTF-8 text of a stored payload's content
+	 */
+	public static InputStream open(boolean compressed, InputStream content) throws IOException {
+		return compressed ? new GZIPInputStream(content) : content;
+	}
+
+	private static byte[] gzip(byte[] bytes) {
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream(bytes.length / 4);
+		try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+			out.write(bytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return gzipped.toByteArray();
+	}
+
+}
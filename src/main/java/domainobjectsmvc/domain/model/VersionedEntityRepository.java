@@ -1,8 +1,7 @@
 package domainobjectsmvc.domain.model;
 
-import org.springframework.data.repository.PagingAndSortingRepository;
-
 public interface VersionedEntityRepository
-		extends PagingAndSortingRepository<VersionedEntity, Long> {
+		extends BatchRepository<VersionedEntity, Long>,
+			VersionedEntityRepositoryCustom {
 
 }
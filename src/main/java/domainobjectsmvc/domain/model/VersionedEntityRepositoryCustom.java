@@ -0,0 +1,69 @@
+package domainobjectsmvc.domain.model;
+
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+public interface VersionedEntityRepositoryCustom {
+
+	/**
+	 * Full-text search over {@link VersionedEntity#getData()}, ranked by
+	 * relevance. Matching IDs come from a full-text index, and only the
+	 * requested page of entities is fetched (in one query).
+	 */
+	Page<VersionedEntity> search(String query, Pageable pageable);
+
+	/**
+	 * Same as {@link BatchRepository#deleteAllByIdInBatch(Iterable)}, but
+	 * also removes the deleted entities from the full-text index.
+	 */
+	int deleteAllByIdInBatch(Iterable<Long> ids);
+
+	/**
+	 * Reads just the {@link VersionedEntity#getVersion() version} of the
+	 * entity with the given ID (not its data), e.g. to check whether a copy is
+	 * still current. Reads from the primary database, even with a replica.
+	 *
+	 * @return the version, or empty if there is no entity with the given ID
+	 */
+	Optional<Integer> findVersionById(Long id);
+
+	/**
+	 * Writes the {@link VersionedEntity#getData() data} of the entity with the
+	 * given ID to the given stream (as UTF-8), without loading the entity. A
+	 * payload is streamed from the database (and decompressed) as it is read.
+	 *
+	 * @return <code>false</code> (and nothing written) if there is no entity
+	 *         with the given ID
+	 */
+	boolean streamData(Long id, OutputStream out);
+
+	/**
+	 * Sets {@link VersionedEntity#getData() data} of the entity with the given
+	 * ID, if it is still at the given version, without reading it first. Only
+	 * the data columns and the version are written (and a previous payload is
+	 * deleted without being read).
+	 *
+	 * @return the number of updated entities (zero if there is no entity with
+	 *         the given ID, or if it is at another version)
+	 */
+	int updateData(Long id, int version, String data);
+
+	/**
+	 * Applies the given changes to the entity with the given ID, and saves it.
+	 * If someone else modified the entity in the meantime, the entity is
+	 * re-read and the changes are re-applied (so they should not depend on the
+	 * entity's previous state having been seen by a user), up to a bounded
+	 * number of attempts.
+	 *
+	 * @return the updated entity, or empty if there is no entity with the
+	 *         given ID
+	 * @throws org.springframework.dao.OptimisticLockingFailureException
+	 *             if all attempts conflicted
+	 */
+	Optional<VersionedEntity> update(Long id, Consumer<VersionedEntity> changes);
+
+}
@@ -0,0 +1,242 @@
+package domainobjectsmvc.domain.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import domainobjectsmvc.infrastructure.persistence.Batches;
+import domainobjectsmvc.infrastructure.persistence.OptimisticLockRetry;
+import domainobjectsmvc.infrastructure.search.VersionedEntityIndex;
+
+/**
+ * Custom implementation of {@link VersionedEntityRepositoryCustom} (picked up
+ * by Spring Data because of the "Impl" suffix).
+ *
+ */
+public class VersionedEntityRepositoryImpl implements VersionedEntityRepositoryCustom {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final VersionedEntityIndex index;
+	private final OptimisticLockRetry optimisticLockRetry;
+	private final TransactionTemplate transactionTemplate;
+
+	@Autowired
+	public VersionedEntityRepositoryImpl(VersionedEntityIndex index,
+			OptimisticLockRetry optimisticLockRetry,
+			PlatformTransactionManager transactionManager) {
+		this.index = index;
+		this.optimisticLockRetry = optimisticLockRetry;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(
+				TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+	}
+
+	/**
+	 * Hits for entities that have since been deleted are dropped. Hits whose
+	 * indexed version is behind the entity's are kept. Neither is fixed in the
+	 * index here (see {@link VersionedEntityIndex#repair()}).
+	 */
+	@Override
+	@Transactional(readOnly=true)
+	public Page<VersionedEntity> search(String query, Pageable pageable) {
+		Page<VersionedEntityIndex.Hit> hits = index.search(query, pageable);
+		if (!hits.hasContent()) {
+			return new PageImpl<>(new ArrayList<>(), pageable, hits.getTotalElements());
+		}
+		List<Long> ids = hits.getContent().stream()
+				.map(VersionedEntityIndex.Hit::getId)
+				.collect(Collectors.toList());
+		Map<Long, VersionedEntity> entities = entityManager.createQuery(
+				"select e from VersionedEntity e where e.id in :ids", VersionedEntity.class)
+			.setParameter("ids", ids)
+			.getResultList().stream()
+			.collect(Collectors.toMap(VersionedEntity::getId, Function.identity()));
+		List<VersionedEntity> content = new ArrayList<>(ids.size());
+		long dropped = 0;
+		for (VersionedEntityIndex.Hit hit : hits) {
+			VersionedEntity entity = entities.get(hit.getId());
+			if (entity == null) {
+				dropped++;
+				continue;
+			}
+			content.add(entity);
+		}
+		return new PageImpl<>(content, pageable, hits.getTotalElements() - dropped);
+	}
+
+	@Override
+	@Transactional
+	public int deleteAllByIdInBatch(Iterable<Long> ids) {
+		List<Long> payloadIds = new ArrayList<>();
+		for (List<Long> batch : Batches.partition(ids, Batches.BATCH_SIZE)) {
+			payloadIds.addAll(entityManager.createQuery(
+					"select p.id from VersionedEntity e join e.payload p where e.id in :ids",
+					Long.class)
+				.setParameter("ids", batch)
+				.getResultList());
+		}
+		int deleted = Batches.deleteAllById(
+				entityManager, "VersionedEntity", "id", ids);
+		// After the entities that refer to them
+		Batches.deleteAllById(entityManager, "VersionedEntityPayload", "id", payloadIds);
+		// Bulk deletes do not trigger the index's entity listener
+		TransactionSynchronizationManager.registerSynchronization(
+				new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						ids.forEach(index::delete);
+					}
+				});
+		return deleted;
+	}
+
+	@Override
+	// Not read-only, so that it reads from the primary (a lagging replica
+	// would approve a stale copy)
+	@Transactional
+	public Optional<Integer> findVersionById(Long id) {
+		return entityManager.createQuery(
+				"select e.version from VersionedEntity e where e.id = :id", Integer.class)
+			.setParameter("id", id)
+			.getResultList().stream()
+			.findFirst();
+	}
+
+	@Override
+	@Transactional(readOnly=true)
+	public boolean streamData(Long id, OutputStream out) {
+		return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(
+					"select e.data, p.compressed, p.content from versioned_entities e"
+					+ " left join versioned_entity_payloads p on p.id = e.payload_id"
+					+ " where e.id = ?")) {
+				statement.setLong(1, id);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					if (!resultSet.next()) {
+						return false;
+					}
+					InputStream content = resultSet.getBinaryStream(3);
+					if (content == null) {
+						String data = resultSet.getString(1);
+						if (data != null) {
+							out.write(data.getBytes(StandardCharsets.UTF_8));
+						}
+						return true;
+					}
+					try (InputStream in = VersionedEntityPayload.open(
+							resultSet.getBoolean(2), content)) {
+						byte[] buffer = new byte[8192];
+						int n;
+						while ((n = in.read(buffer)) != -1) {
+							out.write(buffer, 0, n);
+						}
+					}
+					return true;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Override
+	@Transactional
+	public int updateData(Long id, int version, String data) {
+		Long previousPayloadId = entityManager.createQuery(
+				"select p.id from VersionedEntity e join e.payload p"
+				+ " where e.id = :id and e.version = :version", Long.class)
+			.setParameter("id", id)
+			.setParameter("version", version)
+			.getResultList().stream()
+			.findFirst().orElse(null);
+		VersionedEntityPayload payload = null;
+		if (data != null && data.length() > VersionedEntity.MAX_INLINE_LENGTH) {
+			payload = VersionedEntityPayload.of(data);
+			entityManager.persist(payload);
+			// Bulk updates only flush what they touch, and the payload is not
+			entityManager.flush();
+		}
+		Query update = entityManager.createQuery(
+				"update VersionedEntity e set e.data = :data, e.dataLength = :dataLength,"
+				+ (payload != null ? " e.payload = :payload," : " e.payload = null,")
+				+ " e.version = e.version + 1"
+				+ " where e.id = :id and e.version = :version")
+			.setParameter("data", payload != null ? null : data)
+			.setParameter("dataLength", data != null ? (long) data.length() : 0L)
+			.setParameter("id", id)
+			.setParameter("version", version);
+		if (payload != null) {
+			update.setParameter("payload", payload);
+		}
+		int updated = update.executeUpdate();
+		if (updated == 0) {
+			if (payload != null) {
+				entityManager.remove(payload);
+			}
+			return 0;
+		}
+		if (previousPayloadId != null) {
+			entityManager.createQuery("delete from VersionedEntityPayload p where p.id = :id")
+				.setParameter("id", previousPayloadId)
+				.executeUpdate();
+		}
+		// Bulk updates do not trigger the index's entity listener
+		TransactionSynchronizationManager.registerSynchronization(
+				new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						index.update(id, version + 1, data);
+					}
+				});
+		return updated;
+	}
+
+	/**
+	 * Each attempt runs in its own transaction, so that a conflict is detected
+	 * (at flush) and rolled back before the next attempt. Rolling back also
+	 * clears the (possibly request-scoped) persistence context, so the next
+	 * attempt re-reads the entity.
+	 */
+	@Override
+	public Optional<VersionedEntity> update(Long id, Consumer<VersionedEntity> changes) {
+		return optimisticLockRetry.execute("VersionedEntity", id,
+				() -> transactionTemplate.execute(status -> {
+					VersionedEntity entity = entityManager.find(VersionedEntity.class, id);
+					if (entity == null) {
+						return Optional.<VersionedEntity>empty();
+					}
+					changes.accept(entity);
+					entityManager.flush();
+					return Optional.of(entity);
+				}));
+	}
+
+}
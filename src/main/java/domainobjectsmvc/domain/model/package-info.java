@@ -0,0 +1,9 @@
+/**
+ * Entities get their IDs from the "snowflake" generator declared here
+ * (replace its strategy to plug in another generator).
+ */
+@GenericGenerator(name="snowflake",
+		strategy="domainobjectsmvc.infrastructure.persistence.SnowflakeIdGenerator")
+package domainobjectsmvc.domain.model;
+
+import org.hibernate.annotations.GenericGenerator;
@@ -0,0 +1,213 @@
+package domainobjectsmvc.infrastructure.analytics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import domainobjectsmvc.domain.model.ProductId;
+
+/**
+ * Immutable, columnar snapshot of order lines: one primitive array per column
+ * (order ID, product code and quantity), with product IDs encoded by a
+ * {@link ProductDictionary}. Lines are sorted by order ID, then by product
+ * code, so that changes can be merged in one pass.
+ * <p>
+ * Aggregations scan the columns in parallel chunks, each with its own
+ * accumulator (indexed by product code), and then add up the accumulators.
+ *
+ */
+final class OrderLines {
+
+	/** A line's key, as used to sort lines and changes */
+	static final class Key implements Comparable<Key> {
+
+		final long orderId;
+		final int productCode;
+
+		Key(long orderId, int productCode) {
+			this.orderId = orderId;
+			this.productCode = productCode;
+		}
+
+		@Override
+		public int compareTo(Key other) {
+			int c = Long.compare(orderId, other.orderId);
+			return c != 0 ? c : Integer.compare(productCode, other.productCode);
+		}
+
+	}
+
+	/** A change to a line: a quantity delta, applied after an optional reset */
+	static final class Change {
+
+		static final Change REMOVE = new Change(true, 0);
+
+		final boolean reset;
+		final long delta;
+
+		Change(boolean reset, long delta) {
+			this.reset = reset;
+			this.delta = delta;
+		}
+
+		/**
+		 * @return this change followed by the given one
+		 */
+		Change then(Change next) {
+			return next.reset ? next : new Change(reset, delta + next.delta);
+		}
+
+	}
+
+	/** Lines per chunk of a parallel scan (below that, scans are sequential) */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final long[] orderIds;
+	private final int[] productCodes;
+	private final int[] quantities;
+	private final int size;
+	/** Product IDs by code (append-only, so safe to share with newer snapshots) */
+	private final ProductId[] dictionary;
+	/** Number of product codes in use when the snapshot was made */
+	private final int products;
+
+	OrderLines(long[] orderIds, int[] productCodes, int[] quantities, int size,
+			ProductId[] dictionary, int products) {
+		this.orderIds = orderIds;
+		this.productCodes = productCodes;
+		this.quantities = quantities;
+		this.size = size;
+		this.dictionary = dictionary;
+		this.products = products;
+	}
+
+	/**
+	 * Sorts the given columns (of lines in ascending order ID) by product
+	 * code within each order, and wraps them. The arrays are not copied.
+	 */
+	static OrderLines sortedByOrder(long[] orderIds, int[] productCodes,
+			int[] quantities, int size, ProductId[] dictionary, int products) {
+		for (int start = 0, end; start < size; start = end) {
+			end = start + 1;
+			while (end < size && orderIds[end] == orderIds[start]) {
+				end++;
+			}
+			// Insertion sort, since an order has few lines
+			for (int i = start + 1; i < end; i++) {
+				int code = productCodes[i];
+				int quantity = quantities[i];
+				int j = i - 1;
+				while (j >= start && productCodes[j] > code) {
+					productCodes[j + 1] = productCodes[j];
+					quantities[j + 1] = quantities[j];
+					j--;
+				}
+				productCodes[j + 1] = code;
+				quantities[j + 1] = quantity;
+			}
+		}
+		return new OrderLines(orderIds, productCodes, quantities, size, dictionary, products);
+	}
+
+	int size() {
+		return size;
+	}
+
+	ProductId product(int code) {
+		return dictionary[code];
+	}
+
+	/**
+	 * Merges the given changes into a new snapshot, after removing all lines
+	 * of the given deleted orders. Lines whose quantity drops to zero or
+	 * below are removed.
+	 */
+	OrderLines merge(NavigableMap<Key, Change> changes, Set<Long> deletedOrders,
+			ProductId[] dictionary, int products) {
+		int capacity = size + changes.size();
+		long[] newOrderIds = new long[capacity];
+		int[] newProductCodes = new int[capacity];
+		int[] newQuantities = new int[capacity];
+		int n = 0;
+		int i = 0;
+		Iterator<Map.Entry<Key, Change>> iterator = changes.entrySet().iterator();
+		Map.Entry<Key, Change> change = iterator.hasNext() ? iterator.next() : null;
+		while (i < size || change != null) {
+			if (i < size && !deletedOrders.isEmpty() && deletedOrders.contains(orderIds[i])) {
+				i++;
+				continue;
+			}
+			int c = (i == size) ? 1 : (change == null) ? -1
+					: compare(orderIds[i], productCodes[i], change.getKey());
+			long orderId;
+			int productCode;
+			long quantity;
+			if (c < 0) {
+				orderId = orderIds[i];
+				productCode = productCodes[i];
+				quantity = quantities[i++];
+			} else {
+				orderId = change.getKey().orderId;
+				productCode = change.getKey().productCode;
+				long current = (c == 0) ? quantities[i++] : 0;
+				quantity = (change.getValue().reset ? 0 : current) + change.getValue().delta;
+				change = iterator.hasNext() ? iterator.next() : null;
+			}
+			if (quantity > 0) {
+				newOrderIds[n] = orderId;
+				newProductCodes[n] = productCode;
+				newQuantities[n] = (int) Math.min(quantity, Integer.MAX_VALUE);
+				n++;
+			}
+		}
+		return new OrderLines(newOrderIds, newProductCodes, newQuantities, n, dictionary, products);
+	}
+
+	private static int compare(long orderId, int productCode, Key key) {
+		int c = Long.compare(orderId, key.orderId);
+		return c != 0 ? c : Integer.compare(productCode, key.productCode);
+	}
+
+	/**
+	 * @return the total quantity of each product, indexed by product code
+	 */
+	long[] quantityByProduct() {
+		return aggregate(true);
+	}
+
+	/**
+	 * @return the number of lines (i.e. of distinct orders) of each product,
+	 *         indexed by product code
+	 */
+	long[] linesByProduct() {
+		return aggregate(false);
+	}
+
+	private long[] aggregate(boolean quantity) {
+		int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream stream = IntStream.range(0, chunks);
+		if (chunks > 1 && ForkJoinPool.getCommonPoolParallelism() > 1) {
+			stream = stream.parallel();
+		}
+		return stream
+			.mapToObj(chunk -> {
+				long[] totals = new long[products];
+				int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+				for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+					totals[productCodes[i]] += quantity ? quantities[i] : 1;
+				}
+				return totals;
+			})
+			.reduce((a, b) -> {
+				for (int code = 0; code < a.length; code++) {
+					a[code] += b[code];
+				}
+				return a;
+			})
+			.orElseGet(() -> new long[products]);
+	}
+
+}
@@ -0,0 +1,324 @@
+package domainobjectsmvc.infrastructure.analytics;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.DomainEvent;
+import domainobjectsmvc.domain.model.OrderDeleted;
+import domainobjectsmvc.domain.model.OrderItemAdded;
+import domainobjectsmvc.domain.model.OrderItemRemoved;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.events.DomainEventBus;
+import domainobjectsmvc.infrastructure.events.DomainEventHandler;
+import domainobjectsmvc.infrastructure.sharding.ShardRoutingDataSource;
+
+/**
+ * Answers reports over order lines from an in-memory, columnar snapshot of
+ * <code>order_items</code> and <code>order_items_archive</code> (see
+ * {@link OrderLines}), instead of querying the tables row by row. So
+ * archiving orders does not change the reports.
+ * <p>
+ * The snapshot is built on first use, and rebuilt (with one scan of the
+ * tables on each shard) once it is older than the configured interval. In
+ * between, it is refreshed incrementally: committed {@link OrderItemAdded},
+ * {@link OrderItemRemoved} and {@link OrderDeleted} events are queued, and
+ * merged into a new snapshot before the next report. Changes that raise no
+ * events (e.g. orders loaded from files) only show after the next rebuild.
+ * <p>
+ * A rebuild records the sequence number of the last published event (see
+ * {@link DomainEventBus#lastSequence()}) before it scans, and events up to
+ * that number are discarded, since their changes had committed before the
+ * scan. Only an event published between its commit and that moment is
+ * counted twice (until the next rebuild).
+ *
+ */
+@Component
+public class OrderLinesAnalytics implements DomainEventHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderLinesAnalytics.class);
+
+	private final JdbcTemplate jdbcTemplate;
+	private final LongSupplier lastEventSequence;
+	private final int shards;
+	private final long rebuildIntervalNanos;
+
+	private static final class QueuedChange {
+
+		final long sequence;
+		final long orderId;
+		/** <code>null</code> for all lines of a deleted order */
+		final ProductId productId;
+		final OrderLines.Change change;
+
+		QueuedChange(long sequence, long orderId, ProductId productId,
+				OrderLines.Change change) {
+			this.sequence = sequence;
+			this.orderId = orderId;
+			this.productId = productId;
+			this.change = change;
+		}
+
+	}
+
+	/** Columns of scanned lines, in ascending order ID */
+	private static final class Scan {
+
+		long[] orderIds = new long[1024];
+		int[] productCodes = new int[1024];
+		int[] quantities = new int[1024];
+		int size;
+
+		void add(long orderId, int productCode, int quantity) {
+			if (size == orderIds.length) {
+				orderIds = Arrays.copyOf(orderIds, size * 2);
+				productCodes = Arrays.copyOf(productCodes, size * 2);
+				quantities = Arrays.copyOf(quantities, size * 2);
+			}
+			orderIds[size] = orderId;
+			productCodes[size] = productCode;
+			quantities[size] = quantity;
+			size++;
+		}
+
+		/**
+		 * @return the lines of all given scans, in ascending order ID (an
+		 *         order's lines are all on one shard)
+		 */
+		static Scan merge(List<Scan> scans) {
+			if (scans.size() == 1) {
+				return scans.get(0);
+			}
+			Scan merged = new Scan();
+			int[] positions = new int[scans.size()];
+			while (true) {
+				int next = -1;
+				for (int i = 0; i < scans.size(); i++) {
+					Scan scan = scans.get(i);
+					if (positions[i] < scan.size && (next < 0 || scan.orderIds[positions[i]]
+							< scans.get(next).orderIds[positions[next]])) {
+						next = i;
+					}
+				}
+				if (next < 0) {
+					return merged;
+				}
+				Scan scan = scans.get(next);
+				int position = positions[next]++;
+				merged.add(scan.orderIds[position], scan.productCodes[position],
+						scan.quantities[position]);
+			}
+		}
+
+	}
+
+	/** Committed changes, in commit order, not yet merged into the snapshot */
+	private final Queue<QueuedChange> changes = new ConcurrentLinkedQueue<>();
+
+	/** Events up to this sequence number are part of the last scan */
+	private volatile long scannedSequence;
+
+	// guarded by this
+	private final ProductDictionary dictionary = new ProductDictionary();
+	private long builtNanos;
+	private volatile OrderLines snapshot;
+
+	@Autowired
+	public OrderLinesAnalytics(DataSource dataSource,
+			// Lazily, since the bus depends on its handlers
+			ObjectProvider<DomainEventBus> eventBus,
+			@Value("${app.sharding.orders.urls:}") String[] shardUrls,
+			@Value("${app.analytics.order-lines.rebuild-interval-millis:600000}")
+			long rebuildIntervalMillis) {
+		this(dataSource, () -> eventBus.getObject().lastSequence(), shardUrls.length + 1,
+				rebuildIntervalMillis);
+	}
+
+	public OrderLinesAnalytics(DataSource dataSource, LongSupplier lastEventSequence,
+			int shards, long rebuildIntervalMillis) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.lastEventSequence = lastEventSequence;
+		this.shards = shards;
+		this.rebuildIntervalNanos = TimeUnit.MILLISECONDS.toNanos(rebuildIntervalMillis);
+	}
+
+	/**
+	 * @return the given number of products (or all of them, if not positive)
+	 *         with the highest total quantity, with their total quantity
+	 *         (highest first)
+	 */
+	public Map<ProductId, Long> topProductsByQuantity(int limit) {
+		OrderLines lines = snapshot();
+		return top(lines, lines.quantityByProduct(), limit);
+	}
+
+	/**
+	 * @return the number of orders of each product (most ordered first), up
+	 *         to the given number of products (or all of them, if not positive)
+	 */
+	public Map<ProductId, Long> ordersPerProduct(int limit) {
+		OrderLines lines = snapshot();
+		return top(lines, lines.linesByProduct(), limit);
+	}
+
+	/**
+	 * @return the given number of products (or all of them, if not positive)
+	 *         with the highest totals, highest first
+	 */
+	static Map<ProductId, Long> top(OrderLines lines, long[] totals, int limit) {
+		if (limit <= 0) {
+			limit = Integer.MAX_VALUE;
+		}
+		Comparator<Integer> byTotal = Comparator.comparingLong(code -> totals[code]);
+		// Min-heap of the top codes so far, so the smallest is evicted
+		PriorityQueue<Integer> top = new PriorityQueue<>(byTotal);
+		for (int code = 0; code < totals.length; code++) {
+			if (totals[code] <= 0) {
+				continue;
+			}
+			if (top.size() < limit) {
+				top.add(code);
+			} else if (totals[code] > totals[top.peek()]) {
+				top.poll();
+				top.add(code);
+			}
+		}
+		Integer[] codes = top.toArray(new Integer[0]);
+		Arrays.sort(codes, byTotal.reversed());
+		Map<ProductId, Long> result = new LinkedHashMap<>();
+		for (Integer code : codes) {
+			result.put(lines.product(code), totals[code]);
+		}
+		return result;
+	}
+
+	/**
+	 * Queues events without sequence numbers, which are never discarded.
+	 */
+	@Override
+	public void handle(List<DomainEvent> events) {
+		for (DomainEvent event : events) {
+			queue(event, Long.MAX_VALUE);
+		}
+	}
+
+	@Override
+	public void handle(List<DomainEvent> events, long[] sequences) {
+		for (int i = 0; i < events.size(); i++) {
+			if (sequences[i] > scannedSequence) {
+				queue(events.get(i), sequences[i]);
+			}
+		}
+	}
+
+	private void queue(DomainEvent event, long sequence) {
+		if (event instanceof OrderItemAdded) {
+			OrderItemAdded added = (OrderItemAdded) event;
+			changes.add(new QueuedChange(sequence, added.getOrderId(), added.getProductId(),
+					new OrderLines.Change(false, added.getQuantity())));
+		} else if (event instanceof OrderItemRemoved) {
+			OrderItemRemoved removed = (OrderItemRemoved) event;
+			changes.add(new QueuedChange(sequence, removed.getOrderId(),
+					removed.getProductId(), OrderLines.Change.REMOVE));
+		} else if (event instanceof OrderDeleted && !((OrderDeleted) event).isArchived()) {
+			// Archived lines are still scanned, so they stay in the reports
+			changes.add(new QueuedChange(sequence, ((OrderDeleted) event).getOrderId(),
+					null, OrderLines.Change.REMOVE));
+		}
+	}
+
+	/**
+	 * @return the current snapshot, after merging any queued changes (or
+	 *         rebuilding it, if it is too old)
+	 */
+	synchronized OrderLines snapshot() {
+		if (snapshot == null || System.nanoTime() - builtNanos > rebuildIntervalNanos) {
+			rebuild();
+		} else if (!changes.isEmpty()) {
+			NavigableMap<OrderLines.Key, OrderLines.Change> merged = new TreeMap<>();
+			Set<Long> deletedOrders = new HashSet<>();
+			QueuedChange queued;
+			while ((queued = changes.poll()) != null) {
+				if (queued.sequence <= scannedSequence) {
+					// Queued while a rebuild began, so part of its scan
+					continue;
+				}
+				if (queued.productId == null) {
+					merged.subMap(new OrderLines.Key(queued.orderId, Integer.MIN_VALUE), true,
+							new OrderLines.Key(queued.orderId, Integer.MAX_VALUE), true).clear();
+					deletedOrders.add(queued.orderId);
+				} else {
+					merged.merge(new OrderLines.Key(queued.orderId,
+							dictionary.encode(queued.productId)),
+							queued.change, OrderLines.Change::then);
+				}
+			}
+			snapshot = snapshot.merge(merged, deletedOrders, dictionary.values(),
+					dictionary.size());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Replaces the snapshot with one made from a scan of the tables of every
+	 * shard.
+	 */
+	public synchronized void rebuild() {
+		long start = System.nanoTime();
+		// Events published so far are part of the scan (see above)
+		scannedSequence = lastEventSequence.getAsLong();
+		changes.removeIf(queued -> queued.sequence <= scannedSequence);
+		List<Scan> scans = new ArrayList<>(shards);
+		for (int shard = 0; shard < shards; shard++) {
+			IntSupplier previous = ShardRoutingDataSource.bind(shard);
+			try {
+				scans.add(scan());
+			} finally {
+				ShardRoutingDataSource.restore(previous);
+			}
+		}
+		Scan lines = Scan.merge(scans);
+		snapshot = OrderLines.sortedByOrder(lines.orderIds, lines.productCodes,
+				lines.quantities, lines.size, dictionary.values(), dictionary.size());
+		builtNanos = System.nanoTime();
+		logger.debug("Built snapshot of {} order lines on {} shards in {} ms", lines.size,
+				shards, TimeUnit.NANOSECONDS.toMillis(builtNanos - start));
+	}
+
+	private Scan scan() {
+		Scan scan = new Scan();
+		jdbcTemplate.query(
+				"select order_id, product_id, quantity from order_items"
+				+ " union all select order_id, product_id, quantity from order_items_archive"
+				+ " order by 1",
+				rs -> {
+					scan.add(rs.getLong(1), dictionary.encode(new ProductId(rs.getString(2))),
+							rs.getInt(3));
+				});
+		return scan;
+	}
+
+}
@@ -0,0 +1,48 @@
+package domainobjectsmvc.infrastructure.analytics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import domainobjectsmvc.domain.model.ProductId;
+
+/**
+ * Encodes {@link ProductId}s as dense <code>int</code> codes, in order of
+ * first appearance. Codes are never reused, so the array of product IDs (see
+ * {@link #values()}) only grows, and a previously returned array stays valid
+ * for the codes it had.
+ * <p>
+ * Not thread-safe.
+ *
+ */
+final class ProductDictionary {
+
+	private final Map<ProductId, Integer> codes = new HashMap<>();
+	private ProductId[] values = new ProductId[64];
+	private int size;
+
+	int encode(ProductId productId) {
+		Integer code = codes.get(productId);
+		if (code != null) {
+			return code;
+		}
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size] = productId;
+		codes.put(productId, size);
+		return size++;
+	}
+
+	/**
+	 * @return the product IDs by code, up to {@link #size()} (not a copy)
+	 */
+	ProductId[] values() {
+		return values;
+	}
+
+	int size() {
+		return size;
+	}
+
+}
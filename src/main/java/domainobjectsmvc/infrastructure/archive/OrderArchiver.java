@@ -0,0 +1,151 @@
+package domainobjectsmvc.infrastructure.archive;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import domainobjectsmvc.domain.model.OrderDeleted;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
+import domainobjectsmvc.infrastructure.persistence.Batches;
+import domainobjectsmvc.infrastructure.persistence.Snowflake;
+import domainobjectsmvc.infrastructure.sharding.ShardRoutingDataSource;
+
+/**
+ * Moves old orders, with their items, from the order tables to the archive
+ * tables (see {@link domainobjectsmvc.domain.model.ArchivedOrder}), so that
+ * the order tables (and their indexes) stay about the size of the orders
+ * still in use.
+ * <p>
+ * Orders are old when their ID is below a watermark: either the configured
+ * one, or the first ID of the configured age (IDs are time-ordered, see
+ * {@link Snowflake}). They are moved in batches of the lowest IDs, on each
+ * shard, each batch in its own serializable transaction, so that a change
+ * to an order that is being moved makes either the change or the batch
+ * fail (instead of being lost). An interrupted run can simply be run again.
+ * <p>
+ * Rows are moved with SQL (not through JPA), so cached list pages of orders
+ * are invalidated after each batch. That only reaches this process's cache:
+ * when archiving from a job (see {@link domainobjectsmvc.OrderArchiveJob}),
+ * the list pages and orders cached by running nodes still include archived
+ * orders until they expire. Order exports and order line reports read the
+ * archive tables too, so they include archived orders. An
+ * {@link OrderDeleted} event (marked as archived) is published for each
+ * moved order.
+ *
+ */
+@Component
+public class OrderArchiver {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderArchiver.class);
+
+	private final NamedParameterJdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final ListPageCache listPageCache;
+	private final ApplicationEventPublisher eventPublisher;
+	private final int shards;
+	private final long maxAgeDays;
+	private final Long idWatermark;
+
+	@Autowired
+	public OrderArchiver(DataSource dataSource, PlatformTransactionManager transactionManager,
+			ListPageCache listPageCache, ApplicationEventPublisher eventPublisher,
+			@Value("${app.sharding.orders.urls:}") String[] shardUrls,
+			@Value("${app.archive.orders.max-age-days:365}") long maxAgeDays,
+			@Value("${app.archive.orders.id-watermark:#{null}}") Long idWatermark,
+			@Value("${app.archive.orders.batch-size:500}") int batchSize) {
+		if (batchSize <= 0 || batchSize > Batches.BATCH_SIZE) {
+			throw new IllegalArgumentException(
+					"Batch size must be between 1 and " + Batches.BATCH_SIZE);
+		}
+		JdbcTemplate template = new JdbcTemplate(dataSource);
+		// Only the selection of a batch is a query
+		template.setMaxRows(batchSize);
+		this.jdbcTemplate = new NamedParameterJdbcTemplate(template);
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_SERIALIZABLE);
+		this.listPageCache = listPageCache;
+		this.eventPublisher = eventPublisher;
+		this.shards = shardUrls.length + 1;
+		this.maxAgeDays = maxAgeDays;
+		this.idWatermark = idWatermark;
+	}
+
+	/**
+	 * Archives the orders below the configured watermark (or, if none, older
+	 * than the configured age).
+	 *
+	 * @return the number of archived orders
+	 */
+	public long archive() {
+		return archiveBelow(idWatermark != null ? idWatermark
+				: Snowflake.firstIdAt(Instant.now().minusMillis(TimeUnit.DAYS.toMillis(maxAgeDays))));
+	}
+
+	/**
+	 * Archives the orders with IDs below the given watermark.
+	 *
+	 * @return the number of archived orders
+	 */
+	public long archiveBelow(long watermark) {
+		long start = System.nanoTime();
+		long archived = 0;
+		for (int shard = 0; shard < shards; shard++) {
+			IntSupplier previous = ShardRoutingDataSource.bind(shard);
+			try {
+				int moved;
+				while ((moved = transactionTemplate.execute(status -> moveBatch(watermark))) > 0) {
+					archived += moved;
+					listPageCache.invalidate("orders");
+					logger.debug("Archived {} orders of shard {} so far", archived, shard);
+				}
+			} finally {
+				ShardRoutingDataSource.restore(previous);
+			}
+		}
+		logger.info("Archived {} orders below ID {} ({}) in {} ms", archived, watermark,
+				Snowflake.timestampOf(watermark),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return archived;
+	}
+
+	/**
+	 * @return the number of orders moved (zero when there are none left)
+	 */
+	private int moveBatch(long watermark) {
+		List<Long> ids = jdbcTemplate.queryForList(
+				"select id from orders where id < :watermark order by id",
+				Collections.singletonMap("watermark", watermark), Long.class);
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		Map<String, Object> params = Collections.singletonMap("ids", ids);
+		jdbcTemplate.update("insert into orders_archive (id, archived_at)"
+				+ " select id, current_timestamp from orders where id in (:ids)", params);
+		jdbcTemplate.update("insert into order_items_archive (order_id, product_id, quantity)"
+				+ " select order_id, product_id, quantity from order_items"
+				+ " where order_id in (:ids)", params);
+		jdbcTemplate.update("delete from order_items where order_id in (:ids)", params);
+		int moved = jdbcTemplate.update("delete from orders where id in (:ids)", params);
+		// Published once the batch commits
+		ids.forEach(id -> eventPublisher.publishEvent(new OrderDeleted(id, true)));
+		return moved;
+	}
+
+}
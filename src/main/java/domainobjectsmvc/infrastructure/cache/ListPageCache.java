@@ -0,0 +1,202 @@
+package domainobjectsmvc.infrastructure.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.infrastructure.persistence.ReadWriteRoutingDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Bounded, in-memory LRU cache of list pages, keyed by resource and
+ * {@link Pageable} (page, size and sort). Controllers (and batch writers,
+ * such as the order archiver) invalidate a resource's pages right after
+ * their writes have committed. Writes this node does not see (e.g. by other
+ * nodes) show up once the pages have expired, after the configured max age.
+ * <p>
+ * Cached entities are detached. List views should only use state that was
+ * loaded with the page (i.e. no lazy associations).
+ * <p>
+ * Pages are loaded from the primary (not from a lagging replica). Cached
+ * pages may still be older than a request's own writes on another node, so
+ * requests that read their own writes (see
+ * {@link ReadWriteRoutingDataSource#isStuckToPrimary()}) bypass the cache:
+ * they neither get cached pages, nor cache what they load.
+ * <p>
+ * Hits, misses and bypasses are counted per resource as
+ * <code>list.page.cache.gets</code> (tagged with <code>result</code>).
+ *
+ */
+@Component
+public class ListPageCache {
+
+	private static final class Key {
+
+		private final String resource;
+		private final Pageable pageable;
+
+		Key(String resource, Pageable pageable) {
+			this.resource = resource;
+			this.pageable = pageable;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * resource.hashCode() + pageable.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return resource.equals(other.resource) && pageable.equals(other.pageable);
+		}
+
+	}
+
+	private static final class Entry {
+
+		private final Page<?> page;
+		private final long loadedNanos;
+
+		Entry(Page<?> page, long loadedNanos) {
+			this.page = page;
+			this.loadedNanos = loadedNanos;
+		}
+
+	}
+
+	private final class Stats {
+
+		// incremented on every invalidation, to detect loads that raced with it
+		final AtomicLong generation = new AtomicLong();
+		final Counter hits;
+		final Counter misses;
+		final Counter bypasses;
+
+		Stats(String resource) {
+			this.hits = Counter.builder("list.page.cache.gets")
+					.tag("resource", resource).tag("result", "hit")
+					.register(meterRegistry);
+			this.misses = Counter.builder("list.page.cache.gets")
+					.tag("resource", resource).tag("result", "miss")
+					.register(meterRegistry);
+			this.bypasses = Counter.builder("list.page.cache.gets")
+					.tag("resource", resource).tag("result", "bypass")
+					.register(meterRegistry);
+		}
+
+	}
+
+	private final MeterRegistry meterRegistry;
+	private final long maxAgeNanos;
+	private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+	// guarded by itself
+	private final LinkedHashMap<Key, Entry> entries;
+
+	@Autowired
+	public ListPageCache(
+			@Value("${app.list-page-cache.max-entries:100}") int maxEntries,
+			@Value("${app.list-page-cache.max-age-millis:10000}") long maxAgeMillis,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		this(maxEntries, maxAgeMillis, meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+	}
+
+	public ListPageCache(int maxEntries, long maxAgeMillis, MeterRegistry meterRegistry) {
+		if (maxAgeMillis <= 0) {
+			throw new IllegalArgumentException("Max age must be greater than zero");
+		}
+		this.meterRegistry = meterRegistry;
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.meterRegistry.gaugeMapSize("list.page.cache.size", Tags.empty(), entries);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> Page<T> get(String resource, Pageable pageable, Supplier<Page<T>> loader) {
+		Stats stats = stats(resource);
+		if (ReadWriteRoutingDataSource.isStuckToPrimary()) {
+			stats.bypasses.increment();
+			return loader.get();
+		}
+		Key key = new Key(resource, pageable);
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry != null && !expired(entry.loadedNanos)) {
+			stats.hits.increment();
+			return (Page<T>) entry.page;
+		}
+		stats.misses.increment();
+		long generation = stats.generation.get();
+		long loadedNanos = System.nanoTime();
+		Page<T> page;
+		ReadWriteRoutingDataSource.stickToPrimary();
+		try {
+			page = loader.get();
+		} finally {
+			ReadWriteRoutingDataSource.release();
+		}
+		synchronized (entries) {
+			// Do not cache what was loaded while the resource was written to
+			if (stats.generation.get() == generation) {
+				entries.put(key, new Entry(page, loadedNanos));
+			}
+		}
+		return page;
+	}
+
+	public void invalidate(String resource) {
+		Stats stats = stats(resource);
+		synchronized (entries) {
+			stats.generation.incrementAndGet();
+			Iterator<Key> keys = entries.keySet().iterator();
+			while (keys.hasNext()) {
+				if (keys.next().resource.equals(resource)) {
+					keys.remove();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			this.stats.values().forEach(stats -> stats.generation.incrementAndGet());
+			entries.clear();
+		}
+	}
+
+	private boolean expired(long loadedNanos) {
+		return System.nanoTime() - loadedNanos >= maxAgeNanos;
+	}
+
+	private Stats stats(String resource) {
+		return stats.computeIfAbsent(resource, Stats::new);
+	}
+
+}
@@ -0,0 +1,177 @@
+package domainobjectsmvc.infrastructure.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU store of byte arrays (values) by <code>long</code> key, in
+ * off-heap memory. The memory is split into fixed-size blocks, in direct
+ * {@link ByteBuffer} segments of at most 1 GB (allocated when first needed).
+ * A value takes as many blocks as it needs, which do not have to be next to
+ * each other, so the memory does not fragment. When there are not enough free
+ * blocks for a value, the least recently used values are evicted.
+ * <p>
+ * The heap only holds the block numbers of each value, so a value of
+ * thousands of bytes costs the garbage collector one small array.
+ * <p>
+ * Thread-safe (one lock).
+ *
+ */
+public class OffHeapStore {
+
+	private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+	private static final class Entry {
+
+		final int[] blocks;
+		final int length;
+
+		Entry(int[] blocks, int length) {
+			this.blocks = blocks;
+			this.length = length;
+		}
+
+	}
+
+	private final int blockBytes;
+	private final int blocksPerSegment;
+	private final ByteBuffer[] segments;
+	/** Stack of free block numbers (lowest on top) */
+	private final int[] freeBlocks;
+	private int freeCount;
+	// access-ordered
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long usedBytes;
+	private long evictions;
+
+	public OffHeapStore(long capacityBytes, int blockBytes) {
+		if (capacityBytes < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative");
+		}
+		if (blockBytes <= 0 || blockBytes > MAX_SEGMENT_BYTES) {
+			throw new IllegalArgumentException("Block size must be between 1 and " + MAX_SEGMENT_BYTES);
+		}
+		long blockCount = capacityBytes / blockBytes;
+		if (blockCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many blocks (increase the block size)");
+		}
+		this.blockBytes = blockBytes;
+		this.blocksPerSegment = MAX_SEGMENT_BYTES / blockBytes;
+		this.segments = new ByteBuffer[(int) ((blockCount + blocksPerSegment - 1) / blocksPerSegment)];
+		this.freeBlocks = new int[(int) blockCount];
+		this.freeCount = freeBlocks.length;
+		for (int i = 0; i < freeCount; i++) {
+			freeBlocks[i] = freeCount - 1 - i;
+		}
+	}
+
+	/**
+	 * Stores the value (replacing any previous value of the key), evicting
+	 * least recently used values if needed.
+	 *
+	 * @return <code>false</code> if the value is larger than the store (in
+	 *         which case the key's previous value is removed)
+	 */
+	public synchronized boolean put(long key, byte[] value) {
+		release(entries.remove(key));
+		int needed = (value.length + blockBytes - 1) / blockBytes;
+		if (needed > freeBlocks.length) {
+			return false;
+		}
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (freeCount < needed) {
+			release(eldest.next());
+			eldest.remove();
+			evictions++;
+		}
+		int[] blocks = new int[needed];
+		for (int i = 0; i < needed; i++) {
+			int block = freeBlocks[--freeCount];
+			blocks[i] = block;
+			int offset = i * blockBytes;
+			ByteBuffer segment = segment(block);
+			segment.position((block % blocksPerSegment) * blockBytes);
+			segment.put(value, offset, Math.min(blockBytes, value.length - offset));
+		}
+		entries.put(key, new Entry(blocks, value.length));
+		usedBytes += value.length;
+		return true;
+	}
+
+	/**
+	 * @return a copy of the key's value, or <code>null</code> if there is none
+	 */
+	public synchronized byte[] get(long key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		byte[] value = new byte[entry.length];
+		for (int i = 0; i < entry.blocks.length; i++) {
+			int block = entry.blocks[i];
+			int offset = i * blockBytes;
+			ByteBuffer segment = segments[block / blocksPerSegment];
+			segment.position((block % blocksPerSegment) * blockBytes);
+			segment.get(value, offset, Math.min(blockBytes, value.length - offset));
+		}
+		return value;
+	}
+
+	public synchronized boolean remove(long key) {
+		Entry entry = entries.remove(key);
+		release(entry);
+		return entry != null;
+	}
+
+	public synchronized void clear() {
+		for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+			release(entry.getValue());
+		}
+		entries.clear();
+	}
+
+	private void release(Entry entry) {
+		if (entry == null) {
+			return;
+		}
+		// Pushed in reverse, so that the lowest blocks are reused first
+		for (int i = entry.blocks.length - 1; i >= 0; i--) {
+			freeBlocks[freeCount++] = entry.blocks[i];
+		}
+		usedBytes -= entry.length;
+	}
+
+	private ByteBuffer segment(int block) {
+		int index = block / blocksPerSegment;
+		ByteBuffer segment = segments[index];
+		if (segment == null) {
+			long remaining = (long) freeBlocks.length * blockBytes - (long) index * blocksPerSegment * blockBytes;
+			segment = ByteBuffer.allocateDirect((int) Math.min(remaining, (long) blocksPerSegment * blockBytes));
+			segments[index] = segment;
+		}
+		return segment;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the bytes taken by values (not counting the unused part of
+	 *         their last blocks)
+	 */
+	public synchronized long usedBytes() {
+		return usedBytes;
+	}
+
+	public long capacityBytes() {
+		return (long) freeBlocks.length * blockBytes;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+}
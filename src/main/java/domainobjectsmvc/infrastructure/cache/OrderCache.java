@@ -0,0 +1,249 @@
+package domainobjectsmvc.infrastructure.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.AggregateCodec;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.infrastructure.persistence.ReadWriteRoutingDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Two-tier cache of whole {@link Order} aggregates (with all their items), by
+ * ID:
+ * <ol>
+ * <li>on heap, as objects, bounded by the total number of items (orders with
+ * more items than that are not kept on heap at all)</li>
+ * <li>off heap, encoded with the {@link AggregateCodec}, in an
+ * {@link OffHeapStore} bounded by bytes</li>
+ * </ol>
+ * Both tiers evict the least recently used orders. Loaded orders are
+ * encoded into both tiers: on heap goes a decoded copy (so as not to keep
+ * the loading session's managed order, nor its proxies), and orders found
+ * off heap are decoded (as a new copy) and put back on heap. So large
+ * orders, and orders that are not read often, do not stay on heap, where a
+ * garbage collector would have to trace every item.
+ * <p>
+ * Cached orders are detached, and shared by concurrent readers, so they must
+ * only be used for viewing. Controllers invalidate an order right after its
+ * save or delete has committed, and loaders are expected to read the primary
+ * database (a lagging replica could return what was just invalidated). Orders
+ * written where this cache does not see it (e.g. by other nodes) are loaded
+ * again once they have been cached for the max age. Requests that read their
+ * own writes (see {@link ReadWriteRoutingDataSource#isStuckToPrimary()})
+ * bypass the cache: they neither get cached orders, nor cache what they
+ * load.
+ * <p>
+ * Meters:
+ * <ul>
+ * <li><code>order.cache.gets</code> (tagged with <code>tier</code> and
+ * <code>result</code>, or with <code>result</code> <code>bypass</code>;
+ * expired orders count as misses)</li>
+ * <li><code>order.cache.heap.items</code></li>
+ * <li><code>order.cache.off-heap.bytes</code></li>
+ * <li><code>order.cache.off-heap.evictions</code></li>
+ * </ul>
+ *
+ */
+@Component
+public class OrderCache {
+
+	private static final class Entry {
+
+		final Order order;
+		final long loadedNanos;
+
+		Entry(Order order, long loadedNanos) {
+			this.order = order;
+			this.loadedNanos = loadedNanos;
+		}
+
+	}
+
+	private final AggregateCodec codec;
+	private final int heapMaxItems;
+	private final long maxAgeNanos;
+	// values are the load time followed by the encoded order
+	private final OffHeapStore offHeap;
+
+	// incremented on every invalidation, to detect loads that raced with it
+	private final AtomicLong generation = new AtomicLong();
+	// guarded by itself, access-ordered
+	private final LinkedHashMap<Long, Entry> heap = new LinkedHashMap<>(16, 0.75f, true);
+	private long heapItems;
+
+	private final Counter heapHits;
+	private final Counter heapMisses;
+	private final Counter offHeapHits;
+	private final Counter offHeapMisses;
+	private final Counter bypasses;
+
+	@Autowired
+	public OrderCache(AggregateCodec codec,
+			@Value("${app.order-cache.heap.max-items:10000}") int heapMaxItems,
+			@Value("${app.order-cache.off-heap.capacity-bytes:67108864}") long offHeapCapacityBytes,
+			@Value("${app.order-cache.off-heap.block-bytes:4096}") int offHeapBlockBytes,
+			@Value("${app.order-cache.max-age-millis:60000}") long maxAgeMillis,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		this(codec, heapMaxItems, offHeapCapacityBytes, offHeapBlockBytes, maxAgeMillis,
+				meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+	}
+
+	public OrderCache(AggregateCodec codec, int heapMaxItems,
+			long offHeapCapacityBytes, int offHeapBlockBytes, long maxAgeMillis,
+			MeterRegistry meterRegistry) {
+		if (heapMaxItems < 0) {
+			throw new IllegalArgumentException("Max items must not be negative");
+		}
+		if (maxAgeMillis <= 0) {
+			throw new IllegalArgumentException("Max age must be greater than zero");
+		}
+		this.codec = codec;
+		this.heapMaxItems = heapMaxItems;
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+		this.offHeap = new OffHeapStore(offHeapCapacityBytes, offHeapBlockBytes);
+		this.heapHits = meterRegistry.counter("order.cache.gets", "tier", "heap", "result", "hit");
+		this.heapMisses = meterRegistry.counter("order.cache.gets", "tier", "heap", "result", "miss");
+		this.offHeapHits = meterRegistry.counter("order.cache.gets", "tier", "off-heap", "result", "hit");
+		this.offHeapMisses = meterRegistry.counter("order.cache.gets", "tier", "off-heap", "result", "miss");
+		this.bypasses = meterRegistry.counter("order.cache.gets", "tier", "none", "result", "bypass");
+		meterRegistry.gauge("order.cache.heap.items", this, OrderCache::heapItems);
+		meterRegistry.gauge("order.cache.off-heap.bytes", offHeap, OffHeapStore::usedBytes);
+		FunctionCounter.builder("order.cache.off-heap.evictions", offHeap, OffHeapStore::evictions)
+			.register(meterRegistry);
+	}
+
+	/**
+	 * @param loader
+	 *            loads the order (in full, from the primary database) when
+	 *            neither tier has it, or it has expired
+	 * @return a detached copy of the order (also when loaded), except when
+	 *         bypassed
+	 */
+	public Optional<Order> get(Long id, Supplier<Optional<Order>> loader) {
+		if (ReadWriteRoutingDataSource.isStuckToPrimary()) {
+			bypasses.increment();
+			return loader.get();
+		}
+		Entry entry;
+		synchronized (heap) {
+			entry = heap.get(id);
+		}
+		if (entry != null && !expired(entry.loadedNanos)) {
+			heapHits.increment();
+			return Optional.of(entry.order);
+		}
+		heapMisses.increment();
+		long generation = this.generation.get();
+		byte[] value = offHeap.get(id);
+		if (value != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(value);
+			long loadedNanos = buffer.getLong();
+			if (!expired(loadedNanos)) {
+				offHeapHits.increment();
+				Order order = codec.decodeOrder(buffer);
+				putOnHeap(id, new Entry(order, loadedNanos), generation);
+				return Optional.of(order);
+			}
+		}
+		offHeapMisses.increment();
+		long loadedNanos = System.nanoTime();
+		Optional<Order> loaded = loader.get();
+		if (!loaded.isPresent()) {
+			return loaded;
+		}
+		// Loads all items
+		byte[] encoded = codec.encode(loaded.get());
+		synchronized (heap) {
+			// Do not cache what was loaded while the order was written to
+			if (this.generation.get() == generation) {
+				offHeap.put(id, ByteBuffer.allocate(8 + encoded.length)
+						.putLong(loadedNanos)
+						.put(encoded)
+						.array());
+			}
+		}
+		Order order = codec.decodeOrder(encoded);
+		putOnHeap(id, new Entry(order, loadedNanos), generation);
+		return Optional.of(order);
+	}
+
+	private boolean expired(long loadedNanos) {
+		return System.nanoTime() - loadedNanos >= maxAgeNanos;
+	}
+
+	private void putOnHeap(Long id, Entry entry, long generation) {
+		int itemCount = entry.order.getItemCount();
+		if (itemCount > heapMaxItems) {
+			return;
+		}
+		synchronized (heap) {
+			if (this.generation.get() != generation) {
+				return;
+			}
+			Entry previous = heap.put(id, entry);
+			if (previous != null) {
+				heapItems -= previous.order.getItemCount();
+			}
+			heapItems += itemCount;
+			Iterator<Entry> eldest = heap.values().iterator();
+			while (heapItems > heapMaxItems) {
+				heapItems -= eldest.next().order.getItemCount();
+				eldest.remove();
+			}
+		}
+	}
+
+	public void invalidate(Long id) {
+		synchronized (heap) {
+			generation.incrementAndGet();
+			Entry previous = heap.remove(id);
+			if (previous != null) {
+				heapItems -= previous.order.getItemCount();
+			}
+			offHeap.remove(id);
+		}
+	}
+
+	public void clear() {
+		synchronized (heap) {
+			generation.incrementAndGet();
+			heap.clear();
+			heapItems = 0;
+			offHeap.clear();
+		}
+	}
+
+	private long heapItems() {
+		synchronized (heap) {
+			return heapItems;
+		}
+	}
+
+	/**
+	 * @return the number of orders in each tier
+	 */
+	public Map<String, Integer> sizes() {
+		Map<String, Integer> sizes = new LinkedHashMap<>();
+		synchronized (heap) {
+			sizes.put("heap", heap.size());
+		}
+		sizes.put("off-heap", offHeap.size());
+		return sizes;
+	}
+
+}
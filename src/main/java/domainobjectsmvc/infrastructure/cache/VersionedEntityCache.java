@@ -0,0 +1,176 @@
+package domainobjectsmvc.infrastructure.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.AggregateCodec;
+import domainobjectsmvc.domain.model.VersionedEntity;
+import domainobjectsmvc.domain.model.VersionedEntityRepository;
+import domainobjectsmvc.infrastructure.persistence.ReadWriteRoutingDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Bounded LRU near cache of recently read {@link VersionedEntity}s, kept
+ * encoded with the {@link AggregateCodec} together with their version. A
+ * cached entity is served without any query if it was checked within the
+ * staleness window, and otherwise after reading just its version
+ * ({@link VersionedEntityRepository#findVersionById(Long)}). Its data is
+ * only read again when the version has moved.
+ * <p>
+ * Every hit is decoded into a new detached copy, and so is every fill (so that
+ * callers get the same kind of entity either way). Controllers invalidate an
+ * entity right after their save or delete has committed. Entities written by
+ * other nodes are seen once the staleness window has passed (so a window of
+ * zero always checks). Versions are checked on the primary database, but
+ * entities may have been loaded from a replica, so requests that read their
+ * own writes (see {@link ReadWriteRoutingDataSource#isStuckToPrimary()})
+ * bypass the cache: they neither get cached entities, nor cache what they
+ * load.
+ * <p>
+ * Gets are counted as <code>versioned.entity.cache.gets</code>, tagged with
+ * <code>result</code>: <code>fresh</code> (within the window),
+ * <code>validated</code> (version unchanged), <code>stale</code> (version
+ * moved, or deleted), <code>miss</code>, or <code>bypass</code>.
+ *
+ */
+@Component
+public class VersionedEntityCache {
+
+	private static final class Entry {
+
+		final byte[] encoded;
+		final int version;
+		// guarded by the entries
+		long validatedNanos;
+
+		Entry(byte[] encoded, int version, long validatedNanos) {
+			this.encoded = encoded;
+			this.version = version;
+			this.validatedNanos = validatedNanos;
+		}
+
+	}
+
+	private final AggregateCodec codec;
+	private final VersionedEntityRepository repository;
+	private final long stalenessNanos;
+
+	// incremented on every invalidation, to detect loads that raced with it
+	private final AtomicLong generation = new AtomicLong();
+	// guarded by itself
+	private final LinkedHashMap<Long, Entry> entries;
+
+	private final Counter fresh;
+	private final Counter validated;
+	private final Counter stale;
+	private final Counter misses;
+	private final Counter bypasses;
+
+	@Autowired
+	public VersionedEntityCache(AggregateCodec codec, VersionedEntityRepository repository,
+			@Value("${app.versioned-entity-cache.max-entries:1000}") int maxEntries,
+			@Value("${app.versioned-entity-cache.staleness-millis:0}") long stalenessMillis,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		this.codec = codec;
+		this.repository = repository;
+		this.stalenessNanos = TimeUnit.MILLISECONDS.toNanos(stalenessMillis);
+		this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		MeterRegistry registry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+		this.fresh = registry.counter("versioned.entity.cache.gets", "result", "fresh");
+		this.validated = registry.counter("versioned.entity.cache.gets", "result", "validated");
+		this.stale = registry.counter("versioned.entity.cache.gets", "result", "stale");
+		this.misses = registry.counter("versioned.entity.cache.gets", "result", "miss");
+		this.bypasses = registry.counter("versioned.entity.cache.gets", "result", "bypass");
+		registry.gaugeMapSize("versioned.entity.cache.size", Tags.empty(), entries);
+	}
+
+	/**
+	 * @param loader
+	 *            reads the entity (with its data) when it is not cached, or its
+	 *            version has moved
+	 */
+	public Optional<VersionedEntity> get(Long id, Supplier<Optional<VersionedEntity>> loader) {
+		if (ReadWriteRoutingDataSource.isStuckToPrimary()) {
+			bypasses.increment();
+			return loader.get();
+		}
+		long generation = this.generation.get();
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(id);
+			if (entry != null && System.nanoTime() - entry.validatedNanos < stalenessNanos) {
+				fresh.increment();
+				return Optional.of(codec.decodeVersionedEntity(entry.encoded));
+			}
+		}
+		if (entry != null) {
+			long checkedNanos = System.nanoTime();
+			Optional<Integer> version = repository.findVersionById(id);
+			if (version.isPresent() && version.get() == entry.version) {
+				validated.increment();
+				synchronized (entries) {
+					if (entries.get(id) == entry) {
+						entry.validatedNanos = checkedNanos;
+					}
+				}
+				return Optional.of(codec.decodeVersionedEntity(entry.encoded));
+			}
+			stale.increment();
+			synchronized (entries) {
+				entries.remove(id, entry);
+			}
+			if (!version.isPresent()) {
+				return Optional.empty();
+			}
+		} else {
+			misses.increment();
+		}
+		long loadedNanos = System.nanoTime();
+		Optional<VersionedEntity> loaded = loader.get();
+		if (!loaded.isPresent()) {
+			return loaded;
+		}
+		Entry loadedEntry = new Entry(codec.encode(loaded.get()),
+				loaded.get().getVersion(), loadedNanos);
+		synchronized (entries) {
+			// Do not cache what was loaded while the entity was written to
+			if (this.generation.get() == generation) {
+				entries.put(id, loadedEntry);
+			}
+		}
+		return Optional.of(codec.decodeVersionedEntity(loadedEntry.encoded));
+	}
+
+	public void invalidate(Long id) {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.remove(id);
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package domainobjectsmvc.infrastructure.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads what a {@link BinaryWriter} wrote, from a {@link ByteBuffer} (on or
+ * off heap), starting at its position. Malformed input fails with an
+ * {@link IllegalArgumentException}.
+ * <p>
+ * Not thread-safe.
+ *
+ */
+public final class BinaryReader {
+
+	private final ByteBuffer buffer;
+
+	public BinaryReader(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	public BinaryReader(byte[] bytes) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	public int readByte() {
+		try {
+			return buffer.get() & 0xFF;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Unexpected end of input", e);
+		}
+	}
+
+	public long readVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable-length integer");
+	}
+
+	public int readVarInt() {
+		long value = readVarLong();
+		if ((value >>> 32) != 0) {
+			throw new IllegalArgumentException("Variable-length integer is out of range");
+		}
+		return (int) value;
+	}
+
+	public String readString() {
+		int length = readVarInt();
+		if (length == 0) {
+			return null;
+		}
+		length--;
+		if (length > buffer.remaining()) {
+			throw new IllegalArgumentException("Unexpected end of input");
+		}
+		if (buffer.hasArray()) {
+			String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+					length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return value;
+		}
+		byte[] utf8 = new byte[length];
+		buffer.get(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	public boolean hasRemaining() {
+		return buffer.hasRemaining();
+	}
+
+	public int remaining() {
+		return buffer.remaining();
+	}
+
+}
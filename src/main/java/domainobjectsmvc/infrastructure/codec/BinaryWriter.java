@@ -0,0 +1,79 @@
+package domainobjectsmvc.infrastructure.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes bytes, variable-length integers (LEB128: 7 bits per byte, least
+ * significant first, so small values take one byte) and strings to a
+ * growing array.
+ * <p>
+ * Not thread-safe.
+ *
+ */
+public final class BinaryWriter {
+
+	private byte[] bytes;
+	private int size;
+
+	public BinaryWriter(int initialCapacity) {
+		this.bytes = new byte[Math.max(initialCapacity, 16)];
+	}
+
+	public BinaryWriter writeByte(int value) {
+		ensureCapacity(1);
+		bytes[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Writes the given value as unsigned (so negative values take ten bytes).
+	 */
+	public BinaryWriter writeVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Writes the given value as unsigned (so negative values take five bytes).
+	 */
+	public BinaryWriter writeVarInt(int value) {
+		return writeVarLong(value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Writes the UTF-8 length plus one (zero for <code>null</code>),
+	 * followed by the UTF-8 bytes.
+	 */
+	public BinaryWriter writeString(String value) {
+		if (value == null) {
+			return writeVarInt(0);
+		}
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(utf8.length + 1);
+		ensureCapacity(utf8.length);
+		System.arraycopy(utf8, 0, bytes, size, utf8.length);
+		size += utf8.length;
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package domainobjectsmvc.infrastructure.codec;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import domainobjectsmvc.domain.model.AggregateCodec;
+import domainobjectsmvc.domain.model.VersionedEntityPayload;
+
+@Configuration
+public class CodecConfiguration {
+
+	@Bean
+	public AggregateCodec aggregateCodec(
+			@Value("${app.codec.max-dictionary-size:65536}") int maxDictionarySize,
+			ObjectProvider<EntityManagerFactory> entityManagerFactory) {
+		EntityManagerFactory factory = entityManagerFactory.getIfAvailable();
+		if (factory == null) {
+			return new AggregateCodec(maxDictionarySize);
+		}
+		// Decoded copies (e.g. from caches) load their payload on demand
+		return new AggregateCodec(maxDictionarySize, payloadId -> {
+			EntityManager entityManager = factory.createEntityManager();
+			try {
+				return entityManager.find(VersionedEntityPayload.class, payloadId);
+			} finally {
+				entityManager.close();
+			}
+		});
+	}
+
+}
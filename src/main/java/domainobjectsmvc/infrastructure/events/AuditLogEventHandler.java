@@ -0,0 +1,29 @@
+package domainobjectsmvc.infrastructure.events;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.DomainEvent;
+
+/**
+ * Writes committed domain events to the log (an audit trail).
+ *
+ */
+@Component
+public class AuditLogEventHandler implements DomainEventHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(AuditLogEventHandler.class);
+
+	@Override
+	public void handle(List<DomainEvent> events) {
+		if (logger.isInfoEnabled()) {
+			for (DomainEvent event : events) {
+				logger.info("{} at {}", event, event.getOccurredOn());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,222 @@
+package domainobjectsmvc.infrastructure.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import domainobjectsmvc.domain.model.DomainEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Hands domain events over to {@link DomainEventHandler}s, after the
+ * transaction that raised them commits (events raised outside a transaction
+ * are handed over right away). Events are put on a bounded
+ * {@link RingBuffer}, so the request thread does not wait for the handlers.
+ * Consumer threads drain the buffer in batches.
+ * <p>
+ * Events are numbered as they are published, i.e. after their transactions
+ * commit (see {@link #lastSequence()}), so that a handler can tell the
+ * events that committed before some point (e.g. before it read the
+ * database) from the others.
+ * <p>
+ * When the buffer is full, the publishing thread either waits for free space
+ * (up to a timeout) or the event is dropped, depending on the configured
+ * {@link Backpressure}. Dropped events are logged and counted.
+ * <p>
+ * Meters:
+ * <ul>
+ * <li><code>domain.events.published</code></li>
+ * <li><code>domain.events.dropped</code></li>
+ * <li><code>domain.events.backlog</code> (events waiting in the buffer)</li>
+ * <li><code>domain.events.lag</code> (from publication to handling)</li>
+ * <li><code>domain.events.batch.size</code></li>
+ * </ul>
+ *
+ */
+@Component
+public class DomainEventBus {
+
+	public enum Backpressure {
+		/** Wait for free space, up to the configured timeout, then drop */
+		BLOCK,
+		/** Drop the event right away */
+		DROP
+	}
+
+	private static class Envelope {
+
+		final DomainEvent event;
+		final long sequence;
+		final long publishedNanos = System.nanoTime();
+
+		Envelope(DomainEvent event, long sequence) {
+			this.event = event;
+			this.sequence = sequence;
+		}
+
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(DomainEventBus.class);
+
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final RingBuffer<Envelope> buffer;
+	private final int consumers;
+	private final int batchSize;
+	private final Backpressure backpressure;
+	private final long blockTimeoutNanos;
+	private final List<DomainEventHandler> handlers;
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final Counter published;
+	private final Counter dropped;
+	private final Timer lag;
+	private final DistributionSummary batchSizes;
+
+	private final List<Thread> threads = new ArrayList<>();
+	private volatile boolean running;
+
+	@Autowired
+	public DomainEventBus(
+			@Value("${app.domain-events.capacity:1024}") int capacity,
+			@Value("${app.domain-events.consumers:1}") int consumers,
+			@Value("${app.domain-events.batch-size:64}") int batchSize,
+			@Value("${app.domain-events.backpressure:BLOCK}") Backpressure backpressure,
+			@Value("${app.domain-events.block-timeout-millis:100}") long blockTimeoutMillis,
+			ObjectProvider<List<DomainEventHandler>> handlers,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		this(capacity, consumers, batchSize, backpressure, blockTimeoutMillis,
+				handlers.getIfAvailable(Collections::emptyList),
+				meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+	}
+
+	public DomainEventBus(int capacity, int consumers, int batchSize,
+			Backpressure backpressure, long blockTimeoutMillis,
+			List<DomainEventHandler> handlers, MeterRegistry registry) {
+		if (consumers <= 0) {
+			throw new IllegalArgumentException("Consumers must be greater than zero");
+		}
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be greater than zero");
+		}
+		this.buffer = new RingBuffer<>(capacity);
+		this.consumers = consumers;
+		this.batchSize = batchSize;
+		this.backpressure = backpressure;
+		this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+		this.handlers = handlers;
+		this.published = registry.counter("domain.events.published");
+		this.dropped = registry.counter("domain.events.dropped");
+		this.lag = registry.timer("domain.events.lag");
+		this.batchSizes = registry.summary("domain.events.batch.size");
+		registry.gauge("domain.events.backlog", buffer, RingBuffer::size);
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		for (int i = 0; i < consumers; i++) {
+			Thread thread = new Thread(this::consume, "domain-events-" + i);
+			thread.setDaemon(true);
+			thread.start();
+			threads.add(thread);
+		}
+	}
+
+	/**
+	 * Stops the consumer threads, after they have drained the buffer.
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		threads.clear();
+	}
+
+	/**
+	 * @return the sequence number of the last published event (numbers start
+	 *         at 1, so zero means none). Events published after this call get
+	 *         higher numbers.
+	 */
+	public long lastSequence() {
+		return sequence.get();
+	}
+
+	@TransactionalEventListener(fallbackExecution=true)
+	public void publish(DomainEvent event) {
+		Envelope envelope = new Envelope(event, sequence.incrementAndGet());
+		if (buffer.offer(envelope) || (backpressure == Backpressure.BLOCK && await(envelope))) {
+			published.increment();
+			return;
+		}
+		dropped.increment();
+		logger.warn("Dropped {} (buffer full)", event);
+	}
+
+	private boolean await(Envelope envelope) {
+		long deadline = System.nanoTime() + blockTimeoutNanos;
+		do {
+			LockSupport.parkNanos(IDLE_NANOS / 10);
+			if (buffer.offer(envelope)) {
+				return true;
+			}
+		} while (System.nanoTime() - deadline < 0 && !Thread.currentThread().isInterrupted());
+		return false;
+	}
+
+	private void consume() {
+		List<Envelope> batch = new ArrayList<>(batchSize);
+		List<DomainEvent> events = new ArrayList<>(batchSize);
+		long[] sequences = new long[batchSize];
+		while (running || !buffer.isEmpty()) {
+			if (buffer.drainTo(batch, batchSize) == 0) {
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			for (Envelope envelope : batch) {
+				sequences[events.size()] = envelope.sequence;
+				events.add(envelope.event);
+			}
+			dispatch(events, sequences);
+			long now = System.nanoTime();
+			for (Envelope envelope : batch) {
+				lag.record(now - envelope.publishedNanos, TimeUnit.NANOSECONDS);
+			}
+			batchSizes.record(batch.size());
+			batch.clear();
+			events.clear();
+		}
+	}
+
+	private void dispatch(List<DomainEvent> events, long[] sequences) {
+		List<DomainEvent> view = Collections.unmodifiableList(events);
+		for (DomainEventHandler handler : handlers) {
+			try {
+				handler.handle(view, sequences);
+			} catch (RuntimeException e) {
+				logger.error("{} failed to handle {} events", handler, events.size(), e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+package domainobjectsmvc.infrastructure.events;
+
+import java.util.List;
+
+import domainobjectsmvc.domain.model.DomainEvent;
+
+/**
+ * Reacts to committed domain events, off the request thread. Beans that
+ * implement this are called by the {@link DomainEventBus}'s consumer
+ * threads, with batches of events (in the order they were published, when
+ * there is a single consumer thread).
+ *
+ */
+public interface DomainEventHandler {
+
+	void handle(List<DomainEvent> events);
+
+	/**
+	 * Same as {@link #handle(List)}, with the sequence number of each event
+	 * (see {@link DomainEventBus#lastSequence()}), at the same index. The
+	 * array may be longer than the list, and is reused for the next batch.
+	 */
+	default void handle(List<DomainEvent> events, long[] sequences) {
+		handle(events);
+	}
+
+}
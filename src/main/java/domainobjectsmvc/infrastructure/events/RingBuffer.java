@@ -0,0 +1,125 @@
+package domainobjectsmvc.infrastructure.events;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, bounded, multi-producer multi-consumer queue (after Dmitry
+ * Vyukov's bounded MPMC queue). Each slot has a sequence number that tells
+ * producers and consumers whether it is free for the current lap, so
+ * neither has to lock, and a full (or empty) buffer is detected without
+ * waiting.
+ *
+ */
+public class RingBuffer<E> {
+
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            a power of two
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException(
+					"Capacity must be a power of two (and at least 2)");
+		}
+		this.mask = capacity - 1;
+		this.elements = new AtomicReferenceArray<>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the buffer is full
+	 */
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new NullPointerException("Element must not be null");
+		}
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					// Makes the element visible to consumers
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				// Slot not consumed yet since the previous lap
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * @return <code>null</code> if the buffer is empty
+	 */
+	public E poll() {
+		long position = head.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					E element = elements.get(index);
+					elements.lazySet(index, null);
+					// Frees the slot for producers on the next lap
+					sequences.set(index, position + mask + 1);
+					return element;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				// Slot not produced yet in this lap
+				return null;
+			} else {
+				position = head.get();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of elements moved to the given collection
+	 */
+	public int drainTo(Collection<? super E> collection, int maxElements) {
+		int drained = 0;
+		E element;
+		while (drained < maxElements && (element = poll()) != null) {
+			collection.add(element);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * @return the approximate number of elements (exact when there are no
+	 *         concurrent producers or consumers)
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+}
@@ -0,0 +1,135 @@
+package domainobjectsmvc.infrastructure.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes CSV rows (RFC 4180, UTF-8) to a {@link FileChannel}, through a
+ * direct buffer. Fields are quoted only when they contain a separator, a
+ * quote, or a line break.
+ * <p>
+ * Not thread-safe.
+ *
+ */
+final class CsvChannelWriter implements Closeable {
+
+	private final FileChannel channel;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private final CharBuffer chars = CharBuffer.allocate(8 * 1024);
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+	private boolean firstField = true;
+
+	CsvChannelWriter(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	CsvChannelWriter field(long value) throws IOException {
+		separate();
+		put(Long.toString(value));
+		return this;
+	}
+
+	/**
+	 * Writes an empty field for <code>null</code>.
+	 */
+	CsvChannelWriter field(String value) throws IOException {
+		separate();
+		if (value == null) {
+			return this;
+		}
+		if (!needsQuotes(value)) {
+			put(value);
+			return this;
+		}
+		put('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				put('"');
+			}
+			put(c);
+		}
+		put('"');
+		return this;
+	}
+
+	void endRow() throws IOException {
+		put('\n');
+		firstField = true;
+	}
+
+	private static boolean needsQuotes(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void separate() throws IOException {
+		if (!firstField) {
+			put(',');
+		}
+		firstField = false;
+	}
+
+	private void put(String value) throws IOException {
+		for (int i = 0; i < value.length(); i++) {
+			put(value.charAt(i));
+		}
+	}
+
+	private void put(char c) throws IOException {
+		if (!chars.hasRemaining()) {
+			encode(false);
+		}
+		chars.put(c);
+	}
+
+	private void encode(boolean endOfInput) throws IOException {
+		chars.flip();
+		CoderResult result;
+		while ((result = encoder.encode(chars, bytes, endOfInput)).isOverflow()) {
+			write();
+		}
+		if (result.isError()) {
+			result.throwException();
+		}
+		// Keeps the high surrogate of a pair that was split between buffers
+		chars.compact();
+	}
+
+	private void write() throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		bytes.clear();
+	}
+
+	/**
+	 * Writes out everything buffered, and forces it to the storage device.
+	 */
+	void finish() throws IOException {
+		encode(true);
+		while (encoder.flush(bytes).isOverflow()) {
+			write();
+		}
+		write();
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,326 @@
+package domainobjectsmvc.infrastructure.export;
+
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import domainobjectsmvc.infrastructure.sharding.ShardRoutingDataSource;
+
+/**
+ * Exports all orders (with their items), archived ones included (see
+ * {@link domainobjectsmvc.infrastructure.archive.OrderArchiver}), to CSV
+ * files in a directory, e.g. for a data warehouse. Each shard's orders are
+ * split into ranges of IDs (partitions), which are exported in parallel on a
+ * {@link ForkJoinPool}.
+ * Each partition is read in its own read-only transaction (on its own
+ * connection, and from the read replica, if there is one), and written
+ * through a {@link FileChannel}. IDs are time-ordered, so partitions of
+ * equal ID ranges hold the orders of equal spans of time.
+ * <p>
+ * A partition is written to a temporary file, which is renamed when it is
+ * complete. The partitions are recorded in the directory on the first run,
+ * so that an interrupted export can be resumed by exporting again to the
+ * same directory: complete partitions are skipped, and the others are
+ * written again. Orders created after the first run are outside the
+ * recorded ranges, and are not exported.
+ * <p>
+ * Each file has the columns <code>order_id,product_id,quantity</code>, with
+ * one row per order item (or, for an order without items, one row with an
+ * empty product and quantity), in order of order ID.
+ *
+ */
+@Component
+public class OrderExport {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderExport.class);
+
+	static final String MANIFEST = "partitions.csv";
+
+	/** An order is either in the order tables or in the archive tables */
+	private static final String ORDER_LINES = "select o.id, i.product_id, i.quantity"
+			+ " from orders o left join order_items i on i.order_id = o.id"
+			+ " where o.id between ? and ?"
+			+ " union all select o.id, i.product_id, i.quantity"
+			+ " from orders_archive o left join order_items_archive i on i.order_id = o.id"
+			+ " where o.id between ? and ?"
+			+ " order by 1, 2";
+
+	/**
+	 * Orders with IDs from {@link #fromId} to {@link #toId} (inclusive) on a
+	 * shard.
+	 */
+	public static final class Partition {
+
+		private final int shard;
+		private final int index;
+		private final long fromId;
+		private final long toId;
+
+		Partition(int shard, int index, long fromId, long toId) {
+			this.shard = shard;
+			this.index = index;
+			this.fromId = fromId;
+			this.toId = toId;
+		}
+
+		public int getShard() {
+			return shard;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		String getFileName() {
+			return String.format("orders-%d-%04d.csv", shard, index);
+		}
+
+		@Override
+		public String toString() {
+			return "partition " + index + " of shard " + shard;
+		}
+
+	}
+
+	public static final class PartitionResult {
+
+		private final Partition partition;
+		private final long rows;
+		private final long nanos;
+		private final boolean skipped;
+
+		PartitionResult(Partition partition, long rows, long nanos, boolean skipped) {
+			this.partition = partition;
+			this.rows = rows;
+			this.nanos = nanos;
+			this.skipped = skipped;
+		}
+
+		public Partition getPartition() {
+			return partition;
+		}
+
+		/**
+		 * @return the number of rows written (not counting the header), or
+		 *         zero if skipped
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		public long getMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+
+		public double getRowsPerSecond() {
+			return nanos > 0 ? rows * 1e9 / nanos : 0;
+		}
+
+		/**
+		 * @return whether the partition was complete from a previous run
+		 */
+		public boolean isSkipped() {
+			return skipped;
+		}
+
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate readOnly;
+	private final int shards;
+	private final int partitionsPerShard;
+	private final int parallelism;
+	private final int fetchSize;
+
+	@Autowired
+	public OrderExport(DataSource dataSource, PlatformTransactionManager transactionManager,
+			@Value("${app.sharding.orders.urls:}") String[] shardUrls,
+			@Value("${app.export.orders.partitions-per-shard:16}") int partitionsPerShard,
+			@Value("${app.export.orders.parallelism:4}") int parallelism,
+			@Value("${app.export.orders.fetch-size:1000}") int fetchSize) {
+		if (partitionsPerShard <= 0) {
+			throw new IllegalArgumentException("Partitions per shard must be greater than zero");
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be greater than zero");
+		}
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setFetchSize(fetchSize);
+		this.readOnly = new TransactionTemplate(transactionManager);
+		this.readOnly.setReadOnly(true);
+		this.readOnly.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.shards = shardUrls.length + 1;
+		this.partitionsPerShard = partitionsPerShard;
+		this.parallelism = parallelism;
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Exports all orders to the given directory (which is created if
+	 * needed), or resumes an export to it.
+	 *
+	 * @return the result of each partition
+	 */
+	public List<PartitionResult> export(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		List<Partition> partitions = partitions(directory);
+		logger.info("Exporting orders to {} in {} partitions (fetch size {})",
+				directory, partitions.size(), fetchSize);
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			List<ForkJoinTask<PartitionResult>> tasks = new ArrayList<>(partitions.size());
+			for (Partition partition : partitions) {
+				tasks.add(pool.submit(() -> export(directory, partition)));
+			}
+			List<PartitionResult> results = new ArrayList<>(tasks.size());
+			for (ForkJoinTask<PartitionResult> task : tasks) {
+				results.add(task.join());
+			}
+			long rows = results.stream().mapToLong(PartitionResult::getRows).sum();
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			logger.info("Exported {} rows to {} in {} ms ({} partitions skipped)", rows,
+					directory, millis, results.stream().filter(PartitionResult::isSkipped).count());
+			return results;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private PartitionResult export(Path directory, Partition partition) {
+		Path file = directory.resolve(partition.getFileName());
+		if (Files.exists(file)) {
+			logger.debug("Skipping {} (already exported)", partition);
+			return new PartitionResult(partition, 0, 0, true);
+		}
+		Path temporary = directory.resolve(partition.getFileName() + ".part");
+		long start = System.nanoTime();
+		long[] rows = { 0 };
+		try {
+			try (CsvChannelWriter writer = new CsvChannelWriter(
+					FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING))) {
+				writer.field("order_id").field("product_id").field("quantity").endRow();
+				onShard(partition.shard, () -> {
+					jdbcTemplate.query(ORDER_LINES, rs -> {
+						try {
+							writer.field(rs.getLong(1)).field(rs.getString(2));
+							int quantity = rs.getInt(3);
+							writer.field(rs.wasNull() ? null : Integer.toString(quantity)).endRow();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+						rows[0]++;
+					}, partition.fromId, partition.toId, partition.fromId, partition.toId);
+					return null;
+				});
+				writer.finish();
+			}
+			Files.move(temporary, file, ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to export " + partition, e);
+		}
+		PartitionResult result = new PartitionResult(partition, rows[0],
+				System.nanoTime() - start, false);
+		logger.info("Exported {}: {} rows in {} ms ({} rows/s)", partition,
+				result.getRows(), result.getMillis(), Math.round(result.getRowsPerSecond()));
+		return result;
+	}
+
+	/**
+	 * Reads the partitions recorded in the directory, or splits each shard's
+	 * range of order IDs into partitions (and records them).
+	 */
+	private List<Partition> partitions(Path directory) throws IOException {
+		Path manifest = directory.resolve(MANIFEST);
+		List<Partition> partitions = new ArrayList<>();
+		if (Files.exists(manifest)) {
+			for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+				String[] fields = line.split(",");
+				partitions.add(new Partition(Integer.parseInt(fields[0]),
+						Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+						Long.parseLong(fields[3])));
+			}
+			logger.info("Resuming export to {}", directory);
+			return partitions;
+		}
+		for (int shard = 0; shard < shards; shard++) {
+			Map<String, Object> range = onShard(shard, () -> jdbcTemplate.queryForMap(
+					"select min(min_id) min_id, max(max_id) max_id from ("
+					+ "select min(id) min_id, max(id) max_id from orders"
+					+ " union all select min(id), max(id) from orders_archive) ranges"));
+			Number min = (Number) range.get("min_id");
+			Number max = (Number) range.get("max_id");
+			if (min != null) {
+				partitions.addAll(split(shard, min.longValue(), max.longValue(),
+						partitionsPerShard));
+			}
+		}
+		List<String> lines = new ArrayList<>(partitions.size());
+		for (Partition partition : partitions) {
+			lines.add(partition.shard + "," + partition.index + ","
+					+ partition.fromId + "," + partition.toId);
+		}
+		Path temporary = directory.resolve(MANIFEST + ".part");
+		Files.write(temporary, lines, StandardCharsets.UTF_8);
+		Files.move(temporary, manifest, ATOMIC_MOVE);
+		return partitions;
+	}
+
+	/**
+	 * @return up to the given number of ranges of (about) equal width, from
+	 *         <code>min</code> to <code>max</code> (inclusive)
+	 */
+	static List<Partition> split(int shard, long min, long max, int count) {
+		if (min > max) {
+			return Collections.emptyList();
+		}
+		long width = (max - min) / count + 1;
+		List<Partition> partitions = new ArrayList<>(count);
+		for (long from = min; ; from += width) {
+			long to = max - from < width ? max : from + width - 1;
+			partitions.add(new Partition(shard, partitions.size(), from, to));
+			if (to == max) {
+				return partitions;
+			}
+		}
+	}
+
+	private <T> T onShard(int shard, Supplier<T> action) {
+		IntSupplier previous = ShardRoutingDataSource.bind(shard);
+		try {
+			return readOnly.execute(status -> action.get());
+		} finally {
+			ShardRoutingDataSource.restore(previous);
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+package domainobjectsmvc.infrastructure.index;
+
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.Account;
+import domainobjectsmvc.infrastructure.persistence.HibernateEventListeners;
+import domainobjectsmvc.infrastructure.persistence.PostCommitInsertListener;
+
+/**
+ * In-memory {@link BloomFilter} over all {@link Account} names. It is built
+ * at startup and updated after every committed insert, so that a negative
+ * answer means there is definitely no account with that name.
+ * <p>
+ * Accounts are never renamed. Deleted names stay in the filter (a Bloom
+ * filter cannot forget), which only costs an extra query until the next
+ * {@link #rebuild()}.
+ *
+ */
+@SuppressWarnings("serial")
+@Component
+@Lazy(false)
+public class AccountNameFilter implements PostCommitInsertListener {
+
+	private final EntityManagerFactory entityManagerFactory;
+	private final int expectedInsertions;
+	private final double falsePositiveProbability;
+
+	private final Object lock = new Object();
+	private volatile BloomFilter filter;
+	// guarded by lock
+	private BloomFilter rebuilding;
+
+	@Autowired
+	public AccountNameFilter(EntityManagerFactory entityManagerFactory,
+			@Value("${app.accounts.name-filter.expected-insertions:100000}")
+			int expectedInsertions,
+			@Value("${app.accounts.name-filter.false-positive-probability:0.01}")
+			double falsePositiveProbability) {
+		this.entityManagerFactory = entityManagerFactory;
+		this.expectedInsertions = expectedInsertions;
+		this.falsePositiveProbability = falsePositiveProbability;
+	}
+
+	@PostConstruct
+	public void init() {
+		// Register first, so that no insert is missed while building
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_INSERT, this);
+		rebuild();
+	}
+
+	public void rebuild() {
+		BloomFilter newFilter = new BloomFilter(
+				expectedInsertions, falsePositiveProbability);
+		synchronized (lock) {
+			this.rebuilding = newFilter;
+		}
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try (Stream<String> names = entityManager.unwrap(Session.class)
+				.createQuery("select a.name from Account a", String.class)
+				.setFetchSize(1000)
+				.stream()) {
+			names.forEach(newFilter::put);
+		} finally {
+			entityManager.close();
+		}
+		synchronized (lock) {
+			this.filter = newFilter;
+			this.rebuilding = null;
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if there is definitely no account with the
+	 *         given name, <code>true</code> if there might be one
+	 */
+	public boolean mightContain(String name) {
+		BloomFilter filter = this.filter;
+		return filter == null || filter.mightContain(name);
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		if (event.getEntity() instanceof Account) {
+			String name = ((Account) event.getEntity()).getName();
+			synchronized (lock) {
+				if (filter != null) {
+					filter.put(name);
+				}
+				if (rebuilding != null) {
+					rebuilding.put(name);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+		// nothing was added
+	}
+
+	@Override
+	public boolean requiresPostCommitHandling(EntityPersister persister) {
+		return Account.class.equals(persister.getMappedClass());
+	}
+
+}
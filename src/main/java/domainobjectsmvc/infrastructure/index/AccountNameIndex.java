@@ -0,0 +1,218 @@
+package domainobjectsmvc.infrastructure.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.Account;
+import domainobjectsmvc.infrastructure.persistence.HibernateEventListeners;
+import domainobjectsmvc.infrastructure.persistence.PostCommitInsertListener;
+
+/**
+ * In-memory trigram index over {@link Account} names for case-insensitive
+ * substring search. Since accounts are immutable, the index only grows after
+ * a committed insert and shrinks after a committed delete.
+ * <p>
+ * Fragments of three or more characters are answered from the posting list
+ * of their rarest trigram. Shorter fragments scan the in-memory names. Either
+ * way, no query is made.
+ *
+ */
+@SuppressWarnings("serial")
+@Component
+@Lazy(false)
+public class AccountNameIndex
+		implements PostCommitInsertListener, PostCommitDeleteEventListener {
+
+	private static final int N = 3;
+
+	private final EntityManagerFactory entityManagerFactory;
+
+	// lower-cased names by account ID
+	private final ConcurrentSkipListMap<Long, String> names = new ConcurrentSkipListMap<>();
+	// account IDs by trigram
+	private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+
+	@Autowired
+	public AccountNameIndex(EntityManagerFactory entityManagerFactory) {
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	@PostConstruct
+	public void init() {
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_INSERT, this);
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_DELETE, this);
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try (Stream<Object[]> rows = entityManager.unwrap(Session.class)
+				.createQuery("select a.id, a.name from Account a", Object[].class)
+				.setFetchSize(1000)
+				.stream()) {
+			rows.forEach(row -> add((Long) row[0], (String) row[1]));
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	public void add(Long id, String name) {
+		String key = normalize(name);
+		names.put(id, key);
+		for (int i = 0; i + N <= key.length(); i++) {
+			// add inside compute, so that it cannot race with remove
+			postings.compute(key.substring(i, i + N), (gram, ids) -> {
+				Set<Long> result = (ids != null) ? ids : ConcurrentHashMap.newKeySet();
+				result.add(id);
+				return result;
+			});
+		}
+	}
+
+	public void remove(Long id) {
+		String key = names.remove(id);
+		if (key == null) {
+			return;
+		}
+		for (int i = 0; i + N <= key.length(); i++) {
+			postings.computeIfPresent(key.substring(i, i + N), (gram, ids) -> {
+				ids.remove(id);
+				return ids.isEmpty() ? null : ids;
+			});
+		}
+	}
+
+	/**
+	 * Returns the IDs of accounts whose name contains the given fragment,
+	 * ignoring case. They are ordered by the sort of the given
+	 * {@link Pageable} (by <code>id</code> and/or <code>name</code>, names
+	 * ignoring case), and then by ascending ID.
+	 */
+	public Page<Long> search(String fragment, Pageable pageable) {
+		String key = normalize(fragment);
+		List<Long> matches = new ArrayList<>();
+		if (key.length() < N) {
+			// keys are already in ascending order
+			names.forEach((id, name) -> {
+				if (name.contains(key)) {
+					matches.add(id);
+				}
+			});
+		} else {
+			for (Long id : rarestPostings(key)) {
+				String name = names.get(id);
+				if (name != null && name.contains(key)) {
+					matches.add(id);
+				}
+			}
+			Collections.sort(matches);
+		}
+		if (pageable.getSort().isSorted()) {
+			matches.sort(comparator(pageable.getSort()));
+		}
+		if (pageable.isUnpaged()) {
+			return new PageImpl<>(matches, pageable, matches.size());
+		}
+		int from = (int) Math.min(pageable.getOffset(), matches.size());
+		int to = Math.min(from + pageable.getPageSize(), matches.size());
+		return new PageImpl<>(matches.subList(from, to), pageable, matches.size());
+	}
+
+	private Comparator<Long> comparator(Sort sort) {
+		Comparator<Long> result = null;
+		for (Sort.Order order : sort) {
+			Comparator<Long> next;
+			switch (order.getProperty()) {
+			case "id":
+				next = Comparator.naturalOrder();
+				break;
+			case "name":
+				// null if removed in the meantime
+				next = Comparator.comparing(names::get,
+						Comparator.nullsLast(Comparator.naturalOrder()));
+				break;
+			default:
+				throw new IllegalArgumentException(
+						"Accounts cannot be sorted by " + order.getProperty());
+			}
+			if (order.isDescending()) {
+				next = next.reversed();
+			}
+			result = (result != null) ? result.thenComparing(next) : next;
+		}
+		return result.thenComparing(Comparator.naturalOrder());
+	}
+
+	private Set<Long> rarestPostings(String key) {
+		Set<Long> rarest = null;
+		for (int i = 0; i + N <= key.length(); i++) {
+			Set<Long> ids = postings.get(key.substring(i, i + N));
+			if (ids == null) {
+				return Collections.emptySet();
+			}
+			if (rarest == null || ids.size() < rarest.size()) {
+				rarest = ids;
+			}
+		}
+		return rarest;
+	}
+
+	private static String normalize(String value) {
+		return value.toLowerCase(Locale.ROOT);
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		if (event.getEntity() instanceof Account) {
+			Account account = (Account) event.getEntity();
+			add(account.getId(), account.getName());
+		}
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof Account) {
+			remove((Long) event.getId());
+		}
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+		// nothing was added
+	}
+
+	@Override
+	public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+		// nothing was removed
+	}
+
+	@Override
+	public boolean requiresPostCommitHandling(EntityPersister persister) {
+		return Account.class.equals(persister.getMappedClass());
+	}
+
+}
@@ -0,0 +1,87 @@
+package domainobjectsmvc.infrastructure.index;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over strings. A negative answer from
+ * {@link #mightContain(CharSequence)} is definite, a positive one is not.
+ *
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray words;
+	private final int numBits;
+	private final int numHashFunctions;
+
+	public BloomFilter(int expectedInsertions, double falsePositiveProbability) {
+		if (expectedInsertions <= 0) {
+			throw new IllegalArgumentException(
+					"Expected insertions must be greater than zero");
+		}
+		if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+			throw new IllegalArgumentException(
+					"False positive probability must be between 0 and 1");
+		}
+		double ln2 = Math.log(2);
+		long bits = (long) Math.ceil(-expectedInsertions
+				* Math.log(falsePositiveProbability) / (ln2 * ln2));
+		this.numBits = (int) Math.min(Math.max(bits, Long.SIZE), Integer.MAX_VALUE - Long.SIZE);
+		this.numHashFunctions = Math.max(1,
+				(int) Math.round((double) numBits / expectedInsertions * ln2));
+		this.words = new AtomicLongArray((numBits + Long.SIZE - 1) / Long.SIZE);
+	}
+
+	public void put(CharSequence value) {
+		int h1 = hash1(value);
+		int h2 = hash2(value);
+		for (int i = 0; i < numHashFunctions; i++) {
+			int bit = Math.floorMod(h1 + i * h2, numBits);
+			int index = bit >>> 6;
+			long mask = 1L << bit;
+			long word;
+			do {
+				word = words.get(index);
+				if ((word & mask) != 0) {
+					break;
+				}
+			} while (!words.compareAndSet(index, word, word | mask));
+		}
+	}
+
+	public boolean mightContain(CharSequence value) {
+		int h1 = hash1(value);
+		int h2 = hash2(value);
+		for (int i = 0; i < numHashFunctions; i++) {
+			int bit = Math.floorMod(h1 + i * h2, numBits);
+			if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash1(CharSequence value) {
+		// murmur3 finalizer over the usual polynomial hash
+		int h = 0;
+		for (int i = 0; i < value.length(); i++) {
+			h = 31 * h + value.charAt(i);
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int hash2(CharSequence value) {
+		// FNV-1a, forced odd so that it never degenerates to h1 alone
+		int h = 0x811c9dc5;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x01000193;
+		}
+		return h | 1;
+	}
+
+}
@@ -0,0 +1,129 @@
+package domainobjectsmvc.infrastructure.index;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.Product;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.persistence.HibernateEventListeners;
+import domainobjectsmvc.infrastructure.persistence.PostCommitInsertListener;
+
+/**
+ * In-memory set of all {@link ProductId}s, so that order lines can be checked
+ * against the catalog without a query. It is loaded at startup, and updated
+ * after every committed insert and delete (a product's ID never changes).
+ * <p>
+ * Products inserted through another node are not seen by the listener, so a
+ * miss is checked with a query before it is trusted (products deleted
+ * through another node stay until restart).
+ *
+ */
+@SuppressWarnings("serial")
+@Component
+@Lazy(false)
+public class ProductCatalogIndex
+		implements PostCommitInsertListener, PostCommitDeleteEventListener {
+
+	private final EntityManagerFactory entityManagerFactory;
+
+	private final Set<ProductId> ids = ConcurrentHashMap.newKeySet();
+
+	@Autowired
+	public ProductCatalogIndex(EntityManagerFactory entityManagerFactory) {
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	@PostConstruct
+	public void init() {
+		// Register first, so that no change is missed while loading
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_INSERT, this);
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_DELETE, this);
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try (Stream<String> values = entityManager.unwrap(Session.class)
+				.createQuery("select p.id.value from Product p", String.class)
+				.setFetchSize(1000)
+				.stream()) {
+			values.forEach(value -> ids.add(new ProductId(value)));
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	public void add(ProductId id) {
+		ids.add(id);
+	}
+
+	public void remove(ProductId id) {
+		ids.remove(id);
+	}
+
+	public boolean contains(ProductId id) {
+		if (ids.contains(id)) {
+			return true;
+		}
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			boolean exists = entityManager.createQuery(
+					"select count(p) from Product p where p.id = :id", Long.class)
+				.setParameter("id", id)
+				.getSingleResult() > 0;
+			if (exists) {
+				ids.add(id);
+			}
+			return exists;
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	public int size() {
+		return ids.size();
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		if (event.getEntity() instanceof Product) {
+			add(((Product) event.getEntity()).getId());
+		}
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof Product) {
+			remove(((Product) event.getEntity()).getId());
+		}
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+		// nothing was added
+	}
+
+	@Override
+	public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+		// nothing was removed
+	}
+
+	@Override
+	public boolean requiresPostCommitHandling(EntityPersister persister) {
+		return Product.class.equals(persister.getMappedClass());
+	}
+
+}
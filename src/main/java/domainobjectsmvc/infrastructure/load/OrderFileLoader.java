@@ -0,0 +1,303 @@
+package domainobjectsmvc.infrastructure.load;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderItem;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
+import domainobjectsmvc.infrastructure.index.ProductCatalogIndex;
+import domainobjectsmvc.infrastructure.persistence.Snowflake;
+import domainobjectsmvc.infrastructure.persistence.SnowflakeIdGenerator;
+import domainobjectsmvc.infrastructure.sharding.OrderShards;
+import domainobjectsmvc.infrastructure.sharding.ShardRoutingDataSource;
+
+/**
+ * Loads order files (see {@link OrderFileParser} for their format) into new
+ * orders. Consecutive lines with the same order number make up one order.
+ * The number only groups lines, and each order gets a new ID.
+ * <p>
+ * Lines are applied with {@link Order#addItem}, so the domain's rules hold
+ * (e.g. quantities must be positive, and the quantities of a repeated
+ * product are added up), and their products must be in the catalog. A line
+ * that breaks a rule is rejected (and reported), and the rest of its order
+ * is loaded.
+ * <p>
+ * Orders and items are inserted with JDBC batches (not through JPA), in one
+ * transaction per batch and shard, so an interrupted load leaves the batches
+ * committed so far. Cached list pages of orders are invalidated after each
+ * batch. That only reaches this process's cache: when loading from a job
+ * (see {@link domainobjectsmvc.OrderLoadJob}), running nodes list the loaded
+ * orders once their cached pages expire. No domain events are published,
+ * so (in a running application) order line reports only include the loaded
+ * orders after their next rebuild.
+ *
+ */
+@Component
+public class OrderFileLoader {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderFileLoader.class);
+
+	/** Rejected lines beyond this number are counted, but not reported */
+	static final int MAX_REPORTED_REJECTIONS = 1000;
+
+	public static final class Rejection {
+
+		private final long lineNumber;
+		private final String reason;
+
+		Rejection(long lineNumber, String reason) {
+			this.lineNumber = lineNumber;
+			this.reason = reason;
+		}
+
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + lineNumber + ": " + reason;
+		}
+
+	}
+
+	public static final class LoadResult {
+
+		private final long lines;
+		private final long orders;
+		private final long items;
+		private final long rejected;
+		private final List<Rejection> rejections;
+		private final long nanos;
+
+		LoadResult(long lines, long orders, long items, long rejected,
+				List<Rejection> rejections, long nanos) {
+			this.lines = lines;
+			this.orders = orders;
+			this.items = items;
+			this.rejected = rejected;
+			this.rejections = Collections.unmodifiableList(rejections);
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the number of lines read (including a header, and blank
+		 *         lines)
+		 */
+		public long getLines() {
+			return lines;
+		}
+
+		public long getOrders() {
+			return orders;
+		}
+
+		public long getItems() {
+			return items;
+		}
+
+		public long getRejected() {
+			return rejected;
+		}
+
+		/**
+		 * @return the first {@value OrderFileLoader#MAX_REPORTED_REJECTIONS}
+		 *         rejected lines
+		 */
+		public List<Rejection> getRejections() {
+			return rejections;
+		}
+
+		public long getMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+
+		public double getLinesPerSecond() {
+			return nanos > 0 ? lines * 1e9 / nanos : 0;
+		}
+
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final ProductCatalogIndex productCatalog;
+	private final ListPageCache listPageCache;
+	private final Snowflake snowflake;
+	private final OrderShards orderShards;
+	private final int batchSize;
+	private final int windowBytes;
+
+	@Autowired
+	public OrderFileLoader(DataSource dataSource, PlatformTransactionManager transactionManager,
+			ProductCatalogIndex productCatalog, ListPageCache listPageCache,
+			@Value("${app.id.node-id:0}") int nodeId,
+			@Value("${app.sharding.orders.urls:}") String[] shardUrls,
+			@Value("${app.load.orders.batch-size:5000}") int batchSize,
+			@Value("${app.load.orders.window-bytes:268435456}") int windowBytes) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be greater than zero");
+		}
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.productCatalog = productCatalog;
+		this.listPageCache = listPageCache;
+		this.snowflake = SnowflakeIdGenerator.forNode(nodeId);
+		this.orderShards = new OrderShards(shardUrls.length + 1);
+		this.batchSize = batchSize;
+		this.windowBytes = windowBytes;
+	}
+
+	public LoadResult load(Path file) throws IOException {
+		long start = System.nanoTime();
+		Load load = new Load();
+		long lines;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			lines = new OrderFileParser(windowBytes).parse(channel, load);
+		}
+		load.complete();
+		load.write();
+		LoadResult result = new LoadResult(lines, load.orders, load.items,
+				load.rejected, load.rejections, System.nanoTime() - start);
+		logger.info("Loaded {} orders ({} items) from {} lines of {} in {} ms"
+				+ " ({} lines/s, {} rejected)", result.getOrders(), result.getItems(),
+				result.getLines(), file, result.getMillis(),
+				Math.round(result.getLinesPerSecond()), result.getRejected());
+		return result;
+	}
+
+	/**
+	 * Builds the order of the current run of lines, and collects completed
+	 * orders into batches.
+	 */
+	private class Load implements OrderFileParser.Handler {
+
+		private long orderNumber;
+		private Order order;
+		private boolean hasLines;
+
+		private final List<Order> batch = new ArrayList<>();
+		private int batchRows;
+
+		private long orders;
+		private long items;
+		private long rejected;
+		private final List<Rejection> rejections = new ArrayList<>();
+
+		@Override
+		public void line(long lineNumber, long orderNumber, ProductId productId, int quantity) {
+			if (order == null || orderNumber != this.orderNumber) {
+				complete();
+				this.order = new Order();
+				this.orderNumber = orderNumber;
+			}
+			if (productId == null) {
+				hasLines = true;
+			} else if (!productCatalog.contains(productId)) {
+				reject(lineNumber, "Unknown product " + productId.getValue());
+			} else {
+				try {
+					order.addItem(quantity, productId);
+					hasLines = true;
+				} catch (IllegalArgumentException e) {
+					reject(lineNumber, e.getMessage());
+				}
+			}
+		}
+
+		@Override
+		public void reject(long lineNumber, String reason) {
+			rejected++;
+			if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+				rejections.add(new Rejection(lineNumber, reason));
+			}
+			logger.debug("Rejected line {}: {}", lineNumber, reason);
+		}
+
+		/**
+		 * Adds the current order to the batch (unless all its lines were
+		 * rejected), and writes the batch once it is full.
+		 */
+		void complete() {
+			if (order != null && hasLines) {
+				batch.add(order);
+				batchRows += 1 + order.getItemCount();
+				if (batchRows >= batchSize) {
+					write();
+				}
+			}
+			order = null;
+			hasLines = false;
+		}
+
+		void write() {
+			Map<Integer, List<Object[]>> orderRows = new TreeMap<>();
+			Map<Integer, List<Object[]>> itemRows = new TreeMap<>();
+			for (Order order : batch) {
+				long id = snowflake.nextId();
+				int shard = orderShards.shardOf(id);
+				orderRows.computeIfAbsent(shard, key -> new ArrayList<>())
+					.add(new Object[] { id });
+				for (OrderItem item : order.getItems()) {
+					itemRows.computeIfAbsent(shard, key -> new ArrayList<>())
+						.add(new Object[] { id, item.getProductId().getValue(), item.getQuantity() });
+					items++;
+				}
+			}
+			for (Map.Entry<Integer, List<Object[]>> entry : orderRows.entrySet()) {
+				List<Object[]> shardItems = itemRows.getOrDefault(
+						entry.getKey(), Collections.emptyList());
+				IntSupplier previous = ShardRoutingDataSource.bind(entry.getKey());
+				try {
+					transactionTemplate.execute(status -> {
+						jdbcTemplate.batchUpdate("insert into orders (id) values (?)",
+								entry.getValue());
+						// An empty batch fails (e.g. when no order has items)
+						if (!shardItems.isEmpty()) {
+							jdbcTemplate.batchUpdate("insert into order_items"
+									+ " (order_id, product_id, quantity) values (?, ?, ?)",
+									shardItems);
+						}
+						return null;
+					});
+				} finally {
+					ShardRoutingDataSource.restore(previous);
+				}
+			}
+			orders += batch.size();
+			if (!batch.isEmpty()) {
+				listPageCache.invalidate("orders");
+				logger.debug("Loaded {} orders so far", orders);
+			}
+			batch.clear();
+			batchRows = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,300 @@
+package domainobjectsmvc.infrastructure.load;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import domainobjectsmvc.domain.model.ProductId;
+
+/**
+ * Parses order files (lines of <code>order_number,product_id,quantity</code>,
+ * as written by {@link domainobjectsmvc.infrastructure.export.OrderExport})
+ * from memory-mapped windows of the file. Fields are parsed from the mapped
+ * bytes, without a <code>String</code> per line or field, and equal product
+ * IDs are parsed into the same {@link ProductId}.
+ * <p>
+ * A first line that does not start with a digit is taken as a header, and
+ * blank lines are ignored. A line with an empty product ID and quantity
+ * stands for an order without items. Product IDs may be quoted (RFC 4180).
+ * <p>
+ * Not thread-safe.
+ *
+ */
+final class OrderFileParser {
+
+	interface Handler {
+
+		/**
+		 * @param productId <code>null</code> for an order without items
+		 */
+		void line(long lineNumber, long orderNumber, ProductId productId, int quantity);
+
+		void reject(long lineNumber, String reason);
+
+	}
+
+	/**
+	 * Thrown (and caught) to reject the current line.
+	 */
+	@SuppressWarnings("serial")
+	private static class RejectedLineException extends Exception {
+
+		RejectedLineException(String reason) {
+			super(reason, null, false, false);
+		}
+
+	}
+
+	private final int windowBytes;
+	private final ProductIds productIds = new ProductIds();
+
+	// State of the line being parsed
+	private MappedByteBuffer buffer;
+	private int position;
+	private int end;
+	private byte[] field = new byte[64];
+	private int fieldLength;
+
+	OrderFileParser(int windowBytes) {
+		if (windowBytes <= 0) {
+			throw new IllegalArgumentException("Window size must be greater than zero");
+		}
+		this.windowBytes = windowBytes;
+	}
+
+	/**
+	 * Maps the file one window at a time. A line that continues past the
+	 * end of a window is parsed from the next one, which starts with it.
+	 *
+	 * @return the number of lines (including header and blank lines)
+	 */
+	long parse(FileChannel channel, Handler handler) throws IOException {
+		long size = channel.size();
+		long offset = 0;
+		long lineNumber = 0;
+		while (offset < size) {
+			int length = (int) Math.min(windowBytes, size - offset);
+			boolean last = offset + length == size;
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+			int start = 0;
+			while (start < length) {
+				int newline = indexOfNewline(start, length);
+				if (newline < 0 && !last) {
+					break;
+				}
+				int lineEnd = newline < 0 ? length : newline;
+				lineNumber++;
+				parseLine(start, lineEnd, lineNumber, handler);
+				start = lineEnd + 1;
+			}
+			if (start == 0) {
+				throw new IOException("Line " + (lineNumber + 1)
+						+ " is longer than the window size (" + windowBytes + " bytes)");
+			}
+			offset += Math.min(start, length);
+		}
+		buffer = null;
+		return lineNumber;
+	}
+
+	private int indexOfNewline(int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void parseLine(int start, int lineEnd, long lineNumber, Handler handler) {
+		end = lineEnd > start && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+		if (start == end) {
+			return;
+		}
+		if (lineNumber == 1 && !isDigit(buffer.get(start))) {
+			return;
+		}
+		position = start;
+		try {
+			long orderNumber = parseOrderNumber();
+			expectSeparator();
+			parseField();
+			ProductId productId = fieldLength > 0 ? productId() : null;
+			expectSeparator();
+			boolean hasQuantity = position < end;
+			int quantity = hasQuantity ? parseQuantity() : 0;
+			if (position < end) {
+				throw new RejectedLineException("Too many fields");
+			}
+			if ((productId == null) != !hasQuantity) {
+				throw new RejectedLineException(
+						"Product ID and quantity must both be given, or both be empty");
+			}
+			handler.line(lineNumber, orderNumber, productId, quantity);
+		} catch (RejectedLineException e) {
+			handler.reject(lineNumber, e.getMessage());
+		}
+	}
+
+	private ProductId productId() throws RejectedLineException {
+		try {
+			return productIds.get(field, fieldLength);
+		} catch (IllegalArgumentException e) {
+			throw new RejectedLineException("Invalid product ID: " + e.getMessage());
+		}
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private long parseOrderNumber() throws RejectedLineException {
+		if (position == end || !isDigit(buffer.get(position))) {
+			throw new RejectedLineException("Order number must be a number");
+		}
+		long value = 0;
+		while (position < end && isDigit(buffer.get(position))) {
+			if (value > (Long.MAX_VALUE - 9) / 10) {
+				throw new RejectedLineException("Order number is too large");
+			}
+			value = value * 10 + (buffer.get(position++) - '0');
+		}
+		return value;
+	}
+
+	private int parseQuantity() throws RejectedLineException {
+		boolean negative = buffer.get(position) == '-';
+		if (negative) {
+			position++;
+		}
+		if (position == end || !isDigit(buffer.get(position))) {
+			throw new RejectedLineException("Quantity must be a number");
+		}
+		long value = 0;
+		while (position < end && isDigit(buffer.get(position))) {
+			value = value * 10 + (buffer.get(position++) - '0');
+			if (value > Integer.MAX_VALUE) {
+				throw new RejectedLineException("Quantity is too large");
+			}
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	private void expectSeparator() throws RejectedLineException {
+		if (position == end || buffer.get(position) != ',') {
+			throw new RejectedLineException("Expected three fields");
+		}
+		position++;
+	}
+
+	/**
+	 * Copies the (unquoted) bytes of the next field into {@link #field}.
+	 */
+	private void parseField() throws RejectedLineException {
+		fieldLength = 0;
+		if (position == end || buffer.get(position) != '"') {
+			while (position < end && buffer.get(position) != ',') {
+				append(buffer.get(position++));
+			}
+			return;
+		}
+		position++;
+		while (true) {
+			if (position == end) {
+				throw new RejectedLineException("Unterminated quoted field");
+			}
+			byte b = buffer.get(position++);
+			if (b == '"') {
+				if (position == end || buffer.get(position) != '"') {
+					return;
+				}
+				position++;
+			}
+			append(b);
+		}
+	}
+
+	private void append(byte b) {
+		if (fieldLength == field.length) {
+			field = Arrays.copyOf(field, fieldLength * 2);
+		}
+		field[fieldLength++] = b;
+	}
+
+	/**
+	 * Cache of the {@link ProductId}s parsed so far, looked up by their UTF-8
+	 * bytes (open addressing with linear probing). Stops growing at
+	 * {@link #MAX_SIZE} entries, after which uncached IDs are parsed anew.
+	 */
+	private static final class ProductIds {
+
+		private static final int MAX_SIZE = 1 << 16;
+
+		private byte[][] keys = new byte[64][];
+		private ProductId[] values = new ProductId[64];
+		private int size;
+
+		ProductId get(byte[] bytes, int length) {
+			int mask = keys.length - 1;
+			int i = hash(bytes, length) & mask;
+			for (byte[] key; (key = keys[i]) != null; i = (i + 1) & mask) {
+				if (equals(key, bytes, length)) {
+					return values[i];
+				}
+			}
+			ProductId productId = new ProductId(
+					new String(bytes, 0, length, StandardCharsets.UTF_8));
+			if (size < MAX_SIZE) {
+				keys[i] = Arrays.copyOf(bytes, length);
+				values[i] = productId;
+				if (++size > keys.length - (keys.length >>> 2)) {
+					resize();
+				}
+			}
+			return productId;
+		}
+
+		private static int hash(byte[] bytes, int length) {
+			int h = 1;
+			for (int i = 0; i < length; i++) {
+				h = 31 * h + bytes[i];
+			}
+			h *= 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		private static boolean equals(byte[] key, byte[] bytes, int length) {
+			if (key.length != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (key[i] != bytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void resize() {
+			byte[][] oldKeys = keys;
+			ProductId[] oldValues = values;
+			keys = new byte[oldKeys.length * 2][];
+			values = new ProductId[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldKeys[j] != null) {
+					int i = hash(oldKeys[j], oldKeys[j].length) & mask;
+					while (keys[i] != null) {
+						i = (i + 1) & mask;
+					}
+					keys[i] = oldKeys[j];
+					values[i] = oldValues[j];
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,45 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import domainobjectsmvc.domain.model.BatchRepository;
+
+/**
+ * Base class of all repositories (see {@link JpaRepositoriesConfiguration}).
+ *
+ */
+@Transactional(readOnly=true)
+public class BatchJpaRepository<T, ID> extends SimpleJpaRepository<T, ID>
+		implements BatchRepository<T, ID> {
+
+	private final JpaEntityInformation<T, ?> entityInformation;
+	private final EntityManager entityManager;
+
+	public BatchJpaRepository(JpaEntityInformation<T, ?> entityInformation,
+			EntityManager entityManager) {
+		super(entityInformation, entityManager);
+		this.entityInformation = entityInformation;
+		this.entityManager = entityManager;
+	}
+
+	@Override
+	public List<T> findAllById(Iterable<ID> ids) {
+		return Batches.findAllById(entityManager, getDomainClass(),
+				entityInformation.getIdAttribute().getName(), ids);
+	}
+
+	@Override
+	@Transactional
+	public int deleteAllByIdInBatch(Iterable<ID> ids) {
+		return Batches.deleteAllById(entityManager,
+				entityInformation.getEntityName(),
+				entityInformation.getIdAttribute().getName(), ids);
+	}
+
+}
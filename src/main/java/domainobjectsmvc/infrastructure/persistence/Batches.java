@@ -0,0 +1,66 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Helpers for splitting bulk operations into <code>IN (...)</code> lists of
+ * bounded size.
+ *
+ */
+public abstract class Batches {
+
+	/**
+	 * Keeps <code>IN (...)</code> lists well below database limits (e.g.
+	 * Oracle allows 1000 elements).
+	 */
+	public static final int BATCH_SIZE = 500;
+
+	public static <T> List<List<T>> partition(Iterable<T> elements, int batchSize) {
+		List<List<T>> batches = new ArrayList<>();
+		List<T> batch = new ArrayList<>(batchSize);
+		for (T element : elements) {
+			if (batch.size() == batchSize) {
+				batches.add(batch);
+				batch = new ArrayList<>(batchSize);
+			}
+			batch.add(element);
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	public static <T, ID> List<T> findAllById(EntityManager entityManager,
+			Class<T> entityClass, String idAttribute, Iterable<ID> ids) {
+		String jpql = "select x from " + entityManager.getMetamodel()
+				.entity(entityClass).getName()
+				+ " x where x." + idAttribute + " in :ids";
+		List<T> result = new ArrayList<>();
+		for (List<ID> batch : partition(ids, BATCH_SIZE)) {
+			result.addAll(entityManager.createQuery(jpql, entityClass)
+					.setParameter("ids", batch)
+					.getResultList());
+		}
+		return result;
+	}
+
+	public static <ID> int deleteAllById(EntityManager entityManager,
+			String entityName, String idAttribute, Iterable<ID> ids) {
+		String jpql = "delete from " + entityName
+				+ " x where x." + idAttribute + " in :ids";
+		int deleted = 0;
+		for (List<ID> batch : partition(ids, BATCH_SIZE)) {
+			deleted += entityManager.createQuery(jpql)
+					.setParameter("ids", batch)
+					.executeUpdate();
+		}
+		return deleted;
+	}
+
+	private Batches() {}
+
+}
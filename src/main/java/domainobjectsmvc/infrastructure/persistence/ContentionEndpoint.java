@@ -0,0 +1,32 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the rows with the most optimistic locking conflicts at
+ * <code>/actuator/contention</code>.
+ *
+ */
+@Component
+@Endpoint(id="contention")
+public class ContentionEndpoint {
+
+	private final OptimisticLockRetry optimisticLockRetry;
+
+	@Autowired
+	public ContentionEndpoint(OptimisticLockRetry optimisticLockRetry) {
+		this.optimisticLockRetry = optimisticLockRetry;
+	}
+
+	@ReadOperation
+	public Map<String, Map<Object, Long>> hottest(@Nullable Integer limit) {
+		return optimisticLockRetry.hottest(limit != null ? limit : 10);
+	}
+
+}
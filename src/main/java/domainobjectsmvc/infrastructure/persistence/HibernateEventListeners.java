@@ -0,0 +1,27 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+
+/**
+ * Registers Hibernate event listeners that are Spring-managed beans (which
+ * Hibernate cannot instantiate by itself).
+ *
+ */
+public abstract class HibernateEventListeners {
+
+	@SafeVarargs
+	public static <T> void append(EntityManagerFactory entityManagerFactory,
+			EventType<T> eventType, T... listeners) {
+		entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+			.getServiceRegistry()
+			.getService(EventListenerRegistry.class)
+			.appendListeners(eventType, listeners);
+	}
+
+	private HibernateEventListeners() {}
+
+}
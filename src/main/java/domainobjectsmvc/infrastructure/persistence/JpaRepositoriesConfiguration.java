@@ -0,0 +1,14 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import domainobjectsmvc.domain.model.BatchRepository;
+
+@Configuration
+@EnableJpaRepositories(
+		basePackageClasses=BatchRepository.class,
+		repositoryBaseClass=BatchJpaRepository.class)
+public class JpaRepositoriesConfiguration {
+
+}
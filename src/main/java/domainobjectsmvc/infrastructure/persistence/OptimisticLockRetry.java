@@ -0,0 +1,196 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.persistence.OptimisticLockException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Retries version-checked updates that fail with an
+ * {@link OptimisticLockingFailureException} (or, when called from behind
+ * Spring's exception translation, a JPA {@link OptimisticLockException}). Each attempt must re-read the
+ * entity and re-apply its changes (in a new transaction), since the previous
+ * read is stale. Attempts are separated by an exponential backoff with full
+ * jitter, and their number is bounded.
+ * <p>
+ * Conflicts are counted per entity and ID, so that hot rows can be found
+ * (see {@link #hottest(String, int)}). At most
+ * <code>app.optimistic-lock-retry.max-tracked-ids</code> IDs are tracked per
+ * entity: when that is reached, the IDs with the fewest conflicts are
+ * forgotten (down to three quarters of it). The following meters are
+ * recorded, tagged with the entity name:
+ * <ul>
+ * <li><code>optimistic.lock.attempts</code></li>
+ * <li><code>optimistic.lock.conflicts</code></li>
+ * <li><code>optimistic.lock.executions</code> (timer, tagged with
+ * <code>outcome</code> <code>success</code> or <code>exhausted</code>)</li>
+ * </ul>
+ *
+ */
+@Component
+public class OptimisticLockRetry {
+
+	private static final Logger logger = LoggerFactory.getLogger(OptimisticLockRetry.class);
+
+	private final int maxAttempts;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+	private final int maxTrackedIds;
+	private final MeterRegistry meterRegistry;
+
+	private final ConcurrentMap<String, ConcurrentMap<Object, LongAdder>> conflicts
+			= new ConcurrentHashMap<>();
+
+	@Autowired
+	public OptimisticLockRetry(
+			@Value("${app.optimistic-lock-retry.max-attempts:5}") int maxAttempts,
+			@Value("${app.optimistic-lock-retry.initial-backoff-millis:10}") long initialBackoffMillis,
+			@Value("${app.optimistic-lock-retry.max-backoff-millis:500}") long maxBackoffMillis,
+			@Value("${app.optimistic-lock-retry.max-tracked-ids:10000}") int maxTrackedIds,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		this(maxAttempts, initialBackoffMillis, maxBackoffMillis, maxTrackedIds,
+				meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+	}
+
+	public OptimisticLockRetry(int maxAttempts, long initialBackoffMillis,
+			long maxBackoffMillis, int maxTrackedIds, MeterRegistry meterRegistry) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("Max attempts must be greater than zero");
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.maxTrackedIds = Math.max(maxTrackedIds, 1);
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Runs the given attempt until it does not fail with an optimistic locking
+	 * failure, or until the maximum number
+	 * of attempts is reached (in which case the last exception is thrown).
+	 */
+	public <T> T execute(String entityName, Object id, Supplier<T> attempt) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		Counter attempts = meterRegistry.counter(
+				"optimistic.lock.attempts", "entity", entityName);
+		for (int i = 1; ; i++) {
+			attempts.increment();
+			try {
+				T result = attempt.get();
+				sample.stop(meterRegistry.timer("optimistic.lock.executions",
+						"entity", entityName, "outcome", "success"));
+				return result;
+			} catch (RuntimeException e) {
+				if (!isConflict(e)) {
+					throw e;
+				}
+				recordConflict(entityName, id);
+				if (i >= maxAttempts) {
+					sample.stop(meterRegistry.timer("optimistic.lock.executions",
+							"entity", entityName, "outcome", "exhausted"));
+					logger.debug("Giving up on {} {} after {} attempts", entityName, id, i);
+					throw e;
+				}
+				backoff(i);
+			}
+		}
+	}
+
+	/**
+	 * Records a conflict that was not retried (e.g. because a user has to
+	 * decide what to do with it).
+	 */
+	public void recordConflict(String entityName, Object id) {
+		meterRegistry.counter("optimistic.lock.conflicts", "entity", entityName)
+			.increment();
+		ConcurrentMap<Object, LongAdder> counts = conflicts.computeIfAbsent(
+				entityName, name -> new ConcurrentHashMap<>());
+		if (counts.size() >= maxTrackedIds && !counts.containsKey(id)) {
+			forgetColdest(counts);
+		}
+		counts.computeIfAbsent(id, key -> new LongAdder()).increment();
+	}
+
+	private void forgetColdest(ConcurrentMap<Object, LongAdder> counts) {
+		synchronized (counts) {
+			int excess = counts.size() - maxTrackedIds * 3 / 4;
+			if (excess <= 0) {
+				// already done by another thread
+				return;
+			}
+			counts.entrySet().stream()
+				.sorted(Comparator.comparing(entry -> entry.getValue().sum()))
+				.limit(excess)
+				.map(Map.Entry::getKey)
+				.collect(Collectors.toList())
+				.forEach(counts::remove);
+		}
+	}
+
+	/**
+	 * @return the IDs with the most conflicts (most first), and their number
+	 *         of conflicts
+	 */
+	public Map<Object, Long> hottest(String entityName, int limit) {
+		Map<Object, Long> hottest = new LinkedHashMap<>();
+		conflicts.getOrDefault(entityName, new ConcurrentHashMap<>())
+			.entrySet().stream()
+			.map(entry -> new Object[] { entry.getKey(), entry.getValue().sum() })
+			.sorted(Comparator.comparing((Object[] entry) -> (Long) entry[1]).reversed())
+			.limit(limit)
+			.forEachOrdered(entry -> hottest.put(entry[0], (Long) entry[1]));
+		return hottest;
+	}
+
+	public Map<String, Map<Object, Long>> hottest(int limit) {
+		Map<String, Map<Object, Long>> hottest = new LinkedHashMap<>();
+		conflicts.keySet().forEach(entityName ->
+				hottest.put(entityName, hottest(entityName, limit)));
+		return hottest;
+	}
+
+	private static boolean isConflict(RuntimeException e) {
+		return e instanceof OptimisticLockingFailureException
+				|| e instanceof OptimisticLockException;
+	}
+
+	private void backoff(int attempt) {
+		long ceiling = Math.min(maxBackoffMillis,
+				initialBackoffMillis << Math.min(attempt - 1, 20));
+		long millis = ThreadLocalRandom.current().nextLong(ceiling + 1);
+		try {
+			sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while backing off", e);
+		}
+	}
+
+	/**
+	 * Sleeps between attempts (overridden by tests).
+	 */
+	protected void sleep(long millis) throws InterruptedException {
+		Thread.sleep(millis);
+	}
+
+}
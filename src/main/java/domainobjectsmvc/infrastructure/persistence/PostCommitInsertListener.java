@@ -0,0 +1,25 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * {@link PostCommitInsertEventListener} that only needs to implement
+ * {@link #requiresPostCommitHandling(EntityPersister)}, and not the deprecated
+ * misspelling that Hibernate 5.2 still declares abstract. Listeners that also
+ * handle updates or deletes can implement the other post-commit interfaces
+ * next to this one.
+ *
+ */
+public interface PostCommitInsertListener extends PostCommitInsertEventListener {
+
+	@Override
+	boolean requiresPostCommitHandling(EntityPersister persister);
+
+	@Override
+	@Deprecated
+	default boolean requiresPostCommitHanding(EntityPersister persister) {
+		return requiresPostCommitHandling(persister);
+	}
+
+}
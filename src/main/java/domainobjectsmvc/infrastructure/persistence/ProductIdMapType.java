@@ -0,0 +1,80 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.collection.internal.PersistentMap;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.usertype.UserCollectionType;
+
+import domainobjectsmvc.domain.model.ProductIdMap;
+
+/**
+ * Hibernate collection type for maps keyed by
+ * {@link domainobjectsmvc.domain.model.ProductId}, so that loaded collections
+ * are backed by a {@link ProductIdMap} (instead of a
+ * {@link java.util.HashMap}). Behaves like Hibernate's own map type otherwise
+ * (including extra-lazy access).
+ *
+ */
+public class ProductIdMapType implements UserCollectionType {
+
+	@Override
+	public PersistentCollection instantiate(
+			SharedSessionContractImplementor session, CollectionPersister persister)
+			throws HibernateException {
+		return new PersistentMap(session);
+	}
+
+	@Override
+	public PersistentCollection wrap(
+			SharedSessionContractImplementor session, Object collection) {
+		return new PersistentMap(session, (Map<?, ?>) collection);
+	}
+
+	@Override
+	public Iterator<?> getElementsIterator(Object collection) {
+		return ((Map<?, ?>) collection).values().iterator();
+	}
+
+	@Override
+	public boolean contains(Object collection, Object entity) {
+		return ((Map<?, ?>) collection).containsValue(entity);
+	}
+
+	@Override
+	public Object indexOf(Object collection, Object entity) {
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) collection).entrySet()) {
+			if (entry.getValue() == entity) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Object replaceElements(Object original, Object target,
+			CollectionPersister persister, Object owner, Map copyCache,
+			SharedSessionContractImplementor session) throws HibernateException {
+		Map result = (Map) target;
+		result.clear();
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) original).entrySet()) {
+			result.put(
+					persister.getIndexType().replace(
+							entry.getKey(), null, session, owner, copyCache),
+					persister.getElementType().replace(
+							entry.getValue(), null, session, owner, copyCache));
+		}
+		return result;
+	}
+
+	@Override
+	public Object instantiate(int anticipatedSize) {
+		return new ProductIdMap<>(Math.max(anticipatedSize, 0));
+	}
+
+}
@@ -0,0 +1,61 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Replaces the auto-configured data source with one that routes read-only
+ * transactions to a replica, when <code>app.datasource.replica.url</code> is
+ * set. The primary is configured by the usual <code>spring.datasource.*</code>
+ * properties.
+ *
+ */
+@Configuration
+@ConditionalOnProperty("app.datasource.replica.url")
+public class ReadWriteRoutingConfiguration {
+
+	@Bean
+	public DataSource dataSource(DataSourceProperties properties,
+			@Value("${app.datasource.replica.url}") String replicaUrl,
+			@Value("${app.datasource.replica.username:sa}") String replicaUsername,
+			@Value("${app.datasource.replica.password:}") String replicaPassword) {
+		DataSource primary = properties.initializeDataSourceBuilder().build();
+		DataSource replica = DataSourceBuilder.create()
+				.driverClassName(properties.determineDriverClassName())
+				.url(replicaUrl)
+				.username(replicaUsername)
+				.password(replicaPassword)
+				.build();
+		Map<Object, Object> targets = new HashMap<>();
+		targets.put(ReadWriteRoutingDataSource.Route.PRIMARY, primary);
+		targets.put(ReadWriteRoutingDataSource.Route.REPLICA, replica);
+		ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource();
+		routing.setTargetDataSources(targets);
+		routing.setDefaultTargetDataSource(primary);
+		routing.afterPropertiesSet();
+		return new LazyConnectionDataSourceProxy(routing);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name="app.datasource.replica.read-your-writes", matchIfMissing=true)
+	public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(
+			@Value("${app.datasource.replica.read-your-writes-millis:5000}") long stickyMillis) {
+		FilterRegistrationBean<ReadYourWritesFilter> registration =
+				new FilterRegistrationBean<>(new ReadYourWritesFilter(stickyMillis));
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 100);
+		return registration;
+	}
+
+}
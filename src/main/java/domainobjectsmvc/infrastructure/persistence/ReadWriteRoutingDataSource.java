@@ -0,0 +1,54 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes read-only transactions to a replica, and everything else
+ * (read-write transactions, and work outside a transaction) to the primary.
+ * <p>
+ * Must be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy},
+ * since the transaction manager gets a connection before it marks the
+ * transaction as read-only.
+ *
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+	public enum Route {
+		PRIMARY, REPLICA
+	}
+
+	private static final ThreadLocal<Boolean> primaryOnly = new ThreadLocal<>();
+
+	/**
+	 * Routes read-only transactions of the current thread to the primary too
+	 * (e.g. to read one's own writes), until {@link #release()} is called.
+	 */
+	public static void stickToPrimary() {
+		primaryOnly.set(Boolean.TRUE);
+	}
+
+	public static void release() {
+		primaryOnly.remove();
+	}
+
+	/**
+	 * @return whether the current thread reads its own writes (so that it
+	 *         must not be served what was read from the replica, e.g. by a
+	 *         cache that does not know where its entries came from)
+	 */
+	public static boolean isStuckToPrimary() {
+		return primaryOnly.get() != null;
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+				&& primaryOnly.get() == null) {
+			return Route.REPLICA;
+		}
+		return Route.PRIMARY;
+	}
+
+}
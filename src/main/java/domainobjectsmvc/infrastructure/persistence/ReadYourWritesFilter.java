@@ -0,0 +1,79 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * Lets a client read its own writes, even though the replica lags behind the
+ * primary. A request that may write (anything but <code>GET</code>,
+ * <code>HEAD</code>, <code>OPTIONS</code>, and <code>TRACE</code>) sets a
+ * cookie, and the client's requests stick to the primary (see
+ * {@link ReadWriteRoutingDataSource#stickToPrimary()}) until the cookie
+ * expires.
+ *
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+	public static final String COOKIE_NAME = "PRIMARY_UNTIL";
+
+	private static final Set<String> SAFE_METHODS = new HashSet<>(
+			Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE"));
+
+	private final long stickyMillis;
+
+	public ReadYourWritesFilter(long stickyMillis) {
+		this.stickyMillis = stickyMillis;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request,
+			HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		long now = System.currentTimeMillis();
+		boolean write = !SAFE_METHODS.contains(request.getMethod());
+		if (write) {
+			// Before the response is committed (e.g. by a redirect)
+			Cookie cookie = new Cookie(COOKIE_NAME, String.valueOf(now + stickyMillis));
+			String contextPath = request.getContextPath();
+			cookie.setPath(contextPath.isEmpty() ? "/" : contextPath);
+			cookie.setMaxAge((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(stickyMillis)));
+			cookie.setHttpOnly(true);
+			response.addCookie(cookie);
+		}
+		if (!write && stickyUntil(request) <= now) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+		ReadWriteRoutingDataSource.stickToPrimary();
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			ReadWriteRoutingDataSource.release();
+		}
+	}
+
+	private static long stickyUntil(HttpServletRequest request) {
+		Cookie cookie = WebUtils.getCookie(request, COOKIE_NAME);
+		if (cookie == null) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(cookie.getValue());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
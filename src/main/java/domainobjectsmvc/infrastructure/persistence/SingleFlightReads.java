@@ -0,0 +1,144 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Coalesces concurrent reads of the same entity by ID (single flight): the
+ * first caller (the leader) reads from the database, and callers that ask for
+ * the same entity while that read is in flight wait for it, instead of
+ * running the same query again.
+ * <p>
+ * The leader gets the entity it read (managed by its own persistence
+ * context). Since entities are mutable, and a persistence context must not be
+ * used by other threads, the leader encodes what it read (only if others are
+ * waiting for it), and each waiting caller decodes its own detached copy.
+ * Failures of the read are thrown to every caller.
+ * <p>
+ * Requests that read their own writes (see
+ * {@link ReadWriteRoutingDataSource#isStuckToPrimary()}) neither lead nor
+ * join flights: a flight may read from the replica, or may have started
+ * before their write committed.
+ * <p>
+ * Reads are counted as <code>single.flight.reads</code>, tagged with the
+ * entity name and <code>result</code> <code>read</code> (by a leader),
+ * <code>shared</code> (a duplicate read that was saved) or
+ * <code>bypass</code> (by a request that reads its own writes).
+ *
+ */
+@Component
+public class SingleFlightReads {
+
+	private static final class Flight {
+
+		final CompletableFuture<Optional<byte[]>> result = new CompletableFuture<>();
+		// guarded by this
+		int followers;
+		boolean landed;
+
+		synchronized boolean join() {
+			if (landed) {
+				return false;
+			}
+			followers++;
+			return true;
+		}
+
+		/**
+		 * @return the number of callers waiting for the result
+		 */
+		synchronized int land() {
+			landed = true;
+			return followers;
+		}
+
+	}
+
+	private final MeterRegistry meterRegistry;
+	private final ConcurrentMap<List<Object>, Flight> flights = new ConcurrentHashMap<>();
+
+	@Autowired
+	public SingleFlightReads(ObjectProvider<MeterRegistry> meterRegistry) {
+		this(meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+	}
+
+	public SingleFlightReads(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * @param read
+	 *            reads the entity from the database
+	 * @param encode
+	 *            encodes what the leader read, for the callers waiting for it
+	 *            (in the leader's thread)
+	 * @param decode
+	 *            decodes a waiting caller's copy
+	 */
+	public <T> Optional<T> findById(String entityName, Object id, Supplier<Optional<T>> read,
+			Function<T, byte[]> encode, Function<byte[], T> decode) {
+		if (ReadWriteRoutingDataSource.isStuckToPrimary()) {
+			meterRegistry.counter("single.flight.reads", "entity", entityName, "result", "bypass")
+				.increment();
+			return read.get();
+		}
+		List<Object> key = Arrays.asList(entityName, id);
+		Flight flight = new Flight();
+		Flight inFlight = flights.putIfAbsent(key, flight);
+		if (inFlight != null && inFlight.join()) {
+			meterRegistry.counter("single.flight.reads", "entity", entityName, "result", "shared")
+				.increment();
+			try {
+				return inFlight.result.join().map(decode);
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+		if (inFlight != null) {
+			// Landed, but not yet removed
+			flights.remove(key, inFlight);
+			return findById(entityName, id, read, encode, decode);
+		}
+		meterRegistry.counter("single.flight.reads", "entity", entityName, "result", "read")
+			.increment();
+		try {
+			Optional<T> result = read.get();
+			if (flight.land() > 0) {
+				flight.result.complete(result.map(encode));
+			}
+			return result;
+		} catch (RuntimeException | Error e) {
+			flight.land();
+			flight.result.completeExceptionally(e);
+			throw e;
+		} finally {
+			flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * @return the number of reads of the given entity that were saved
+	 */
+	public long sharedReads(String entityName) {
+		return (long) meterRegistry.counter("single.flight.reads",
+				"entity", entityName, "result", "shared").count();
+	}
+
+}
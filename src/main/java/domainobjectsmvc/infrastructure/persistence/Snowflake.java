@@ -0,0 +1,75 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 64-bit IDs that are unique across nodes (given distinct node IDs)
+ * and roughly ordered by time (k-sortable), without coordination. An ID is
+ * made of (from the most significant bit):
+ * <ul>
+ * <li>a zero sign bit,</li>
+ * <li>41 bits of milliseconds since {@link #EPOCH} (enough for 69 years),</li>
+ * <li>10 bits of node ID, and</li>
+ * <li>12 bits of sequence within the millisecond.</li>
+ * </ul>
+ * When a node generates more than 4096 IDs in a millisecond, or its clock
+ * goes back, it carries on from its last ID (running slightly ahead of the
+ * clock) instead of waiting. IDs are only unique across restarts if the
+ * clock did not go back by more than that lead in between.
+ *
+ */
+public class Snowflake {
+
+	public static final Instant EPOCH = Instant.parse("2018-01-01T00:00:00Z");
+
+	public static final int NODE_BITS = 10;
+	public static final int SEQUENCE_BITS = 12;
+	public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+	private final long epochMillis = EPOCH.toEpochMilli();
+	private final long node;
+
+	/** Last timestamp (shifted) and sequence, without the node ID */
+	private final AtomicLong last = new AtomicLong();
+
+	public Snowflake(int nodeId) {
+		if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+			throw new IllegalArgumentException(
+					"Node ID must be between 0 and " + MAX_NODE_ID);
+		}
+		this.node = (long) nodeId << SEQUENCE_BITS;
+	}
+
+	public long nextId() {
+		long now = (System.currentTimeMillis() - epochMillis) << SEQUENCE_BITS;
+		long previous;
+		long next;
+		do {
+			previous = last.get();
+			// A sequence overflow carries into the timestamp
+			next = Math.max(now, previous + 1);
+		} while (!last.compareAndSet(previous, next));
+		long timestamp = next >>> SEQUENCE_BITS;
+		long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+		return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | node | sequence;
+	}
+
+	public static Instant timestampOf(long id) {
+		return EPOCH.plusMillis(id >>> (NODE_BITS + SEQUENCE_BITS));
+	}
+
+	/**
+	 * @return the lowest ID that can be generated at the given time (so IDs
+	 *         below it were generated before)
+	 */
+	public static long firstIdAt(Instant instant) {
+		long millis = Math.max(0, instant.toEpochMilli() - EPOCH.toEpochMilli());
+		return millis << (NODE_BITS + SEQUENCE_BITS);
+	}
+
+	public static int nodeIdOf(long id) {
+		return (int) (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+	}
+
+}
@@ -0,0 +1,59 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * Hibernate identifier generator backed by a {@link Snowflake}, so that IDs
+ * are assigned on persist (without a database round trip, which lets inserts
+ * be batched), and several nodes can insert without coordinating.
+ * <p>
+ * The node ID is the <code>app.id.node-id</code> Hibernate property (passed
+ * as <code>spring.jpa.properties.app.id.node-id</code>), and defaults to 0.
+ * All entities of a node share one {@link Snowflake}.
+ *
+ */
+public class SnowflakeIdGenerator implements IdentifierGenerator, Configurable {
+
+	public static final String NODE_ID = "app.id.node-id";
+
+	private static final Map<Integer, Snowflake> snowflakes = new ConcurrentHashMap<>();
+
+	private Snowflake snowflake;
+
+	/**
+	 * @return the {@link Snowflake} of the given node, which is shared with
+	 *         this generator, so that IDs assigned outside Hibernate (e.g. by
+	 *         bulk inserts) do not collide with the generated ones
+	 */
+	public static Snowflake forNode(int nodeId) {
+		return snowflakes.computeIfAbsent(nodeId, Snowflake::new);
+	}
+
+	@Override
+	public void configure(Type type, Properties params,
+			ServiceRegistry serviceRegistry) throws MappingException {
+		Object nodeId = serviceRegistry.getService(ConfigurationService.class)
+				.getSettings().get(NODE_ID);
+		int node = nodeId != null ? Integer.parseInt(nodeId.toString().trim()) : 0;
+		this.snowflake = forNode(node);
+	}
+
+	@Override
+	public Serializable generate(SharedSessionContractImplementor session,
+			Object object) throws HibernateException {
+		return snowflake.nextId();
+	}
+
+}
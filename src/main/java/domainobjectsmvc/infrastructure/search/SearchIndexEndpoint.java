@@ -0,0 +1,34 @@
+package domainobjectsmvc.infrastructure.search;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Repairs the full-text index of versioned entities (see
+ * {@link VersionedEntityIndex#repair()}) on a <code>POST</code> to
+ * <code>/actuator/searchindex</code>.
+ *
+ */
+@Component
+@Endpoint(id="searchindex")
+public class SearchIndexEndpoint {
+
+	private final VersionedEntityIndex index;
+
+	@Autowired
+	public SearchIndexEndpoint(VersionedEntityIndex index) {
+		this.index = index;
+	}
+
+	@WriteOperation
+	public Map<String, Integer> repair() throws IOException {
+		return Collections.singletonMap("repaired", index.repair());
+	}
+
+}
@@ -0,0 +1,419 @@
+package domainobjectsmvc.infrastructure.search;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import domainobjectsmvc.domain.model.VersionedEntity;
+import domainobjectsmvc.domain.model.VersionedEntityPayload;
+import domainobjectsmvc.infrastructure.persistence.HibernateEventListeners;
+import domainobjectsmvc.infrastructure.persistence.PostCommitInsertListener;
+
+/**
+ * Embedded, on-disk Lucene index over {@link VersionedEntity#getData()}. It
+ * is kept in sync after every committed insert, update and delete. Each
+ * document stores the entity's version, so that hits for entities that have
+ * changed since they were indexed can be spotted.
+ * <p>
+ * Writes are not committed (fsynced) one by one. They are seen by the next
+ * search (through a near-real-time refresh, shared by all the writes before
+ * it), and committed by {@link #commitIfDirty()} once per commit interval
+ * (and on shutdown), even when no further write comes along. So a crash loses
+ * up to an interval of writes, which {@link #repair()} (or a rebuild) brings
+ * back.
+ * <p>
+ * An empty index is rebuilt from the database at startup. So is a non-empty
+ * one when <code>app.search.versioned-entities.rebuild-on-startup</code> is
+ * set (e.g. when the database does not outlive the application).
+ *
+ */
+@SuppressWarnings("serial")
+@Component
+@Lazy(false)
+public class VersionedEntityIndex implements PostCommitInsertListener,
+		PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+	public static class Hit {
+
+		private final Long id;
+		private final int version;
+		private final float score;
+
+		Hit(Long id, int version, float score) {
+			this.id = id;
+			this.version = version;
+			this.score = score;
+		}
+
+		public Long getId() {
+			return id;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		public float getScore() {
+			return score;
+		}
+
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(VersionedEntityIndex.class);
+
+	private static final String ID = "id";
+	private static final String VERSION = "version";
+	private static final String DATA = "data";
+
+	private final EntityManagerFactory entityManagerFactory;
+	private final Path indexDirectory;
+	private final boolean rebuildOnStartup;
+	private final long commitIntervalNanos;
+	private final Analyzer analyzer = new StandardAnalyzer();
+
+	private final AtomicBoolean refreshNeeded = new AtomicBoolean();
+	private final AtomicBoolean commitNeeded = new AtomicBoolean();
+	private final AtomicLong committedNanos = new AtomicLong(System.nanoTime());
+
+	private IndexWriter writer;
+	private SearcherManager searcherManager;
+
+	@Autowired
+	public VersionedEntityIndex(EntityManagerFactory entityManagerFactory,
+			@Value("${app.search.versioned-entities.index-dir}") String indexDirectory,
+			@Value("${app.search.versioned-entities.rebuild-on-startup:false}")
+			boolean rebuildOnStartup,
+			@Value("${app.search.versioned-entities.commit-interval-millis:5000}")
+			long commitIntervalMillis) {
+		this.entityManagerFactory = entityManagerFactory;
+		this.indexDirectory = Paths.get(indexDirectory);
+		this.rebuildOnStartup = rebuildOnStartup;
+		this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+	}
+
+	@PostConstruct
+	public void init() throws IOException {
+		Files.createDirectories(indexDirectory);
+		this.writer = new IndexWriter(FSDirectory.open(indexDirectory),
+				new IndexWriterConfig(analyzer)
+					.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+		this.searcherManager = new SearcherManager(writer, null);
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_INSERT, this);
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_UPDATE, this);
+		HibernateEventListeners.append(entityManagerFactory,
+				EventType.POST_COMMIT_DELETE, this);
+		if (rebuildOnStartup || writer.getDocStats().numDocs == 0) {
+			rebuild();
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		searcherManager.close();
+		// commits what is left
+		writer.close();
+	}
+
+	public void rebuild() throws IOException {
+		writer.deleteAll();
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try (Stream<Object[]> rows = entityManager.unwrap(Session.class)
+				.createQuery("select e.id, e.version, e.data, p from VersionedEntity e"
+						+ " left join e.payload p", Object[].class)
+				.setFetchSize(1000)
+				.stream()) {
+			for (Object[] row : (Iterable<Object[]>) rows::iterator) {
+				VersionedEntityPayload payload = (VersionedEntityPayload) row[3];
+				writer.addDocument(document((Long) row[0], (Integer) row[1],
+						payload != null ? payload.getText() : (String) row[2]));
+				if (payload != null) {
+					entityManager.detach(payload);
+				}
+			}
+		} finally {
+			entityManager.close();
+		}
+		commit();
+		searcherManager.maybeRefreshBlocking();
+		logger.info("Rebuilt index of {} versioned entities",
+				writer.getDocStats().numDocs);
+	}
+
+	public void update(VersionedEntity entity) {
+		update(entity.getId(), entity.getVersion(), entity.getData());
+	}
+
+	/**
+	 * Same as {@link #update(VersionedEntity)}, for updates that did not go
+	 * through an entity (e.g. bulk updates).
+	 */
+	public void update(Long id, int version, String data) {
+		try {
+			writer.updateDocument(new Term(ID, id.toString()),
+					document(id, version, data));
+			written();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void delete(Long id) {
+		try {
+			writer.deleteDocuments(new Term(ID, id.toString()));
+			written();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Brings the index in line with the database: re-indexes entities that
+	 * are missing or behind, and deletes documents of entities that no longer
+	 * exist. Searches never change the index, so this is how hits for deleted
+	 * or changed entities (e.g. after a crash lost uncommitted writes) are
+	 * fixed, without rebuilding everything.
+	 *
+	 * @return the number of documents that were added, updated or deleted
+	 */
+	public int repair() throws IOException {
+		Map<Long, Integer> indexed = indexedVersions();
+		int repaired = 0;
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try (Stream<Object[]> rows = entityManager.unwrap(Session.class)
+				.createQuery("select e.id, e.version from VersionedEntity e", Object[].class)
+				.setFetchSize(1000)
+				.stream()) {
+			for (Object[] row : (Iterable<Object[]>) rows::iterator) {
+				Integer version = indexed.remove(row[0]);
+				if (version == null || version.intValue() != (Integer) row[1]) {
+					VersionedEntity entity = entityManager.find(VersionedEntity.class, row[0]);
+					if (entity != null) {
+						writer.updateDocument(new Term(ID, entity.getId().toString()),
+								document(entity.getId(), entity.getVersion(), entity.getData()));
+						entityManager.detach(entity);
+						repaired++;
+					}
+				}
+			}
+		} finally {
+			entityManager.close();
+		}
+		// What is left was not found in the database
+		for (Long id : indexed.keySet()) {
+			writer.deleteDocuments(new Term(ID, id.toString()));
+			repaired++;
+		}
+		commit();
+		searcherManager.maybeRefreshBlocking();
+		logger.info("Repaired {} documents of the versioned entities index", repaired);
+		return repaired;
+	}
+
+	private Map<Long, Integer> indexedVersions() throws IOException {
+		Map<Long, Integer> versions = new HashMap<>();
+		searcherManager.maybeRefreshBlocking();
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+				LeafReader reader = leaf.reader();
+				Bits liveDocs = reader.getLiveDocs();
+				for (int i = 0; i < reader.maxDoc(); i++) {
+					if (liveDocs == null || liveDocs.get(i)) {
+						Document document = reader.document(i);
+						versions.put(Long.valueOf(document.get(ID)),
+								document.getField(VERSION).numericValue().intValue());
+					}
+				}
+			}
+		} finally {
+			searcherManager.release(searcher);
+		}
+		return versions;
+	}
+
+	/**
+	 * Returns the requested page of hits, ranked by relevance. The query uses
+	 * the Lucene query syntax, and is taken literally if it cannot be parsed.
+	 */
+	public Page<Hit> search(String queryString, Pageable pageable) {
+		Query query = parse(queryString);
+		int offset = pageable.isPaged() ? (int) pageable.getOffset() : 0;
+		int pageSize = pageable.isPaged() ? pageable.getPageSize() : Integer.MAX_VALUE - offset;
+		try {
+			if (refreshNeeded.getAndSet(false)) {
+				searcherManager.maybeRefreshBlocking();
+			}
+			IndexSearcher searcher = searcherManager.acquire();
+			try {
+				int wanted = (int) Math.min((long) offset + pageSize,
+						Math.max(searcher.getIndexReader().numDocs(), 1));
+				TopDocs topDocs = searcher.search(query, wanted);
+				List<Hit> hits = new ArrayList<>();
+				for (int i = offset; i < topDocs.scoreDocs.length; i++) {
+					ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+					Document document = searcher.doc(scoreDoc.doc);
+					hits.add(new Hit(Long.valueOf(document.get(ID)),
+							document.getField(VERSION).numericValue().intValue(),
+							scoreDoc.score));
+				}
+				return new PageImpl<>(hits, pageable, topDocs.totalHits);
+			} finally {
+				searcherManager.release(searcher);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Query parse(String queryString) {
+		QueryParser parser = new QueryParser(DATA, analyzer);
+		try {
+			return parser.parse(queryString);
+		} catch (ParseException e) {
+			try {
+				return parser.parse(QueryParser.escape(queryString));
+			} catch (ParseException e2) {
+				throw new IllegalArgumentException("Invalid query: " + queryString, e2);
+			}
+		}
+	}
+
+	/**
+	 * Commits the writes since the last commit, if any, so that the last
+	 * writes before a quiet period are not left uncommitted.
+	 */
+	@Scheduled(fixedDelayString="${app.search.versioned-entities.commit-interval-millis:5000}")
+	public void commitIfDirty() throws IOException {
+		if (commitNeeded.get()) {
+			commit();
+		}
+	}
+
+	private void written() throws IOException {
+		refreshNeeded.set(true);
+		commitNeeded.set(true);
+		long committed = committedNanos.get();
+		long now = System.nanoTime();
+		// only one of the writes that find the interval passed commits
+		if (now - committed >= commitIntervalNanos
+				&& committedNanos.compareAndSet(committed, now)) {
+			commitNeeded.set(false);
+			writer.commit();
+		}
+	}
+
+	private void commit() throws IOException {
+		commitNeeded.set(false);
+		writer.commit();
+		committedNanos.set(System.nanoTime());
+	}
+
+	private static Document document(Long id, int version, String data) {
+		Document document = new Document();
+		document.add(new StringField(ID, id.toString(), Field.Store.YES));
+		document.add(new StoredField(VERSION, version));
+		if (data != null) {
+			document.add(new TextField(DATA, data, Field.Store.NO));
+		}
+		return document;
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		if (event.getEntity() instanceof VersionedEntity) {
+			update((VersionedEntity) event.getEntity());
+		}
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		if (event.getEntity() instanceof VersionedEntity) {
+			update((VersionedEntity) event.getEntity());
+		}
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof VersionedEntity) {
+			delete((Long) event.getId());
+		}
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+		// nothing was indexed
+	}
+
+	@Override
+	public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+		// nothing was indexed
+	}
+
+	@Override
+	public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+		// nothing was removed
+	}
+
+	@Override
+	public boolean requiresPostCommitHandling(EntityPersister persister) {
+		return VersionedEntity.class.equals(persister.getMappedClass());
+	}
+
+}
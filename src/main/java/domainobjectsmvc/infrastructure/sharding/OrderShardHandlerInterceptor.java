@@ -0,0 +1,71 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Binds the shard of the order in the request path (<code>/orders/{id}</code>
+ * or <code>/orders/{orderId}/...</code>) for the whole request, so that lazy
+ * loading outside of repository calls (e.g. of an order's items, while
+ * rendering the view) reads from the order's shard.
+ *
+ */
+public class OrderShardHandlerInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String PREVIOUS_SHARD_ATTRIBUTE =
+			OrderShardHandlerInterceptor.class.getName() + ".PREVIOUS_SHARD";
+
+	/** Stands for no previously bound shard (request attributes cannot be null) */
+	private static final IntSupplier NONE = () -> 0;
+
+	private final OrderShards shards;
+
+	public OrderShardHandlerInterceptor(OrderShards shards) {
+		this.shards = shards;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request,
+			HttpServletResponse response, Object handler) {
+		Long orderId = orderId(request);
+		if (orderId != null) {
+			IntSupplier previous = ShardRoutingDataSource.bind(shards.shardOf(orderId));
+			request.setAttribute(PREVIOUS_SHARD_ATTRIBUTE,
+					previous != null ? previous : NONE);
+		}
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request,
+			HttpServletResponse response, Object handler, Exception ex) {
+		IntSupplier previous = (IntSupplier) request.getAttribute(PREVIOUS_SHARD_ATTRIBUTE);
+		if (previous != null) {
+			ShardRoutingDataSource.restore(previous != NONE ? previous : null);
+			request.removeAttribute(PREVIOUS_SHARD_ATTRIBUTE);
+		}
+	}
+
+	private static Long orderId(HttpServletRequest request) {
+		@SuppressWarnings("unchecked")
+		Map<String, String> variables = (Map<String, String>) request.getAttribute(
+				HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+		if (variables == null) {
+			return null;
+		}
+		String id = variables.containsKey("orderId")
+				? variables.get("orderId") : variables.get("id");
+		try {
+			return id != null ? Long.valueOf(id) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import domainobjectsmvc.domain.model.ArchivedOrderRepository;
+import domainobjectsmvc.domain.model.OrderRepository;
+
+/**
+ * Shards orders (with their items) over the application's data source
+ * (shard 0) and the data sources at <code>app.sharding.orders.urls</code>
+ * (shards 1 to <i>n</i>). Archived orders stay on their order's shard. All
+ * other tables stay on shard 0.
+ *
+ */
+@Configuration
+@ConditionalOnProperty("app.sharding.orders.urls")
+public class OrderShardingConfiguration implements WebMvcConfigurer {
+
+	private final OrderShards orderShards;
+
+	public OrderShardingConfiguration(
+			@Value("${app.sharding.orders.urls}") String[] urls) {
+		this.orderShards = new OrderShards(urls.length + 1);
+	}
+
+	@Bean
+	public static BeanPostProcessor orderShardingPostProcessor(
+			@Value("${app.sharding.orders.urls}") String[] urls,
+			@Value("${app.sharding.orders.username:sa}") String username,
+			@Value("${app.sharding.orders.password:}") String password) {
+		OrderShardingInterceptor.checkRouted(OrderRepository.class);
+		OrderShardingInterceptor.checkRouted(ArchivedOrderRepository.class);
+		OrderShards shards = new OrderShards(urls.length + 1);
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof DataSource && "dataSource".equals(beanName)) {
+					return shardedDataSource((DataSource) bean, urls, username, password);
+				}
+				if (bean instanceof OrderRepository || bean instanceof ArchivedOrderRepository) {
+					ProxyFactory proxyFactory = new ProxyFactory(bean);
+					proxyFactory.addAdvice(new OrderShardingInterceptor(shards));
+					return proxyFactory.getProxy();
+				}
+				return bean;
+			}
+		};
+	}
+
+	private static DataSource shardedDataSource(DataSource shard0,
+			String[] urls, String username, String password) {
+		List<DataSource> shards = new ArrayList<>();
+		shards.add(shard0);
+		for (String url : urls) {
+			shards.add(DataSourceBuilder.create()
+					.url(url.trim())
+					.username(username)
+					.password(password)
+					.build());
+		}
+		Map<Object, Object> targets = new HashMap<>();
+		for (int shard = 0; shard < shards.size(); shard++) {
+			targets.put(shard, shards.get(shard));
+		}
+		ShardRoutingDataSource routing = new ShardRoutingDataSource();
+		routing.setTargetDataSources(targets);
+		routing.setDefaultTargetDataSource(shard0);
+		routing.afterPropertiesSet();
+		return new ShardedDataSource(routing, shards);
+	}
+
+	/**
+	 * Keeps the shards' data sources around for the
+	 * {@link OrderShardsInitializer}.
+	 */
+	static class ShardedDataSource extends LazyConnectionDataSourceProxy {
+
+		final List<DataSource> shards;
+
+		ShardedDataSource(DataSource routing, List<DataSource> shards) {
+			super(routing);
+			this.shards = shards;
+		}
+
+	}
+
+	@Bean
+	@Lazy(false)
+	public OrderShardsInitializer orderShardsInitializer(DataSource dataSource,
+			@Value("${app.sharding.orders.generate-ddl:true}") boolean generateDdl) {
+		return new OrderShardsInitializer(
+				((ShardedDataSource) dataSource).shards, generateDdl);
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new OrderShardHandlerInterceptor(orderShards))
+			.addPathPatterns("/orders/**");
+	}
+
+}
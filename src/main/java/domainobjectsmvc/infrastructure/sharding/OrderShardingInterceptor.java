@@ -0,0 +1,272 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntSupplier;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import domainobjectsmvc.domain.model.Order;
+
+/**
+ * Routes each {@link domainobjectsmvc.domain.model.OrderRepository} call to
+ * the shard(s) of the orders it is about. Calls about one order (by ID or by
+ * entity) go to its shard. Calls about several orders are split by shard,
+ * and their results combined. Calls about all orders are sent to every shard
+ * (scatter-gather), and their results merged by sort key.
+ * <p>
+ * Page <i>p</i> of a scatter-gather <code>findAll(Pageable)</code> needs the
+ * first (<i>p</i>&nbsp;+&nbsp;1) pages of every shard, so it reads
+ * <i>shards</i>&nbsp;&times;&nbsp;(<i>offset</i>&nbsp;+&nbsp;<i>size</i>)
+ * rows to return <i>size</i>, and deep pages get expensive. Page through all
+ * orders by ID ranges instead (as the export does), or keep list views to
+ * the first few pages.
+ * <p>
+ * Methods are routed by name, and a repository is only proxied if all its
+ * methods are routed (see {@link #checkRouted(Class)}), so that a finder
+ * added later fails at startup rather than when it is called.
+ *
+ */
+public class OrderShardingInterceptor implements MethodInterceptor {
+
+	private static final Set<String> ROUTED = new HashSet<>(Arrays.asList(
+			"findById", "findPrimaryById", "existsById", "deleteById", "incrementQuantity",
+			"save", "delete",
+			"findAllById", "deleteAllByIdInBatch", "saveAll", "deleteAll", "count", "findAll"));
+
+	private final OrderShards shards;
+
+	public OrderShardingInterceptor(OrderShards shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the given repository interface has methods that are not
+	 *             routed to a shard
+	 */
+	public static void checkRouted(Class<?> repositoryInterface) {
+		List<String> unrouted = new ArrayList<>();
+		for (Method method : repositoryInterface.getMethods()) {
+			if (!method.isDefault() && !Modifier.isStatic(method.getModifiers())
+					&& !ROUTED.contains(method.getName())) {
+				unrouted.add(method.toGenericString());
+			}
+		}
+		if (!unrouted.isEmpty()) {
+			throw new IllegalStateException("Methods of " + repositoryInterface.getName()
+					+ " are not routed to a shard: " + unrouted);
+		}
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		Object[] arguments = invocation.getArguments();
+		switch (invocation.getMethod().getName()) {
+		case "findById":
+		case "findPrimaryById":
+		case "existsById":
+		case "deleteById":
+		case "incrementQuantity":
+			return onShard(shards.shardOf((Long) arguments[0]), invocation, arguments);
+		case "save":
+			return onShard(shardOf((Order) arguments[0]), invocation, arguments);
+		case "delete":
+			return onShard(shardOf((Order) arguments[0]), invocation, arguments);
+		case "findAllById":
+			return concat(byShard(invocation, ids(arguments[0])));
+		case "deleteAllByIdInBatch":
+			return sum(byShard(invocation, ids(arguments[0])), invocation);
+		case "saveAll":
+			return concat(byShard(invocation, orders(arguments[0])));
+		case "deleteAll":
+			if (arguments.length == 0) {
+				everyShard(invocation, arguments);
+			} else {
+				byShard(invocation, orders(arguments[0]));
+			}
+			return null;
+		case "count":
+			return sum(everyShard(invocation, arguments), invocation);
+		case "findAll":
+			if (arguments.length == 0) {
+				return sorted(concat(everyShard(invocation, arguments)), Sort.unsorted());
+			}
+			if (arguments[0] instanceof Sort) {
+				return sorted(concat(everyShard(invocation, arguments)), (Sort) arguments[0]);
+			}
+			return findAll(invocation, (Pageable) arguments[0]);
+		default:
+			if (invocation.getMethod().getDeclaringClass() == Object.class) {
+				return invocation.proceed();
+			}
+			// Cannot happen for the repositories that passed checkRouted
+			throw new UnsupportedOperationException(
+					"Not routed to a shard: " + invocation.getMethod());
+		}
+	}
+
+	/**
+	 * Reads up to offset + size rows from every shard (see above).
+	 */
+	private Page<Order> findAll(MethodInvocation invocation, Pageable pageable) throws Throwable {
+		// Each shard's rows must be in the merged order (ID breaks ties)
+		Pageable window = pageable.isPaged()
+				? PageRequest.of(0, (int) pageable.getOffset() + pageable.getPageSize(),
+						pageable.getSort().and(Sort.by("id")))
+				: pageable;
+		List<Order> merged = new ArrayList<>();
+		long total = 0;
+		for (Object result : everyShard(invocation, new Object[] { window })) {
+			@SuppressWarnings("unchecked")
+			Page<Order> page = (Page<Order>) result;
+			merged.addAll(page.getContent());
+			total += page.getTotalElements();
+		}
+		sorted(merged, pageable.getSort());
+		if (pageable.isUnpaged()) {
+			return new PageImpl<>(merged, pageable, total);
+		}
+		int from = (int) Math.min(pageable.getOffset(), merged.size());
+		int to = Math.min(from + pageable.getPageSize(), merged.size());
+		return new PageImpl<>(new ArrayList<>(merged.subList(from, to)), pageable, total);
+	}
+
+	/**
+	 * New orders get their ID (and thus their shard) on persist, which is
+	 * before any statement runs.
+	 */
+	private IntSupplier shardOf(Order order) {
+		return () -> shards.shardOf(order.getId());
+	}
+
+	private static Object onShard(int shard, MethodInvocation invocation,
+			Object[] arguments) throws Throwable {
+		return onShard(() -> shard, invocation, arguments);
+	}
+
+	private static Object onShard(IntSupplier shard, MethodInvocation invocation,
+			Object[] arguments) throws Throwable {
+		IntSupplier previous = ShardRoutingDataSource.bind(shard);
+		try {
+			return ((ProxyMethodInvocation) invocation).invocableClone(arguments).proceed();
+		} finally {
+			ShardRoutingDataSource.restore(previous);
+		}
+	}
+
+	private List<Object> everyShard(MethodInvocation invocation,
+			Object[] arguments) throws Throwable {
+		List<Object> results = new ArrayList<>(shards.count());
+		for (int shard = 0; shard < shards.count(); shard++) {
+			results.add(onShard(shard, invocation, arguments));
+		}
+		return results;
+	}
+
+	/**
+	 * Calls the method once per shard, with the elements (IDs or orders) that
+	 * belong to that shard.
+	 */
+	private List<Object> byShard(MethodInvocation invocation,
+			Map<Integer, List<Object>> elementsByShard) throws Throwable {
+		List<Object> results = new ArrayList<>(elementsByShard.size());
+		for (Map.Entry<Integer, List<Object>> entry : elementsByShard.entrySet()) {
+			if (entry.getKey() == null) {
+				// New orders, each on its own (future) shard
+				for (Object order : entry.getValue()) {
+					results.add(onShard(shardOf((Order) order), invocation,
+							new Object[] { Collections.singletonList(order) }));
+				}
+				continue;
+			}
+			results.add(onShard(entry.getKey(), invocation,
+					new Object[] { entry.getValue() }));
+		}
+		return results;
+	}
+
+	private Map<Integer, List<Object>> ids(Object ids) {
+		Map<Integer, List<Object>> idsByShard = new LinkedHashMap<>();
+		for (Object id : (Iterable<?>) ids) {
+			idsByShard.computeIfAbsent(shards.shardOf((Long) id), shard -> new ArrayList<>())
+				.add(id);
+		}
+		return idsByShard;
+	}
+
+	private Map<Integer, List<Object>> orders(Object orders) {
+		Map<Integer, List<Object>> ordersByShard = new LinkedHashMap<>();
+		for (Object order : (Iterable<?>) orders) {
+			Long id = ((Order) order).getId();
+			ordersByShard.computeIfAbsent(id != null ? shards.shardOf(id) : null,
+					shard -> new ArrayList<>())
+				.add(order);
+		}
+		return ordersByShard;
+	}
+
+	private static List<Object> concat(List<Object> results) {
+		List<Object> concatenated = new ArrayList<>();
+		for (Object result : results) {
+			if (result != null) {
+				((Iterable<?>) result).forEach(concatenated::add);
+			}
+		}
+		return concatenated;
+	}
+
+	private static Object sum(List<Object> results, MethodInvocation invocation) {
+		long sum = 0;
+		for (Object result : results) {
+			sum += ((Number) result).longValue();
+		}
+		Class<?> type = invocation.getMethod().getReturnType();
+		if (type == long.class || type == Long.class) {
+			return sum;
+		}
+		return (int) sum;
+	}
+
+	/**
+	 * Sorts by the given sort's properties, then by ID (which is the order
+	 * when unsorted).
+	 */
+	private static <T> List<T> sorted(List<T> orders, Sort sort) {
+		Comparator<T> comparator = (a, b) -> 0;
+		for (Sort.Order order : sort) {
+			Comparator<T> byProperty = Comparator.comparing(
+					entity -> property(entity, order.getProperty()),
+					Comparator.nullsLast(Comparator.naturalOrder()));
+			comparator = comparator.thenComparing(
+					order.isAscending() ? byProperty : byProperty.reversed());
+		}
+		orders.sort(comparator.thenComparing(
+				entity -> property(entity, "id"),
+				Comparator.nullsLast(Comparator.naturalOrder())));
+		return orders;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Comparable<Object> property(Object entity, String property) {
+		return (Comparable) new BeanWrapperImpl(entity).getPropertyValue(property);
+	}
+
+}
@@ -0,0 +1,37 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+/**
+ * Maps orders to shards by ID. IDs are generated by the application (see
+ * {@link domainobjectsmvc.infrastructure.persistence.Snowflake}), and
+ * hashed, since their low bits (a per-millisecond sequence) are mostly zero
+ * under light load.
+ *
+ */
+public class OrderShards {
+
+	private final int count;
+
+	public OrderShards(int count) {
+		if (count <= 0) {
+			throw new IllegalArgumentException("Count must be greater than zero");
+		}
+		this.count = count;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public int shardOf(Long orderId) {
+		if (orderId == null) {
+			throw new IllegalArgumentException("Order ID must not be null");
+		}
+		// Finalizer of the SplitMix64 generator
+		long h = orderId;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		h = h ^ (h >>> 31);
+		return (int) Math.floorMod(h, (long) count);
+	}
+
+}
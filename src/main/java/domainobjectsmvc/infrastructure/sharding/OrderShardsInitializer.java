@@ -0,0 +1,78 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.schema.TargetType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+
+import domainobjectsmvc.domain.model.ArchivedOrder;
+import domainobjectsmvc.domain.model.ArchivedOrderItem;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderItem;
+
+/**
+ * Generates the schema of the other shards, once the application's own schema
+ * (on shard 0) has been generated. They only get the tables of the sharded
+ * entities.
+ *
+ */
+public class OrderShardsInitializer implements SmartInitializingSingleton {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderShardsInitializer.class);
+
+	private final List<DataSource> shards;
+	private final boolean generateDdl;
+
+	public OrderShardsInitializer(List<DataSource> shards, boolean generateDdl) {
+		this.shards = shards;
+		this.generateDdl = generateDdl;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		if (!generateDdl) {
+			return;
+		}
+		for (int shard = 1; shard < shards.size(); shard++) {
+			updateSchema(shards.get(shard));
+			logger.info("Updated schema of order shard {}", shard);
+		}
+	}
+
+	private static void updateSchema(DataSource dataSource) {
+		StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+				.applySetting(AvailableSettings.DATASOURCE, dataSource)
+				.applySetting(AvailableSettings.PHYSICAL_NAMING_STRATEGY,
+						SpringPhysicalNamingStrategy.class.getName())
+				.applySetting(AvailableSettings.IMPLICIT_NAMING_STRATEGY,
+						SpringImplicitNamingStrategy.class.getName())
+				.build();
+		try {
+			Metadata metadata = new MetadataSources(registry)
+					// For the package-level ID generator
+					.addPackage(Order.class.getPackage().getName())
+					.addAnnotatedClass(Order.class)
+					.addAnnotatedClass(OrderItem.class)
+					.addAnnotatedClass(ArchivedOrder.class)
+					.addAnnotatedClass(ArchivedOrderItem.class)
+					.buildMetadata();
+			new SchemaUpdate().execute(EnumSet.of(TargetType.DATABASE), metadata);
+		} finally {
+			StandardServiceRegistryBuilder.destroy(registry);
+		}
+	}
+
+}
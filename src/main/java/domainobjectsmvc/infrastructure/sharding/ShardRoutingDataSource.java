@@ -0,0 +1,56 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+import java.util.function.IntSupplier;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * Routes to the shard bound to the current thread, or to shard 0 (which also
+ * holds all unsharded tables) when none is bound. Target data sources are
+ * keyed by shard index.
+ * <p>
+ * Must be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy},
+ * so that the shard is picked when the first statement runs (and not when a
+ * transaction begins). That also allows binding a shard that is only known
+ * later, e.g. that of a new order, whose ID is assigned on persist (before
+ * any statement runs).
+ *
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+	private static final ThreadLocal<IntSupplier> currentShard = new ThreadLocal<>();
+
+	/**
+	 * @return the previously bound shard (to be passed to
+	 *         {@link #restore(IntSupplier)}), or <code>null</code>
+	 */
+	public static IntSupplier bind(int shard) {
+		return bind(() -> shard);
+	}
+
+	/**
+	 * Same as {@link #bind(int)}, but the shard is determined when a
+	 * connection is needed.
+	 */
+	public static IntSupplier bind(IntSupplier shard) {
+		IntSupplier previous = currentShard.get();
+		currentShard.set(shard);
+		return previous;
+	}
+
+	public static void restore(IntSupplier previous) {
+		if (previous == null) {
+			currentShard.remove();
+		} else {
+			currentShard.set(previous);
+		}
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		IntSupplier shard = currentShard.get();
+		return shard != null ? shard.getAsInt() : 0;
+	}
+
+}
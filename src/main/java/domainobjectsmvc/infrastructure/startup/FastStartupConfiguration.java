@@ -0,0 +1,21 @@
+package domainobjectsmvc.infrastructure.startup;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Settings of the <code>fast-startup</code> profile that are not properties
+ * (see <code>application-fast-startup.properties</code>).
+ *
+ */
+@Configuration
+@Profile("fast-startup")
+public class FastStartupConfiguration {
+
+	@Bean
+	public static LazyInitializationPostProcessor lazyInitializationPostProcessor() {
+		return new LazyInitializationPostProcessor();
+	}
+
+}
@@ -0,0 +1,45 @@
+package domainobjectsmvc.infrastructure.startup;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Makes singleton beans lazy, so that they are created on first use instead
+ * of on startup. Infrastructure beans, and beans annotated with
+ * {@link Lazy @Lazy} (on the class or the <code>@Bean</code> method), keep
+ * their setting. Beans that must be created on startup (e.g. to register
+ * listeners, or to be called back once all singletons are created) are
+ * annotated with <code>@Lazy(false)</code>.
+ *
+ */
+public class LazyInitializationPostProcessor implements BeanFactoryPostProcessor {
+
+	@Override
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
+			throws BeansException {
+		for (String beanName : beanFactory.getBeanDefinitionNames()) {
+			BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+			if (beanDefinition.isSingleton()
+					&& beanDefinition.getRole() != BeanDefinition.ROLE_INFRASTRUCTURE
+					&& !isLazyAnnotated(beanDefinition)) {
+				beanDefinition.setLazyInit(true);
+			}
+		}
+	}
+
+	private static boolean isLazyAnnotated(BeanDefinition beanDefinition) {
+		if (!(beanDefinition instanceof AnnotatedBeanDefinition)) {
+			return false;
+		}
+		AnnotatedBeanDefinition annotated = (AnnotatedBeanDefinition) beanDefinition;
+		AnnotatedTypeMetadata metadata = annotated.getFactoryMethodMetadata() != null
+				? annotated.getFactoryMethodMetadata() : annotated.getMetadata();
+		return metadata.isAnnotated(Lazy.class.getName());
+	}
+
+}
@@ -0,0 +1,329 @@
+package domainobjectsmvc.infrastructure.startup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackages;
+import org.springframework.boot.web.servlet.context.ServletWebServerInitializedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.MethodParameter;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.core.EntityInformation;
+import org.springframework.data.repository.support.Repositories;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ValueConstants;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.condition.NameValueExpression;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import domainobjectsmvc.domain.model.Account;
+import domainobjectsmvc.domain.model.GeneratedIdEntity;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.VersionedEntity;
+
+/**
+ * Warms the application up before it reports ready. Until it is done, its
+ * health is <code>OUT_OF_SERVICE</code> (so <code>/actuator/health</code>
+ * answers 503). It runs, within a time budget:
+ * <ol>
+ * <li>Primes the connection pool, by holding the configured number of
+ * connections at once.</li>
+ * <li>Looks up the IDs of the most recent rows of the entities listed by the
+ * controllers.</li>
+ * <li>Sends rounds (of at least a second) of synthetic requests to every GET
+ * handler of the application's controllers that needs no request parameters
+ * (filling path variables with those IDs, which also fills the order and
+ * versioned entity caches), until their throughput settles, i.e. until no
+ * round is more than 10% faster than the fastest before it, for a few rounds
+ * in a row. (The JIT compilation time of the JVM is no measure of this, since
+ * it adds up every compiler thread, and every other thread of the
+ * application.) This needs a web server, so it is skipped in mock
+ * environments.</li>
+ * </ol>
+ * Only GET handlers are called, so that warming up changes no data. A URL
+ * answering with an error is not requested again. A failed warm-up is
+ * logged, and does not keep the application out of service.
+ *
+ */
+@Component
+public class WarmUp implements ApplicationRunner, HealthIndicator {
+
+	private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+
+	/** The entities of the resources whose handlers take IDs */
+	private static final Map<String, Class<?>> RESOURCES = new LinkedHashMap<>();
+	static {
+		RESOURCES.put("/accounts", Account.class);
+		RESOURCES.put("/orders", Order.class);
+		RESOURCES.put("/entities", GeneratedIdEntity.class);
+		RESOURCES.put("/versioned-entities", VersionedEntity.class);
+	}
+
+	private static final int STABLE_ROUNDS = 3;
+	private static final long ROUND_NANOS = TimeUnit.SECONDS.toNanos(1);
+	/** The most a stable round can be faster than the fastest round before it */
+	private static final double STABLE_SPEEDUP = 1.1;
+
+	private final DataSource dataSource;
+	private final ListableBeanFactory beanFactory;
+	private final List<RequestMappingHandlerMapping> handlerMappings;
+	private final boolean enabled;
+	private final long timeBudgetMillis;
+	private final int hotRows;
+	private final int connections;
+
+	private volatile String baseUrl;
+	private volatile Health health = Health.outOfService()
+			.withDetail("state", "pending").build();
+
+	@Autowired
+	public WarmUp(DataSource dataSource, ListableBeanFactory beanFactory,
+			ObjectProvider<List<RequestMappingHandlerMapping>> handlerMappings,
+			@Value("${app.warm-up.enabled:true}") boolean enabled,
+			@Value("${app.warm-up.time-budget-millis:30000}") long timeBudgetMillis,
+			@Value("${app.warm-up.hot-rows:100}") int hotRows,
+			@Value("${app.warm-up.connections:10}") int connections) {
+		this.dataSource = dataSource;
+		this.beanFactory = beanFactory;
+		this.handlerMappings = handlerMappings.getIfAvailable(Collections::emptyList);
+		this.enabled = enabled;
+		this.timeBudgetMillis = timeBudgetMillis;
+		this.hotRows = hotRows;
+		this.connections = connections;
+	}
+
+	@EventListener
+	public void onWebServerInitialized(ServletWebServerInitializedEvent event) {
+		if (event.getApplicationContext().getServerNamespace() == null) {
+			baseUrl = "http://localhost:" + event.getWebServer().getPort()
+					+ event.getApplicationContext().getServletContext().getContextPath();
+		}
+	}
+
+	@Override
+	public Health health() {
+		return health;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!enabled) {
+			health = Health.up().withDetail("state", "disabled").build();
+			return;
+		}
+		health = Health.outOfService().withDetail("state", "warming up").build();
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+		Health.Builder done = Health.up();
+		try {
+			primeConnectionPool();
+			Map<String, List<Object>> ids = recentIds();
+			if (baseUrl != null) {
+				driveRequests(requests(ids), deadline, done);
+			}
+			done.withDetail("state", "done");
+		} catch (RuntimeException | SQLException e) {
+			logger.warn("Warm-up failed", e);
+			done.withDetail("state", "failed").withException(e);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		health = done.withDetail("durationMillis", millis).build();
+		logger.info("Warmed up in {} ms: {}", millis, health.getDetails());
+	}
+
+	private void primeConnectionPool() throws SQLException {
+		List<Connection> held = new ArrayList<>(connections);
+		try {
+			for (int i = 0; i < connections; i++) {
+				Connection connection = dataSource.getConnection();
+				held.add(connection);
+				// Makes lazy connection proxies fetch their target
+				connection.isValid(1);
+			}
+		} finally {
+			for (Connection connection : held) {
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the IDs of the most recent rows, by resource
+	 */
+	private Map<String, List<Object>> recentIds() {
+		Repositories repositories = new Repositories(beanFactory);
+		Map<String, List<Object>> ids = new LinkedHashMap<>();
+		for (Map.Entry<String, Class<?>> resource : RESOURCES.entrySet()) {
+			Class<?> type = resource.getValue();
+			@SuppressWarnings("unchecked")
+			EntityInformation<Object, Object> entityInformation =
+					(EntityInformation<Object, Object>) repositories.getEntityInformationFor(type);
+			@SuppressWarnings("unchecked")
+			PagingAndSortingRepository<Object, ?> repository =
+					(PagingAndSortingRepository<Object, ?>) repositories.getRepositoryFor(type).get();
+			ids.put(resource.getKey(), repository
+					.findAll(PageRequest.of(0, hotRows, Sort.by(Sort.Direction.DESC, "id")))
+					.map(entityInformation::getId)
+					.getContent());
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the URLs of requests to every GET handler of the application
+	 *         that needs no request parameters, with every sample ID
+	 */
+	List<String> requests(Map<String, List<Object>> ids) {
+		List<String> packages = AutoConfigurationPackages.get((BeanFactory) beanFactory);
+		List<String> urls = new ArrayList<>();
+		for (RequestMappingHandlerMapping handlerMapping : handlerMappings) {
+			for (Map.Entry<RequestMappingInfo, HandlerMethod> handler
+					: handlerMapping.getHandlerMethods().entrySet()) {
+				RequestMappingInfo info = handler.getKey();
+				String beanPackage = handler.getValue().getBeanType().getPackage().getName();
+				if (!info.getMethodsCondition().getMethods().contains(RequestMethod.GET)
+						|| packages.stream().noneMatch(beanPackage::startsWith)
+						|| needsParameters(info, handler.getValue())) {
+					continue;
+				}
+				for (String pattern : info.getPatternsCondition().getPatterns()) {
+					urls.addAll(requests(pattern, ids));
+				}
+			}
+		}
+		return urls;
+	}
+
+	/**
+	 * @return whether the handler is mapped to, or asks for, request parameters
+	 *         (e.g. <code>?create</code>), whose values a warm-up cannot make up
+	 */
+	private static boolean needsParameters(RequestMappingInfo info, HandlerMethod handlerMethod) {
+		for (NameValueExpression<String> param : info.getParamsCondition().getExpressions()) {
+			if (!param.isNegated()) {
+				return true;
+			}
+		}
+		for (MethodParameter parameter : handlerMethod.getMethodParameters()) {
+			RequestParam requestParam = parameter.getParameterAnnotation(RequestParam.class);
+			if (requestParam != null && requestParam.required()
+					&& ValueConstants.DEFAULT_NONE.equals(requestParam.defaultValue())
+					&& !Map.class.isAssignableFrom(parameter.getParameterType())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<String> requests(String pattern, Map<String, List<Object>> ids) {
+		UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(baseUrl + pattern);
+		int variable = pattern.indexOf("/{");
+		if (variable < 0) {
+			return Collections.singletonList(builder.toUriString());
+		}
+		// Every path variable (e.g. id, or entityId) takes the resource's IDs
+		return ids.getOrDefault(pattern.substring(0, variable), Collections.emptyList())
+				.stream()
+				.map(id -> builder.build()
+						.expand((UriComponents.UriTemplateVariables) name -> id)
+						.toUriString())
+				.collect(Collectors.toList());
+	}
+
+	private void driveRequests(List<String> urls, long deadline, Health.Builder done) {
+		List<String> live = new ArrayList<>(urls);
+		int rounds = 0;
+		int stableRounds = 0;
+		long requests = 0;
+		double fastest = 0;
+		while (stableRounds < STABLE_ROUNDS && !live.isEmpty()
+				&& System.nanoTime() - deadline < 0) {
+			long roundRequests = requests;
+			long roundStart = System.nanoTime();
+			long roundEnd = roundStart + ROUND_NANOS;
+			do {
+				for (Iterator<String> i = live.iterator(); i.hasNext(); requests++) {
+					String url = i.next();
+					int status = get(url);
+					if (status < 0 || status >= 400) {
+						// Errors would only warm error handling up (and flood the log)
+						logger.warn("Warm-up stops requesting {} (status {})", url, status);
+						i.remove();
+					}
+				}
+			} while (!live.isEmpty() && System.nanoTime() - roundEnd < 0
+					&& System.nanoTime() - deadline < 0);
+			rounds++;
+			double throughput = (requests - roundRequests)
+					/ (double) (System.nanoTime() - roundStart);
+			stableRounds = rounds > 1 && throughput <= fastest * STABLE_SPEEDUP
+					? stableRounds + 1 : 0;
+			fastest = Math.max(fastest, throughput);
+		}
+		done.withDetail("urls", urls.size())
+			.withDetail("failedUrls", urls.size() - live.size())
+			.withDetail("rounds", rounds)
+			.withDetail("requests", requests)
+			.withDetail("settled", stableRounds >= STABLE_ROUNDS);
+	}
+
+	/**
+	 * @return the response status, or -1 if the request failed
+	 */
+	private static int get(String url) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			try {
+				int status = connection.getResponseCode();
+				InputStream body = status < 400
+						? connection.getInputStream() : connection.getErrorStream();
+				if (body != null) {
+					try (InputStream in = body) {
+						byte[] buffer = new byte[8192];
+						while (in.read(buffer) >= 0) {
+						}
+					}
+				}
+				return status;
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException e) {
+			logger.debug("Warm-up request to {} failed", url, e);
+			return -1;
+		}
+	}
+
+}
@@ -1,13 +1,15 @@
 package domainobjectsmvc.webmvc;
 
+import java.util.List;
 import java.util.Map;
 
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -22,27 +24,50 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import domainobjectsmvc.domain.model.Account;
+import domainobjectsmvc.domain.model.AccountRepository;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
 
 @Controller
 @RequestMapping("/accounts")
 public class AccountsController {
 
-	private PagingAndSortingRepository<Account, Long> accountRepository;
+	private AccountRepository accountRepository;
+	private ListPageCache listPageCache;
 
 	@Autowired
 	public AccountsController(
-			PagingAndSortingRepository<Account, Long> accountRepository) {
+			AccountRepository accountRepository, ListPageCache listPageCache) {
 		this.accountRepository = accountRepository;
+		this.listPageCache = listPageCache;
 	}
 
 	@GetMapping
-	public String list(Pageable pageable, Model model) {
-		Page<Account> accountsPage = accountRepository.findAll(pageable);
+	public String list(@RequestParam(required=false) String search,
+			Pageable pageable, Model model) {
+		Page<Account> accountsPage = (search == null || search.isEmpty())
+				? listPageCache.get("accounts", pageable,
+						() -> accountRepository.findAll(pageable))
+				: accountRepository.searchByName(search, pageable);
 		model.addAttribute("accountsPage", accountsPage);
 		model.addAttribute("accounts", accountsPage.getContent());
 		return "accounts/list";
 	}
 
+	@GetMapping(params="ids")
+	public String listByIds(@RequestParam List<Long> ids, Model model) {
+		List<Account> accounts = accountRepository.findAllById(ids);
+		model.addAttribute("accountsPage", new PageImpl<>(accounts));
+		model.addAttribute("accounts", accounts);
+		return "accounts/list";
+	}
+
+	@PostMapping(params="batchDelete")
+	public String batchDelete(@RequestParam List<Long> ids) {
+		accountRepository.deleteAllByIdInBatch(ids);
+		listPageCache.invalidate("accounts");
+		return "redirect:/accounts";
+	}
+
 	@ModelAttribute("account")
 	public Account getAccount(
 			@PathVariable(required=false) Long id,
@@ -55,10 +80,10 @@ public class AccountsController {
 		}
 		// Case 2: GET /accounts?create and POST /accounts
 		if ((httpMethod == HttpMethod.GET && params.containsKey("create"))
-				|| httpMethod == HttpMethod.POST) {
+				|| (httpMethod == HttpMethod.POST && !params.containsKey("batchDelete"))) {
 			return new Account(params.get("name"));
 		}
-		// Case 3: GET /accounts and all other GET requests
+		// Case 3: GET /accounts, POST /accounts?batchDelete, and all other GET requests
 		return null;
 	}
 
@@ -81,6 +106,7 @@ public class AccountsController {
 			return "accounts/edit";
 		}
 		accountRepository.save(account);
+		listPageCache.invalidate("accounts");
 		return "redirect:/accounts";
 	}
 
@@ -94,16 +120,33 @@ public class AccountsController {
 	@PostMapping
 	public String save(
 			@ModelAttribute @Valid Account account, BindingResult bindingResult) {
+		if (accountRepository.existsByName(account.getName())) {
+			rejectDuplicate(bindingResult);
+		}
 		if (bindingResult.hasErrors()) {
 			return "accounts/edit";
 		}
-		accountRepository.save(account);
+		try {
+			accountRepository.save(account);
+		} catch (DataIntegrityViolationException e) {
+			// saved by a concurrent request since the check above
+			// (the name index is unique)
+			rejectDuplicate(bindingResult);
+			return "accounts/edit";
+		}
+		listPageCache.invalidate("accounts");
 		return "redirect:/accounts";
 	}
 
+	private void rejectDuplicate(BindingResult bindingResult) {
+		bindingResult.rejectValue("name", "error.duplicate",
+				"An account with this name already exists");
+	}
+
 	@DeleteMapping("/{id}")
 	public String delete(@ModelAttribute Account account) {
 		accountRepository.delete(account);
+		listPageCache.invalidate("accounts");
 		return "redirect:/accounts";
 	}
 
@@ -1,13 +1,14 @@
 package domainobjectsmvc.webmvc;
 
+import java.util.List;
 import java.util.Map;
 
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -22,27 +23,47 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import domainobjectsmvc.domain.model.GeneratedIdEntity;
+import domainobjectsmvc.domain.model.GeneratedIdEntityRepository;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
 
 @Controller
 @RequestMapping("/entities")
 public class GeneratedIdEntitiesController {
 
-	private PagingAndSortingRepository<GeneratedIdEntity, Long> entityRepository;
+	private GeneratedIdEntityRepository entityRepository;
+	private ListPageCache listPageCache;
 
 	@Autowired
 	public GeneratedIdEntitiesController(
-			PagingAndSortingRepository<GeneratedIdEntity, Long> entityRepository) {
+			GeneratedIdEntityRepository entityRepository, ListPageCache listPageCache) {
 		this.entityRepository = entityRepository;
+		this.listPageCache = listPageCache;
 	}
 
 	@GetMapping
 	public String list(Pageable pageable, Model model) {
-		Page<GeneratedIdEntity> entitiesPage = entityRepository.findAll(pageable);
+		Page<GeneratedIdEntity> entitiesPage = listPageCache.get("entities", pageable,
+				() -> entityRepository.findAll(pageable));
 		model.addAttribute("entitiesPage", entitiesPage);
 		model.addAttribute("entities", entitiesPage.getContent());
 		return "entities/list";
 	}
 
+	@GetMapping(params="ids")
+	public String listByIds(@RequestParam List<Long> ids, Model model) {
+		List<GeneratedIdEntity> entities = entityRepository.findAllById(ids);
+		model.addAttribute("entitiesPage", new PageImpl<>(entities));
+		model.addAttribute("entities", entities);
+		return "entities/list";
+	}
+
+	@PostMapping(params="batchDelete")
+	public String batchDelete(@RequestParam List<Long> ids) {
+		entityRepository.deleteAllByIdInBatch(ids);
+		listPageCache.invalidate("entities");
+		return "redirect:/entities";
+	}
+
 	@ModelAttribute("entity")
 	public GeneratedIdEntity populateModel(
 			@PathVariable(required=false) Long id,
@@ -55,10 +76,10 @@ public class GeneratedIdEntitiesController {
 		}
 		// Case 2: GET /entities?create and POST /entities
 		if ((httpMethod == HttpMethod.GET && params.containsKey("create"))
-				|| httpMethod == HttpMethod.POST) {
+				|| (httpMethod == HttpMethod.POST && !params.containsKey("batchDelete"))) {
 			return new GeneratedIdEntity();
 		}
-		// Case 3: GET /entities and all other GET requests
+		// Case 3: GET /entities, POST /entities?batchDelete, and all other GET requests
 		return null;
 	}
 
@@ -81,6 +102,7 @@ public class GeneratedIdEntitiesController {
 			return "entities/edit";
 		}
 		entityRepository.save(entity);
+		listPageCache.invalidate("entities");
 		return "redirect:/entities";
 	}
 
@@ -99,12 +121,14 @@ public class GeneratedIdEntitiesController {
 			return "entities/edit";
 		}
 		entityRepository.save(entity);
+		listPageCache.invalidate("entities");
 		return "redirect:/entities";
 	}
 
 	@DeleteMapping("/{id}")
 	public String delete(@ModelAttribute("entity") GeneratedIdEntity entity) {
 		entityRepository.delete(entity);
+		listPageCache.invalidate("entities");
 		return "redirect:/entities";
 	}
 
@@ -0,0 +1,10 @@
+package domainobjectsmvc.webmvc;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@SuppressWarnings("serial")
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidProductIdException extends RuntimeException {
+
+}
@@ -1,13 +1,15 @@
 package domainobjectsmvc.webmvc;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -21,28 +23,69 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import domainobjectsmvc.domain.model.AggregateCodec;
+import domainobjectsmvc.domain.model.ArchivedOrder;
+import domainobjectsmvc.domain.model.ArchivedOrderRepository;
 import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderRepository;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
+import domainobjectsmvc.infrastructure.cache.OrderCache;
+import domainobjectsmvc.infrastructure.index.ProductCatalogIndex;
+import domainobjectsmvc.infrastructure.persistence.SingleFlightReads;
 
 @Controller
 @RequestMapping("/orders")
 public class OrdersController {
 
-	private PagingAndSortingRepository<Order, Long> orderRepository;
+	private OrderRepository orderRepository;
+	private ArchivedOrderRepository archivedOrderRepository;
+	private ListPageCache listPageCache;
+	private OrderCache orderCache;
+	private ProductCatalogIndex productCatalog;
+	private SingleFlightReads singleFlightReads;
+	private AggregateCodec codec;
 
 	@Autowired
-	public OrdersController(
-			PagingAndSortingRepository<Order, Long> orderRepository) {
+	public OrdersController(OrderRepository orderRepository,
+			ArchivedOrderRepository archivedOrderRepository,
+			ListPageCache listPageCache, OrderCache orderCache,
+			ProductCatalogIndex productCatalog,
+			SingleFlightReads singleFlightReads, AggregateCodec codec) {
 		this.orderRepository = orderRepository;
+		this.archivedOrderRepository = archivedOrderRepository;
+		this.listPageCache = listPageCache;
+		this.orderCache = orderCache;
+		this.productCatalog = productCatalog;
+		this.singleFlightReads = singleFlightReads;
+		this.codec = codec;
 	}
 
 	@GetMapping
 	public String list(Pageable pageable, Model model) {
-		Page<Order> ordersPage = orderRepository.findAll(pageable);
+		Page<Order> ordersPage = listPageCache.get("orders", pageable,
+				() -> orderRepository.findAll(pageable));
 		model.addAttribute("ordersPage", ordersPage);
 		model.addAttribute("orders", ordersPage.getContent());
 		return "orders/list";
 	}
 
+	@GetMapping(params="ids")
+	public String listByIds(@RequestParam List<Long> ids, Model model) {
+		List<Order> orders = orderRepository.findAllById(ids);
+		model.addAttribute("ordersPage", new PageImpl<>(orders));
+		model.addAttribute("orders", orders);
+		return "orders/list";
+	}
+
+	@PostMapping(params="batchDelete")
+	public String batchDelete(@RequestParam List<Long> ids) {
+		orderRepository.deleteAllByIdInBatch(ids);
+		ids.forEach(orderCache::invalidate);
+		listPageCache.invalidate("orders");
+		return "redirect:/orders";
+	}
+
 	@ModelAttribute
 	public OrderForm populateModel(
 			@PathVariable(required=false) Long id,
@@ -50,19 +93,39 @@ public class OrdersController {
 			HttpMethod httpMethod) {
 		// Case 1: GET /orders/{id}?edit, PUT /orders/{id}, and DELETE /orders/{id}
 		if (id != null) {
-			Order order = orderRepository.findById(id)
-					.orElseThrow(() -> new EntityNotFoundException());
-			return OrderForm.fromDomainEntity(order);
+			boolean viewing = httpMethod == HttpMethod.GET && !params.containsKey("edit");
+			// Concurrent GETs share one read (PUT and DELETE read for themselves)
+			Optional<Order> order;
+			if (viewing) {
+				// Cached orders are shared, so they are only used for viewing
+				order = orderCache.get(id, () -> findSharedById(id));
+			} else if (httpMethod == HttpMethod.GET) {
+				order = findSharedById(id);
+			} else {
+				order = orderRepository.findById(id);
+			}
+			if (!order.isPresent() && viewing) {
+				// Archived orders can be shown, but not changed
+				order = archivedOrderRepository.findById(id).map(ArchivedOrder::toOrder);
+			}
+			return OrderForm.fromDomainEntity(
+					order.orElseThrow(() -> new EntityNotFoundException()));
 		}
 		// Case 2: GET /orders?create and POST /orders
 		if ((httpMethod == HttpMethod.GET && params.containsKey("create"))
-				|| httpMethod == HttpMethod.POST) {
+				|| (httpMethod == HttpMethod.POST && !params.containsKey("batchDelete"))) {
 			return OrderForm.fromDomainEntity(new Order());
 		}
-		// Case 3: GET /orders and all other GET requests
+		// Case 3: GET /orders, POST /orders?batchDelete, and all other GET requests
 		return null;
 	}
 
+	private Optional<Order> findSharedById(Long id) {
+		// From the primary, since shared copies may be cached
+		return singleFlightReads.findById("Order", id, () -> orderRepository.findPrimaryById(id),
+				codec::encode, codec::decodeOrder);
+	}
+
 	@GetMapping("/{id}")
 	public String show(@PathVariable Long id
 			/* , @ModelAttribute OrderForm orderForm */) {
@@ -78,10 +141,13 @@ public class OrdersController {
 	@PutMapping("/{id}")
 	public String update(@PathVariable Long id,
 			@ModelAttribute @Valid OrderForm orderForm, BindingResult bindingResult) {
+		validateProducts(orderForm, bindingResult);
 		if (bindingResult.hasErrors()) {
 			return "orders/edit";
 		}
 		orderRepository.save(orderForm.toDomainEntity());
+		orderCache.invalidate(id);
+		listPageCache.invalidate("orders");
 		return "redirect:/orders";
 	}
 
@@ -95,17 +161,56 @@ public class OrdersController {
 	@PostMapping
 	public String save(
 			@ModelAttribute @Valid OrderForm orderForm, BindingResult bindingResult) {
+		validateProducts(orderForm, bindingResult);
 		if (bindingResult.hasErrors()) {
 			return "orders/edit";
 		}
 		orderRepository.save(orderForm.toDomainEntity());
+		listPageCache.invalidate("orders");
 		return "redirect:/orders";
 	}
 
+	/**
+	 * Checks every line's product against the in-memory catalog (so without
+	 * any query).
+	 */
+	private void validateProducts(OrderForm orderForm, BindingResult bindingResult) {
+		List<OrderFormItem> items = orderForm.getItems();
+		for (int i = 0; i < items.size(); i++) {
+			String productId = items.get(i).getProductId();
+			if (productId == null || productId.trim().isEmpty()
+					|| !productCatalog.contains(new ProductId(productId))) {
+				bindingResult.rejectValue("items[" + i + "].productId", "error.unknown",
+						"There is no product with this ID");
+			}
+		}
+	}
+
 	@DeleteMapping("/{id}")
-	public String delete(@ModelAttribute OrderForm orderForm) {
+	public String delete(@PathVariable Long id, @ModelAttribute OrderForm orderForm) {
 		orderRepository.delete(orderForm.toDomainEntity());
+		orderCache.invalidate(id);
+		listPageCache.invalidate("orders");
 		return "redirect:/orders";
 	}
 
+	// Uses "orderId" (not "id") so that populateModel does not load the order
+	@PostMapping("/{orderId}/items")
+	public String addItem(@PathVariable Long orderId,
+			@RequestParam String productId, @RequestParam int quantity) {
+		if (quantity <= 0) {
+			throw new InvalidQuantityException();
+		}
+		if (!productCatalog.contains(new ProductId(productId))) {
+			throw new UnknownProductException();
+		}
+		if (orderRepository.incrementQuantity(
+				orderId, new ProductId(productId), quantity) == 0) {
+			throw new EntityNotFoundException();
+		}
+		orderCache.invalidate(orderId);
+		listPageCache.invalidate("orders");
+		return "redirect:/orders/{orderId}";
+	}
+
 }
@@ -0,0 +1,68 @@
+package domainobjectsmvc.webmvc;
+
+import java.util.Collections;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import domainobjectsmvc.domain.model.Product;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.domain.model.ProductRepository;
+
+/**
+ * The product catalog, which order lines are checked against (see
+ * {@link domainobjectsmvc.infrastructure.index.ProductCatalogIndex}).
+ * Products only have an ID, so they are created and deleted, never edited.
+ *
+ */
+@Controller
+@RequestMapping("/products")
+public class ProductsController {
+
+	private ProductRepository productRepository;
+
+	@Autowired
+	public ProductsController(ProductRepository productRepository) {
+		this.productRepository = productRepository;
+	}
+
+	@GetMapping
+	public String list(Pageable pageable, Model model) {
+		Page<Product> productsPage = productRepository.findAll(pageable);
+		model.addAttribute("productsPage", productsPage);
+		model.addAttribute("products", productsPage.getContent());
+		return "products/list";
+	}
+
+	@GetMapping(params="create")
+	public String create() {
+		return "products/create";
+	}
+
+	@PostMapping
+	public String save(@RequestParam String id) {
+		if (id.trim().isEmpty()) {
+			throw new InvalidProductIdException();
+		}
+		// Saving an existing product changes nothing
+		productRepository.save(new Product(new ProductId(id)));
+		return "redirect:/products";
+	}
+
+	@DeleteMapping("/{id}")
+	public String delete(@PathVariable String id) {
+		productRepository.deleteAllByIdInBatch(
+				Collections.singletonList(new ProductId(id)));
+		return "redirect:/products";
+	}
+
+}
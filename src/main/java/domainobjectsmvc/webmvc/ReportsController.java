@@ -0,0 +1,51 @@
+package domainobjectsmvc.webmvc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.analytics.OrderLinesAnalytics;
+
+/**
+ * Reports over order lines, as JSON objects of product ID to value (in
+ * descending order of value).
+ *
+ */
+@Controller
+@RequestMapping(path="/reports", produces=MediaType.APPLICATION_JSON_VALUE)
+public class ReportsController {
+
+	private OrderLinesAnalytics orderLinesAnalytics;
+
+	@Autowired
+	public ReportsController(OrderLinesAnalytics orderLinesAnalytics) {
+		this.orderLinesAnalytics = orderLinesAnalytics;
+	}
+
+	@GetMapping("/top-products")
+	@ResponseBody
+	public Map<String, Long> topProducts(@RequestParam(defaultValue="10") int limit) {
+		return byValue(orderLinesAnalytics.topProductsByQuantity(limit));
+	}
+
+	@GetMapping("/orders-per-product")
+	@ResponseBody
+	public Map<String, Long> ordersPerProduct(@RequestParam(defaultValue="0") int limit) {
+		return byValue(orderLinesAnalytics.ordersPerProduct(limit));
+	}
+
+	private static Map<String, Long> byValue(Map<ProductId, Long> report) {
+		Map<String, Long> result = new LinkedHashMap<>();
+		report.forEach((productId, value) -> result.put(productId.getValue(), value));
+		return result;
+	}
+
+}
@@ -1,48 +1,91 @@
 package domainobjectsmvc.webmvc;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
+import domainobjectsmvc.domain.model.AggregateCodec;
 import domainobjectsmvc.domain.model.VersionedEntity;
+import domainobjectsmvc.domain.model.VersionedEntityRepository;
+import domainobjectsmvc.infrastructure.cache.VersionedEntityCache;
+import domainobjectsmvc.infrastructure.persistence.OptimisticLockRetry;
+import domainobjectsmvc.infrastructure.persistence.SingleFlightReads;
 
 @Controller
 @RequestMapping("/versioned-entities")
 public class VersionedEntitiesController {
 
-	private PagingAndSortingRepository<VersionedEntity, Long> entityRepository;
+	private VersionedEntityRepository entityRepository;
+	private OptimisticLockRetry optimisticLockRetry;
+	private SingleFlightReads singleFlightReads;
+	private VersionedEntityCache entityCache;
+	private AggregateCodec codec;
 
 	@Autowired
 	public VersionedEntitiesController(
-			PagingAndSortingRepository<VersionedEntity, Long> entityRepository) {
+			VersionedEntityRepository entityRepository,
+			OptimisticLockRetry optimisticLockRetry,
+			SingleFlightReads singleFlightReads, VersionedEntityCache entityCache,
+			AggregateCodec codec) {
 		this.entityRepository = entityRepository;
+		this.optimisticLockRetry = optimisticLockRetry;
+		this.singleFlightReads = singleFlightReads;
+		this.entityCache = entityCache;
+		this.codec = codec;
 	}
 
 	@GetMapping
-	public String list(Pageable pageable, Model model) {
-		Page<VersionedEntity> entitiesPage = entityRepository.findAll(pageable);
+	public String list(@RequestParam(required=false) String search,
+			Pageable pageable, Model model) {
+		// Search results are ranked by relevance, not by the requested sort
+		Page<VersionedEntity> entitiesPage = (search == null || search.isEmpty())
+				? entityRepository.findAll(pageable)
+				: entityRepository.search(search, pageable);
 		model.addAttribute("entitiesPage", entitiesPage);
 		model.addAttribute("entities", entitiesPage.getContent());
 		return "versioned-entities/list";
 	}
 
+	@GetMapping(params="ids")
+	public String listByIds(@RequestParam List<Long> ids, Model model) {
+		List<VersionedEntity> entities = entityRepository.findAllById(ids);
+		model.addAttribute("entitiesPage", new PageImpl<>(entities));
+		model.addAttribute("entities", entities);
+		return "versioned-entities/list";
+	}
+
+	@PostMapping(params="batchDelete")
+	public String batchDelete(@RequestParam List<Long> ids) {
+		entityRepository.deleteAllByIdInBatch(ids);
+		ids.forEach(entityCache::invalidate);
+		return "redirect:/versioned-entities";
+	}
+
 	@ModelAttribute("entity")
 	public VersionedEntity populateModel(
 			@PathVariable(required=false) Long id,
@@ -50,9 +93,19 @@ public class VersionedEntitiesController {
 			HttpMethod httpMethod) {
 		// Case 1: GET /versioned-entities/{id}?edit,
 		// PUT /versioned-entities/{id}, and DELETE /versioned-entities/{id}
-		if (id != null) {
-			VersionedEntity entity = entityRepository.findById(id)
-					.orElseThrow(() -> new EntityNotFoundException());
+		// (PATCH /versioned-entities/{id} updates without loading)
+		if (id != null && httpMethod != HttpMethod.PATCH) {
+			// Shows are served from the near cache (when the version has not
+			// moved), and concurrent shows share one read. Their copies only
+			// load a payload if its data is asked for (views stream it, see
+			// streamData). Edit, PUT and DELETE read for themselves.
+			boolean showing = httpMethod == HttpMethod.GET && !params.containsKey("edit");
+			VersionedEntity entity = (showing
+					? entityCache.get(id, () -> singleFlightReads.findById("VersionedEntity", id,
+							() -> entityRepository.findById(id),
+							codec::encode, codec::decodeVersionedEntity))
+					: entityRepository.findById(id))
+				.orElseThrow(() -> new EntityNotFoundException());
 			/*
 			int version = Integer.valueOf(params.get("version"));
 			if (entity.getVersion() != version) {
@@ -63,18 +116,16 @@ public class VersionedEntitiesController {
 		}
 		// Case 2: GET /versioned-entities?create and POST /versioned-entities
 		if ((httpMethod == HttpMethod.GET && params.containsKey("create"))
-				|| httpMethod == HttpMethod.POST) {
+				|| (httpMethod == HttpMethod.POST && !params.containsKey("batchDelete"))) {
 			return new VersionedEntity();
 		}
-		// Case 3: GET /versioned-entities and all other GET requests
+		// Case 3: GET /versioned-entities, POST /versioned-entities?batchDelete, and all other GET requests
 		return null;
 	}
 
-	/*
 	@ResponseStatus(code=HttpStatus.PRECONDITION_FAILED)
 	@ExceptionHandler({ OptimisticLockingFailureException.class })
 	public void handleOptimisticLockingFailureException() {}
-	*/
 
 	@GetMapping("/{id}")
 	public String show(@PathVariable Long id
@@ -93,13 +144,53 @@ public class VersionedEntitiesController {
 			@ModelAttribute("entity") @Valid VersionedEntity entity, BindingResult bindingResult,
 			@RequestParam int version) {
 		if (entity.getVersion() != version) {
+			optimisticLockRetry.recordConflict("VersionedEntity", id);
 			bindingResult.reject("error.version",
 					"This has been modified since you last retrieved it");
 		}
 		if (bindingResult.hasErrors()) {
 			return "versioned-entities/edit";
 		}
-		entityRepository.save(entity);
+		try {
+			entityRepository.save(entity);
+		} catch (OptimisticLockingFailureException e) {
+			// Modified after it was loaded (above). The user's changes were
+			// made to what they saw, so they are not re-applied automatically.
+			optimisticLockRetry.recordConflict("VersionedEntity", id);
+			bindingResult.reject("error.version",
+					"This has been modified since you last retrieved it");
+			return "versioned-entities/edit";
+		}
+		entityCache.invalidate(id);
+		return "redirect:/versioned-entities";
+	}
+
+	/**
+	 * Streams the data as text, without loading it (so that views can link to
+	 * the data instead of including it).
+	 */
+	// Uses "entityId" (not "id") so that populateModel does not load the entity
+	@GetMapping(path="/{entityId}/data")
+	public void streamData(@PathVariable Long entityId, HttpServletResponse response)
+			throws IOException {
+		response.setContentType("text/plain;charset=UTF-8");
+		if (!entityRepository.streamData(entityId, response.getOutputStream())) {
+			throw new EntityNotFoundException();
+		}
+	}
+
+	@PatchMapping("/{id}")
+	public String patch(@PathVariable Long id,
+			@RequestParam int version, @RequestParam String data) {
+		if (entityRepository.updateData(id, version, data) == 0) {
+			if (!entityRepository.existsById(id)) {
+				throw new EntityNotFoundException();
+			}
+			optimisticLockRetry.recordConflict("VersionedEntity", id);
+			throw new OptimisticLockingFailureException(
+					"Versioned entity " + id + " is no longer at version " + version);
+		}
+		entityCache.invalidate(id);
 		return "redirect:/versioned-entities";
 	}
 
@@ -122,8 +213,9 @@ public class VersionedEntitiesController {
 	}
 
 	@DeleteMapping("/{id}")
-	public String delete(@ModelAttribute("entity") VersionedEntity entity) {
+	public String delete(@PathVariable Long id, @ModelAttribute("entity") VersionedEntity entity) {
 		entityRepository.delete(entity);
+		entityCache.invalidate(id);
 		return "redirect:/versioned-entities";
 	}
 
@@ -0,0 +1,96 @@
+package domainobjectsmvc.domain.model;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AggregateCodecTests {
+
+	private final AggregateCodec codec = new AggregateCodec(2);
+
+	@Test
+	public void order() throws Exception {
+		Order order = new Order(1234567890123L);
+		order.addItem(2, new ProductId("xxx"));
+		order.addItem(300, new ProductId("yyy"));
+		order.addItem(1, new ProductId("zzz"));
+		byte[] encoded = codec.encode(order);
+		Order decoded = codec.decodeOrder(encoded);
+		assertEquals(order.getId(), decoded.getId());
+		assertEquals(3, decoded.getItemCount());
+		assertEquals(2, decoded.getItem(new ProductId("xxx")).get().getQuantity());
+		assertEquals(300, decoded.getItem(new ProductId("yyy")).get().getQuantity());
+		// Beyond the dictionary's size, so written in full
+		assertEquals(1, decoded.getItem(new ProductId("zzz")).get().getQuantity());
+		assertEquals(2, codec.dictionarySize());
+		// Dictionary references are shared
+		AggregateCodec larger = new AggregateCodec(16);
+		encoded = larger.encode(order);
+		assertSame(larger.decodeOrder(encoded).getItem(new ProductId("xxx")).get().getProductId(),
+				larger.decodeOrder(ByteBuffer.wrap(encoded)).getItem(new ProductId("xxx")).get().getProductId());
+	}
+
+	@Test
+	public void accountAndVersionedEntity() throws Exception {
+		Account account = codec.decodeAccount(codec.encode(new Account(7L, "näme")));
+		assertEquals(Long.valueOf(7L), account.getId());
+		assertEquals("näme", account.getName());
+		VersionedEntity entity = codec.decodeVersionedEntity(
+				codec.encode(new VersionedEntity(null, null, null, 0, 3)));
+		assertNull(entity.getId());
+		assertNull(entity.getData());
+		assertEquals(3, entity.getVersion());
+		// Only the payload's ID is written
+		entity = codec.decodeVersionedEntity(codec.encode(new VersionedEntity(
+				8L, null, new VersionedEntityPayload(9L, null), 1000, 2)));
+		assertFalse(entity.isDataInline());
+		assertEquals(Long.valueOf(9L), entity.getPayloadId());
+		assertEquals(1000, entity.getDataLength());
+		try {
+			entity.getData();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("Payload 9 is not loaded (stream it instead)", e.getMessage());
+		}
+	}
+
+	@Test
+	public void versionedEntityLoadsPayloadOnDemand() throws Exception {
+		String data = String.join("", Collections.nCopies(300, "x"));
+		AggregateCodec loading = new AggregateCodec(2,
+				payloadId -> payloadId == 9L ? VersionedEntityPayload.of(data) : null);
+		VersionedEntity entity = loading.decodeVersionedEntity(loading.encode(new VersionedEntity(
+				8L, null, new VersionedEntityPayload(9L, null), data.length(), 2)));
+		assertEquals(data, entity.getData());
+		entity = loading.decodeVersionedEntity(loading.encode(new VersionedEntity(
+				8L, null, new VersionedEntityPayload(10L, null), data.length(), 3)));
+		try {
+			entity.getData();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("Payload 10 is not loaded (stream it instead)", e.getMessage());
+		}
+	}
+
+	@Test
+	public void rejectsOtherFormatsAndTypes() throws Exception {
+		byte[] encoded = codec.encode(new Account(7L, "name"));
+		try {
+			codec.decodeOrder(encoded);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Expected type 1, but was 2", e.getMessage());
+		}
+		encoded[0] = 2;
+		try {
+			codec.decodeAccount(encoded);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unsupported format version 2", e.getMessage());
+		}
+	}
+
+}
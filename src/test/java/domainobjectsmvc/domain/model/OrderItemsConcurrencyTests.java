@@ -0,0 +1,74 @@
+package domainobjectsmvc.domain.model;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Uses an embedded HSQLDB database of its own in MVCC mode, so that a
+ * transaction's <code>UPDATE</code> does not wait for another's uncommitted
+ * <code>INSERT</code> (as it would with the default locks).
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"spring.datasource.url=jdbc:hsqldb:mem:order-items-concurrency;hsqldb.tx=mvcc",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/order-items-concurrency-tests-index"
+})
+public class OrderItemsConcurrencyTests {
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Test
+	public void concurrentFirstAddsOfALineAreBothCounted() throws Exception {
+		Long id = orderRepository.save(new Order()).getId();
+		ProductId productId = new ProductId("concurrent");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			CountDownLatch added = new CountDownLatch(1);
+			CountDownLatch commit = new CountDownLatch(1);
+			Future<?> first = executor.submit(() -> transactionTemplate.execute(status -> {
+				orderRepository.incrementQuantity(id, productId, 2);
+				added.countDown();
+				try {
+					commit.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return null;
+			}));
+			added.await();
+			Future<Integer> second = executor.submit(
+					() -> orderRepository.incrementQuantity(id, productId, 3));
+			// the second INSERT waits for the first transaction
+			Thread.sleep(200);
+			commit.countDown();
+			first.get();
+			assertEquals(1, (int) second.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(Integer.valueOf(5), jdbcTemplate.queryForObject(
+				"select quantity from order_items where order_id = ? and product_id = ?",
+				Integer.class, id, productId.getValue()));
+	}
+
+}
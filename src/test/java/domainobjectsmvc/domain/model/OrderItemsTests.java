@@ -0,0 +1,62 @@
+package domainobjectsmvc.domain.model;
+
+import static org.junit.Assert.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/order-items-tests-index"
+})
+public class OrderItemsTests {
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Test
+	public void itemLookupsQueryOnlyWhatTheyNeed() throws Exception {
+		Long id = orderRepository.save(new Order()).getId();
+		for (int i = 0; i < 100; i++) {
+			orderRepository.incrementQuantity(id, new ProductId("product-" + i), i + 1);
+		}
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			Order order = entityManager.find(Order.class, id);
+			Object items = ReflectionTestUtils.getField(order, "items");
+			statistics.clear();
+
+			assertEquals(100, order.getItemCount());
+			assertTrue(order.hasItem(new ProductId("product-7")));
+			assertFalse(order.hasItem(new ProductId("product-100")));
+			assertEquals(8, order.getItem(new ProductId("product-7")).get().getQuantity());
+			assertFalse(Hibernate.isInitialized(items));
+			// One query each, and only one item loaded
+			assertEquals(4, statistics.getPrepareStatementCount());
+			assertEquals(1, statistics.getEntityLoadCount());
+
+			assertEquals(100, order.getItems().size());
+			assertTrue(Hibernate.isInitialized(items));
+			assertEquals(5, statistics.getPrepareStatementCount());
+			assertTrue(ReflectionTestUtils.getField(items, "map") instanceof ProductIdMap);
+		} finally {
+			entityManager.close();
+		}
+	}
+
+}
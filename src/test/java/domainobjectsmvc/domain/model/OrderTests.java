@@ -0,0 +1,38 @@
+package domainobjectsmvc.domain.model;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class OrderTests {
+
+	@Test
+	public void eventsOfNewOrdersGetTheIdItIsSavedWith() throws Exception {
+		Order order = new Order();
+		order.addItem(2, new ProductId("xxx"));
+		order.removeItem(new ProductId("xxx"));
+		OrderItemAdded raised = (OrderItemAdded) order.domainEvents().iterator().next();
+		assertNull(raised.getOrderId());
+		// As assigned by the ID generator when the order is saved
+		ReflectionTestUtils.setField(order, "id", 42L);
+		List<Object> events = (List<Object>) order.domainEvents();
+		assertThat(events, contains(
+				allOf(instanceOf(OrderItemAdded.class), hasProperty("orderId", equalTo(42L)),
+						hasProperty("quantity", equalTo(2))),
+				allOf(instanceOf(OrderItemRemoved.class), hasProperty("orderId", equalTo(42L)))));
+		assertEquals(raised.getOccurredOn(), ((OrderItemAdded) events.get(0)).getOccurredOn());
+	}
+
+	@Test
+	public void eventsOfSavedOrdersCarryItsId() throws Exception {
+		Order order = new Order(7L);
+		order.addItem(1, new ProductId("xxx"));
+		assertEquals(Long.valueOf(7L),
+				((OrderItemAdded) order.domainEvents().iterator().next()).getOrderId());
+	}
+
+}
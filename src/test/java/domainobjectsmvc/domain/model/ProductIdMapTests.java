@@ -0,0 +1,90 @@
+package domainobjectsmvc.domain.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ProductIdMapTests {
+
+	private final ProductIdMap<Integer> map = new ProductIdMap<>();
+
+	@Test
+	public void behavesLikeHashMap() throws Exception {
+		Map<ProductId, Integer> expected = new HashMap<>();
+		Random random = new Random(42);
+		for (int i = 0; i < 100_000; i++) {
+			ProductId key = new ProductId("product-" + random.nextInt(2_000));
+			switch (random.nextInt(3)) {
+			case 0:
+				assertEquals(expected.remove(key), map.remove(key));
+				break;
+			default:
+				assertEquals(expected.put(key, i), map.put(key, i));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+		for (int i = 0; i < 2_000; i++) {
+			ProductId key = new ProductId("product-" + i);
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+			assertEquals(expected.get(key), map.get(key));
+		}
+	}
+
+	@Test
+	public void iteratorRemovesEveryOtherEntry() throws Exception {
+		for (int i = 0; i < 1_000; i++) {
+			map.put(new ProductId("product-" + i), i);
+		}
+		int visited = 0;
+		for (Iterator<Map.Entry<ProductId, Integer>> entries = map.entrySet().iterator();
+				entries.hasNext(); ) {
+			Map.Entry<ProductId, Integer> entry = entries.next();
+			visited++;
+			if (entry.getValue() % 2 == 0) {
+				entries.remove();
+			} else {
+				entry.setValue(-entry.getValue());
+			}
+		}
+		// Removals move keys back, but none is visited twice or skipped
+		assertEquals(1_000, visited);
+		assertEquals(500, map.size());
+		for (int i = 0; i < 1_000; i++) {
+			assertEquals(i % 2 == 0 ? null : Integer.valueOf(-i),
+					map.get(new ProductId("product-" + i)));
+		}
+	}
+
+	@Test(expected=ConcurrentModificationException.class)
+	public void iteratorFailsFastOnPut() throws Exception {
+		map.put(new ProductId("a"), 1);
+		map.put(new ProductId("b"), 2);
+		Iterator<ProductId> keys = map.keySet().iterator();
+		keys.next();
+		map.put(new ProductId("c"), 3);
+		keys.next();
+	}
+
+	@Test
+	public void ignoresOtherKeys() throws Exception {
+		map.put(new ProductId("a"), 1);
+		assertFalse(map.containsKey("a"));
+		assertNull(map.get("a"));
+		assertNull(map.remove("a"));
+		assertNull(map.get(null));
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void rejectsNullKeys() throws Exception {
+		map.put(null, 1);
+	}
+
+}
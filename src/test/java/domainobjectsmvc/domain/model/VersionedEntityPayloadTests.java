@@ -0,0 +1,177 @@
+package domainobjectsmvc.domain.model;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.hibernate.Hibernate;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/versioned-entity-payload-tests-index"
+})
+@AutoConfigureMockMvc
+public class VersionedEntityPayloadTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private VersionedEntityRepository entityRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private AggregateCodec codec;
+
+	private final String largeData = largeData(100_000);
+
+	@Test
+	public void largeDataIsStoredCompressedAndLoadedWhenAskedFor() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData(largeData);
+		Long id = entityRepository.save(entity).getId();
+		assertThat(jdbcTemplate.queryForObject(
+				"select octet_length(p.content) from versioned_entity_payloads p"
+				+ " join versioned_entities e on e.payload_id = p.id where e.id = ?",
+				Long.class, id), lessThan(10_000L));
+		new TransactionTemplate(transactionManager).execute(status -> {
+			VersionedEntity loaded = entityRepository.findById(id).get();
+			assertFalse(loaded.isDataInline());
+			assertEquals(100_000, loaded.getDataLength());
+			assertNotNull(loaded.getPayloadId());
+			assertFalse(Hibernate.isInitialized(ReflectionTestUtils.getField(loaded, "payload")));
+			assertEquals(largeData, loaded.getData());
+			return null;
+		});
+		assertEquals(largeData, streamData(id));
+		mvc.perform(get("/versioned-entities/{id}/data", id))
+			.andExpect(status().isOk())
+			.andExpect(content().string(largeData));
+	}
+
+	@Test
+	public void copiesLoadTheirPayloadWhenAskedFor() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData(largeData);
+		Long id = entityRepository.save(entity).getId();
+		// as cached, or shared by single-flight reads
+		VersionedEntity copy = codec.decodeVersionedEntity(
+				codec.encode(entityRepository.findById(id).get()));
+		assertFalse(copy.isDataInline());
+		assertEquals(largeData, copy.getData());
+	}
+
+	@Test
+	public void showFromNearCacheHasTheData() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData(largeData);
+		Long id = entityRepository.save(entity).getId();
+		// a fill, then a hit
+		for (int i = 0; i < 2; i++) {
+			mvc.perform(get("/versioned-entities/{id}", id))
+				.andExpect(status().isOk())
+				.andExpect(model().attribute("entity", hasProperty("data", is(largeData))))
+				.andExpect(view().name("versioned-entities/show"));
+		}
+	}
+
+	@Test
+	public void updateDataMovesBetweenInlineAndPayload() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData("small");
+		Long id = entityRepository.save(entity).getId();
+		assertEquals(1, entityRepository.updateData(id, 0, largeData));
+		assertEquals(largeData, streamData(id));
+		assertEquals(Integer.valueOf(1), payloadCount(id));
+		Long payloadId = jdbcTemplate.queryForObject(
+				"select payload_id from versioned_entities where id = ?", Long.class, id);
+		assertEquals(1, entityRepository.updateData(id, 1, "small again"));
+		assertEquals("small again", streamData(id));
+		assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+				"select count(*) from versioned_entity_payloads where id = ?",
+				Integer.class, payloadId));
+		assertEquals(1, entityRepository.updateData(id, 2, largeData));
+		payloadId = jdbcTemplate.queryForObject(
+				"select payload_id from versioned_entities where id = ?", Long.class, id);
+		assertEquals(1, entityRepository.deleteAllByIdInBatch(Arrays.asList(id)));
+		assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+				"select count(*) from versioned_entity_payloads where id = ?",
+				Integer.class, payloadId));
+		assertFalse(entityRepository.streamData(id, new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void unchangedDataIsNotWrittenAgain() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData(largeData);
+		Long id = entityRepository.save(entity).getId();
+		Long payloadId = jdbcTemplate.queryForObject(
+				"select payload_id from versioned_entities where id = ?", Long.class, id);
+		for (String data : new String[] { largeData, "small", "small" }) {
+			new TransactionTemplate(transactionManager).execute(status -> {
+				// An equal copy, as bound from a request
+				entityRepository.findById(id).get().setData(new String(data));
+				return null;
+			});
+		}
+		// Only the change to "small" was written
+		assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+				"select version from versioned_entities where id = ?", Integer.class, id));
+		assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+				"select count(*) from versioned_entity_payloads where id = ?",
+				Integer.class, payloadId));
+		new TransactionTemplate(transactionManager).execute(status -> {
+			VersionedEntity loaded = entityRepository.findById(id).get();
+			// Same length, different data
+			loaded.setData("SMALL");
+			assertEquals("SMALL", loaded.getData());
+			return null;
+		});
+		assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject(
+				"select version from versioned_entities where id = ?", Integer.class, id));
+	}
+
+	private String streamData(Long id) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(entityRepository.streamData(id, out));
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private Integer payloadCount(Long id) {
+		return jdbcTemplate.queryForObject(
+				"select count(*) from versioned_entity_payloads p"
+				+ " where p.id in (select payload_id from versioned_entities where id = ?)",
+				Integer.class, id);
+	}
+
+	private static String largeData(int length) {
+		StringBuilder data = new StringBuilder(length);
+		while (data.length() < length) {
+			data.append("Lorem ipsum dolor sit amet (").append(data.length()).append("). ");
+		}
+		data.setLength(length);
+		return data.toString();
+	}
+
+}
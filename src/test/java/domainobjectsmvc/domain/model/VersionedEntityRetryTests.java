@@ -0,0 +1,86 @@
+package domainobjectsmvc.domain.model;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.optimistic-lock-retry.max-attempts=3",
+		"app.optimistic-lock-retry.initial-backoff-millis=1",
+		"app.optimistic-lock-retry.max-backoff-millis=2",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/versioned-entity-retry-tests-index"
+})
+public class VersionedEntityRetryTests {
+
+	@Autowired
+	private VersionedEntityRepository entityRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	public void updateRereadsAndRetriesAfterConflict() throws Exception {
+		Long id = save("original");
+		AtomicInteger attempts = new AtomicInteger();
+		VersionedEntity updated = entityRepository.update(id, entity -> {
+			if (attempts.incrementAndGet() == 1) {
+				writeConcurrently(id, "concurrent");
+			} else {
+				assertEquals("concurrent", entity.getData());
+			}
+			entity.setData(entity.getData() + " and retried");
+		}).get();
+		assertEquals(2, attempts.get());
+		assertEquals("concurrent and retried", updated.getData());
+		assertEquals("concurrent and retried", entityRepository.findById(id).get().getData());
+	}
+
+	@Test
+	public void updateGivesUpAfterMaxAttempts() throws Exception {
+		Long id = save("original");
+		AtomicInteger attempts = new AtomicInteger();
+		try {
+			entityRepository.update(id, entity -> {
+				writeConcurrently(id, "concurrent " + attempts.incrementAndGet());
+				entity.setData("lost");
+			});
+			fail("Expected an optimistic locking failure");
+		} catch (ObjectOptimisticLockingFailureException e) {
+			// expected
+		}
+		assertEquals(3, attempts.get());
+		assertEquals("concurrent 3", entityRepository.findById(id).get().getData());
+	}
+
+	private Long save(String data) {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData(data);
+		return entityRepository.save(entity).getId();
+	}
+
+	/**
+	 * Writes in another thread (and so in another transaction), and waits for
+	 * it to commit.
+	 */
+	private void writeConcurrently(Long id, String data) {
+		try {
+			CompletableFuture.runAsync(() -> jdbcTemplate.update(
+					"update versioned_entities set data = ?, version = version + 1"
+					+ " where id = ?", data, id)).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package domainobjectsmvc.infrastructure.analytics;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import domainobjectsmvc.domain.model.OrderDeleted;
+import domainobjectsmvc.domain.model.OrderItemAdded;
+import domainobjectsmvc.domain.model.OrderItemRemoved;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.sharding.ShardRoutingDataSource;
+
+public class OrderLinesAnalyticsTests {
+
+	private EmbeddedDatabase database;
+	private JdbcTemplate jdbcTemplate;
+	private long lastEventSequence;
+	private OrderLinesAnalytics analytics;
+
+	@Before
+	public void setUp() throws Exception {
+		database = createDatabase();
+		jdbcTemplate = new JdbcTemplate(database);
+		jdbcTemplate.update("insert into order_items_archive (order_id, product_id, quantity)"
+				+ " values (?, ?, ?)", 0, "a", 4);
+		insert(1, "a", 1);
+		insert(1, "b", 1);
+		insert(2, "b", 2);
+		insert(3, "b", 1);
+		insert(3, "c", 3);
+		analytics = new OrderLinesAnalytics(database, () -> lastEventSequence, 1, 600_000);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.shutdown();
+	}
+
+	@Test
+	public void topProductsByQuantity() throws Exception {
+		// a: 5 (4 of them archived), b: 4, c: 3
+		assertReport(report("a", 5L, "b", 4L), analytics.topProductsByQuantity(2));
+		assertReport(report("a", 5L, "b", 4L, "c", 3L), analytics.topProductsByQuantity(10));
+	}
+
+	@Test
+	public void nonPositiveLimitMeansAllProducts() throws Exception {
+		assertReport(report("a", 5L, "b", 4L, "c", 3L), analytics.topProductsByQuantity(0));
+		assertReport(report("a", 5L, "b", 4L, "c", 3L), analytics.topProductsByQuantity(-1));
+		assertReport(report("b", 3L, "a", 2L, "c", 1L), analytics.ordersPerProduct(0));
+	}
+
+	@Test
+	public void mergesCommittedEvents() throws Exception {
+		analytics.topProductsByQuantity(0);
+		analytics.handle(Arrays.asList(added(2, "c", 4), removed(3, "b")));
+		assertReport(report("c", 7L, "a", 5L, "b", 3L), analytics.topProductsByQuantity(0));
+		// All tie
+		assertEquals(report("a", 2L, "b", 2L, "c", 2L), analytics.ordersPerProduct(0));
+	}
+
+	@Test
+	public void discardsEventsPublishedBeforeTheScan() throws Exception {
+		lastEventSequence = 5;
+		analytics.topProductsByQuantity(0);
+		// Event 5 committed before the scan, so the scan counted it
+		analytics.handle(Arrays.asList(added(2, "c", 4), added(3, "c", 3)), new long[] { 5, 6 });
+		assertReport(report("c", 6L, "a", 5L, "b", 4L), analytics.topProductsByQuantity(0));
+	}
+
+	@Test
+	public void discardsQueuedEventsOnRebuild() throws Exception {
+		analytics.topProductsByQuantity(0);
+		analytics.handle(Arrays.asList(added(2, "c", 4), added(3, "c", 1)), new long[] { 1, 2 });
+		insert(2, "c", 4);
+		lastEventSequence = 1;
+		analytics.rebuild();
+		assertReport(report("c", 8L, "a", 5L, "b", 4L), analytics.topProductsByQuantity(0));
+	}
+
+	@Test
+	public void removesLinesOfDeletedOrders() throws Exception {
+		analytics.topProductsByQuantity(0);
+		analytics.handle(Arrays.asList(added(3, "a", 2), new OrderDeleted(3L, false),
+				new OrderDeleted(1L, true)));
+		// Order 1 was archived, so its lines stay
+		assertReport(report("a", 5L, "b", 3L), analytics.topProductsByQuantity(0));
+		// Both tie
+		assertEquals(report("a", 2L, "b", 2L), analytics.ordersPerProduct(0));
+	}
+
+	@Test
+	public void rebuildScansEveryShard() throws Exception {
+		EmbeddedDatabase shard1 = createDatabase();
+		try {
+			JdbcTemplate shard1Template = new JdbcTemplate(shard1);
+			for (long orderId : new long[] { 2, 4, 5 }) {
+				shard1Template.update("insert into order_items (order_id, product_id, quantity)"
+						+ " values (?, ?, ?)", orderId + 10, "c", 2);
+			}
+			// Between orders of shard 1
+			insert(13, "b", 2);
+			ShardRoutingDataSource shards = new ShardRoutingDataSource();
+			Map<Object, Object> targets = new HashMap<>();
+			targets.put(0, database);
+			targets.put(1, shard1);
+			shards.setTargetDataSources(targets);
+			shards.afterPropertiesSet();
+			OrderLinesAnalytics sharded = new OrderLinesAnalytics(shards, () -> 0, 2, 600_000);
+			assertReport(report("c", 9L, "b", 6L, "a", 5L), sharded.topProductsByQuantity(0));
+			// c and b tie
+			assertEquals(report("c", 4L, "b", 4L, "a", 2L), sharded.ordersPerProduct(0));
+			// Lines stay sorted by order, so changes merge into the right lines
+			sharded.handle(Arrays.asList(removed(14, "c"), added(3, "c", 1)));
+			assertReport(report("c", 8L, "b", 6L, "a", 5L), sharded.topProductsByQuantity(0));
+		} finally {
+			shard1.shutdown();
+		}
+	}
+
+	@Test
+	public void rebuildScansTheTableAgain() throws Exception {
+		analytics.topProductsByQuantity(0);
+		insert(4, "c", 10);
+		assertReport(report("a", 5L), analytics.topProductsByQuantity(1));
+		analytics.rebuild();
+		assertReport(report("c", 13L), analytics.topProductsByQuantity(1));
+	}
+
+	private static EmbeddedDatabase createDatabase() {
+		EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+				.setType(EmbeddedDatabaseType.HSQL)
+				.generateUniqueName(true)
+				.build();
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+		jdbcTemplate.execute("create table order_items"
+				+ " (order_id bigint, product_id varchar(255), quantity integer)");
+		jdbcTemplate.execute("create table order_items_archive"
+				+ " (order_id bigint, product_id varchar(255), quantity integer)");
+		return database;
+	}
+
+	private void insert(long orderId, String productId, int quantity) {
+		jdbcTemplate.update("insert into order_items (order_id, product_id, quantity)"
+				+ " values (?, ?, ?)", orderId, productId, quantity);
+	}
+
+	private static OrderItemAdded added(long orderId, String productId, int quantity) {
+		OrderItemAdded event = mock(OrderItemAdded.class);
+		when(event.getOrderId()).thenReturn(orderId);
+		when(event.getProductId()).thenReturn(new ProductId(productId));
+		when(event.getQuantity()).thenReturn(quantity);
+		return event;
+	}
+
+	private static OrderItemRemoved removed(long orderId, String productId) {
+		OrderItemRemoved event = mock(OrderItemRemoved.class);
+		when(event.getOrderId()).thenReturn(orderId);
+		when(event.getProductId()).thenReturn(new ProductId(productId));
+		return event;
+	}
+
+	/** Asserts the entries are equal, in the same order */
+	private static void assertReport(Map<ProductId, Long> expected, Map<ProductId, Long> actual) {
+		assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+	}
+
+	private static Map<ProductId, Long> report(Object... productIdsAndValues) {
+		Map<ProductId, Long> report = new LinkedHashMap<>();
+		for (int i = 0; i < productIdsAndValues.length; i += 2) {
+			report.put(new ProductId((String) productIdsAndValues[i]),
+					(Long) productIdsAndValues[i + 1]);
+		}
+		return report;
+	}
+
+}
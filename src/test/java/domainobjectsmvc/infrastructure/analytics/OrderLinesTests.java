@@ -0,0 +1,112 @@
+package domainobjectsmvc.infrastructure.analytics;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import domainobjectsmvc.domain.model.ProductId;
+
+public class OrderLinesTests {
+
+	private final ProductId[] dictionary = {
+			new ProductId("a"), new ProductId("b"), new ProductId("c") };
+
+	@Test
+	public void sortedByOrderSortsLinesOfEachOrderByProduct() throws Exception {
+		long[] orderIds = { 1, 1, 1, 2, 2 };
+		int[] productCodes = { 2, 0, 1, 1, 0 };
+		int[] quantities = { 30, 10, 20, 5, 4 };
+		OrderLines.sortedByOrder(orderIds, productCodes, quantities, 5, dictionary, 3);
+		assertArrayEquals(new int[] { 0, 1, 2, 0, 1 }, productCodes);
+		assertArrayEquals(new int[] { 10, 20, 30, 4, 5 }, quantities);
+	}
+
+	@Test
+	public void mergeAddsUpdatesResetsAndRemovesLines() throws Exception {
+		OrderLines lines = new OrderLines(
+				new long[] { 1, 1, 2 }, new int[] { 0, 1, 0 }, new int[] { 2, 3, 1 },
+				3, dictionary, 3);
+		NavigableMap<OrderLines.Key, OrderLines.Change> changes = new TreeMap<>();
+		changes.put(new OrderLines.Key(1, 0), new OrderLines.Change(false, 5));
+		changes.put(new OrderLines.Key(1, 1), OrderLines.Change.REMOVE);
+		changes.put(new OrderLines.Key(1, 2), new OrderLines.Change(false, 4));
+		changes.put(new OrderLines.Key(2, 0), new OrderLines.Change(false, -1));
+		changes.put(new OrderLines.Key(3, 1), new OrderLines.Change(true, 2));
+		OrderLines merged = lines.merge(changes, Collections.emptySet(), dictionary, 3);
+		// (1, a, 7), (1, c, 4) and (3, b, 2)
+		assertEquals(3, merged.size());
+		assertArrayEquals(new long[] { 7, 2, 4 }, merged.quantityByProduct());
+		assertArrayEquals(new long[] { 1, 1, 1 }, merged.linesByProduct());
+		// The snapshot merged into is left as it was
+		assertEquals(3, lines.size());
+		assertArrayEquals(new long[] { 3, 3, 0 }, lines.quantityByProduct());
+	}
+
+	@Test
+	public void mergeWithNoChanges() throws Exception {
+		OrderLines lines = new OrderLines(
+				new long[] { 1 }, new int[] { 0 }, new int[] { 2 }, 1, dictionary, 3);
+		OrderLines merged = lines.merge(new TreeMap<>(), Collections.emptySet(), dictionary, 3);
+		assertEquals(1, merged.size());
+		assertArrayEquals(new long[] { 2, 0, 0 }, merged.quantityByProduct());
+	}
+
+	@Test
+	public void mergeRemovesLinesOfDeletedOrders() throws Exception {
+		OrderLines lines = new OrderLines(
+				new long[] { 1, 1, 2, 3 }, new int[] { 0, 1, 0, 2 }, new int[] { 2, 3, 1, 4 },
+				4, dictionary, 3);
+		NavigableMap<OrderLines.Key, OrderLines.Change> changes = new TreeMap<>();
+		changes.put(new OrderLines.Key(2, 0), new OrderLines.Change(false, 5));
+		OrderLines merged = lines.merge(changes, new HashSet<>(Arrays.asList(1L, 2L)),
+				dictionary, 3);
+		// (2, a, 5), as added after the delete, and (3, c, 4)
+		assertEquals(2, merged.size());
+		assertArrayEquals(new long[] { 5, 0, 4 }, merged.quantityByProduct());
+	}
+
+	@Test
+	public void changesCombineInOrder() throws Exception {
+		OrderLines.Change added = new OrderLines.Change(false, 2)
+				.then(new OrderLines.Change(false, 3));
+		assertFalse(added.reset);
+		assertEquals(5, added.delta);
+		OrderLines.Change removed = added.then(OrderLines.Change.REMOVE);
+		assertTrue(removed.reset);
+		assertEquals(0, removed.delta);
+		OrderLines.Change readded = removed.then(new OrderLines.Change(false, 1));
+		assertTrue(readded.reset);
+		assertEquals(1, readded.delta);
+	}
+
+	@Test
+	public void aggregatesAcrossChunks() throws Exception {
+		int size = 200_003;
+		long[] orderIds = new long[size];
+		int[] productCodes = new int[size];
+		int[] quantities = new int[size];
+		for (int i = 0; i < size; i++) {
+			orderIds[i] = i;
+			productCodes[i] = i % 3;
+			quantities[i] = 2;
+		}
+		OrderLines lines = new OrderLines(orderIds, productCodes, quantities,
+				size, dictionary, 3);
+		assertArrayEquals(new long[] { 66_668, 66_668, 66_667 }, lines.linesByProduct());
+		assertArrayEquals(new long[] { 133_336, 133_336, 133_334 }, lines.quantityByProduct());
+	}
+
+	@Test
+	public void aggregatesNoLines() throws Exception {
+		OrderLines lines = new OrderLines(new long[0], new int[0], new int[0],
+				0, dictionary, 3);
+		assertArrayEquals(new long[3], lines.quantityByProduct());
+	}
+
+}
@@ -0,0 +1,126 @@
+package domainobjectsmvc.infrastructure.archive;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderRepository;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.analytics.OrderLinesAnalytics;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.archive.orders.batch-size=2",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/order-archiver-tests-index"
+})
+@AutoConfigureMockMvc
+public class OrderArchiverTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private OrderArchiver orderArchiver;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private OrderLinesAnalytics orderLinesAnalytics;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	public void movesOrdersBelowWatermarkWithTheirItems() throws Exception {
+		List<Long> ids = saveOrders(5);
+		long archived = orderArchiver.archiveBelow(ids.get(3));
+		assertThat(archived, greaterThanOrEqualTo(3L));
+		for (Long id : ids.subList(0, 3)) {
+			assertFalse(orderRepository.existsById(id));
+			assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+					"select count(*) from orders_archive where id = ?", Integer.class, id));
+			assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject(
+					"select quantity from order_items_archive where order_id = ?",
+					Integer.class, id));
+		}
+		for (Long id : ids.subList(3, 5)) {
+			assertTrue(orderRepository.existsById(id));
+		}
+		assertEquals(0, orderArchiver.archiveBelow(ids.get(3)));
+	}
+
+	@Test
+	public void showsArchivedOrders() throws Exception {
+		List<Long> ids = saveOrders(2);
+		mvc.perform(get("/orders").param("size", "1000").param("sort", "id,desc"))
+			.andExpect(model().attribute("orders",
+					hasItem(hasProperty("id", equalTo(ids.get(0))))));
+		orderArchiver.archiveBelow(ids.get(1));
+		mvc.perform(get("/orders/{id}", ids.get(0)))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("orderForm",
+					hasProperty("items", contains(hasProperty("quantity", equalTo(2))))));
+		mvc.perform(get("/orders/{id}", ids.get(0)).param("edit", ""))
+			.andExpect(status().isNotFound());
+		mvc.perform(get("/orders").param("size", "1000").param("sort", "id,desc"))
+			.andExpect(model().attribute("orders",
+					not(hasItem(hasProperty("id", equalTo(ids.get(0)))))));
+	}
+
+	@Test
+	public void reportsKeepArchivedOrdersButNotDeletedOnes() throws Exception {
+		ProductId archived = new ProductId("archiver-tests-archived");
+		ProductId deleted = new ProductId("archiver-tests-deleted");
+		ProductId deletedInBatch = new ProductId("archiver-tests-deleted-in-batch");
+		Long archivedId = orderRepository.save(new Order()).getId();
+		orderRepository.incrementQuantity(archivedId, archived, 2);
+		Long deletedId = orderRepository.save(new Order()).getId();
+		orderRepository.incrementQuantity(deletedId, deleted, 3);
+		Long deletedInBatchId = orderRepository.save(new Order()).getId();
+		orderRepository.incrementQuantity(deletedInBatchId, deletedInBatch, 4);
+		orderLinesAnalytics.rebuild();
+		assertEquals(Long.valueOf(3), orderLinesAnalytics.topProductsByQuantity(0).get(deleted));
+		orderArchiver.archiveBelow(deletedId);
+		orderRepository.delete(orderRepository.findById(deletedId).get());
+		orderRepository.deleteAllByIdInBatch(Collections.singletonList(deletedInBatchId));
+		// Events are handled off this thread, in the order they were published
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		Map<ProductId, Long> report;
+		do {
+			Thread.sleep(10);
+			report = orderLinesAnalytics.topProductsByQuantity(0);
+		} while (report.containsKey(deletedInBatch) && System.nanoTime() - deadline < 0);
+		assertFalse(report.containsKey(deletedInBatch));
+		assertFalse(report.containsKey(deleted));
+		assertEquals(Long.valueOf(2), report.get(archived));
+	}
+
+	private List<Long> saveOrders(int count) {
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Long id = orderRepository.save(new Order()).getId();
+			orderRepository.incrementQuantity(id, new ProductId("xxx"), 2);
+			ids.add(id);
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,80 @@
+package domainobjectsmvc.infrastructure.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import domainobjectsmvc.infrastructure.persistence.ReadWriteRoutingDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ListPageCacheTests {
+
+	private final ListPageCache cache = new ListPageCache(100, 60_000, new SimpleMeterRegistry());
+
+	private final Pageable pageable = PageRequest.of(0, 20);
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	public void cachesPagesUntilInvalidated() throws Exception {
+		Page<String> page = cache.get("things", pageable, loader("a"));
+		assertSame(page, cache.get("things", pageable, loader("b")));
+		cache.get("others", pageable, loader("c"));
+		assertEquals(2, loads.get());
+		cache.invalidate("things");
+		assertEquals("b", cache.get("things", pageable, loader("b")).getContent().get(0));
+		assertEquals("c", cache.get("others", pageable, loader("d")).getContent().get(0));
+		assertEquals(3, loads.get());
+	}
+
+	@Test
+	public void loadsPagesFromThePrimary() throws Exception {
+		cache.get("things", pageable, () -> {
+			assertTrue(ReadWriteRoutingDataSource.isStuckToPrimary());
+			return loader("a").get();
+		});
+		assertEquals(1, loads.get());
+		assertFalse(ReadWriteRoutingDataSource.isStuckToPrimary());
+	}
+
+	@Test
+	public void expiresPagesAfterMaxAge() throws Exception {
+		ListPageCache expiring = new ListPageCache(100, 50, new SimpleMeterRegistry());
+		expiring.get("things", pageable, loader("a"));
+		assertEquals("a", expiring.get("things", pageable, loader("b")).getContent().get(0));
+		Thread.sleep(60);
+		assertEquals("b", expiring.get("things", pageable, loader("b")).getContent().get(0));
+		assertEquals("b", expiring.get("things", pageable, loader("c")).getContent().get(0));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void readsOfOwnWritesBypassTheCache() throws Exception {
+		cache.get("things", pageable, loader("a"));
+		ReadWriteRoutingDataSource.stickToPrimary();
+		try {
+			assertEquals("b", cache.get("things", pageable, loader("b")).getContent().get(0));
+			cache.get("others", pageable, loader("c"));
+		} finally {
+			ReadWriteRoutingDataSource.release();
+		}
+		assertEquals("a", cache.get("things", pageable, loader("d")).getContent().get(0));
+		assertEquals("d", cache.get("others", pageable, loader("d")).getContent().get(0));
+	}
+
+	private Supplier<Page<String>> loader(String content) {
+		return () -> {
+			loads.incrementAndGet();
+			return new PageImpl<>(Collections.singletonList(content), pageable, 1);
+		};
+	}
+
+}
@@ -0,0 +1,56 @@
+package domainobjectsmvc.infrastructure.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class OffHeapStoreTests {
+
+	private final OffHeapStore store = new OffHeapStore(40, 8);
+
+	@Test
+	public void valuesSpanBlocks() throws Exception {
+		byte[] value = bytes(19, 1);
+		assertTrue(store.put(1L, value));
+		assertTrue(store.put(2L, new byte[0]));
+		assertArrayEquals(value, store.get(1L));
+		assertArrayEquals(new byte[0], store.get(2L));
+		assertNull(store.get(3L));
+		assertEquals(19, store.usedBytes());
+		// Replaced
+		assertTrue(store.put(1L, bytes(3, 7)));
+		assertArrayEquals(bytes(3, 7), store.get(1L));
+		assertEquals(3, store.usedBytes());
+		assertTrue(store.remove(1L));
+		assertFalse(store.remove(1L));
+		assertEquals(0, store.usedBytes());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		store.put(1L, bytes(16, 1));
+		store.put(2L, bytes(8, 2));
+		store.put(3L, bytes(16, 3));
+		store.get(1L);
+		// Needs two more blocks, so 2 and then 3 are evicted
+		assertTrue(store.put(4L, bytes(9, 4)));
+		assertNull(store.get(2L));
+		assertNull(store.get(3L));
+		assertArrayEquals(bytes(16, 1), store.get(1L));
+		assertArrayEquals(bytes(9, 4), store.get(4L));
+		assertEquals(2, store.evictions());
+		// Larger than the store
+		assertFalse(store.put(1L, bytes(41, 1)));
+		assertNull(store.get(1L));
+		assertEquals(1, store.size());
+	}
+
+	private static byte[] bytes(int length, int value) {
+		byte[] bytes = new byte[length];
+		Arrays.fill(bytes, (byte) value);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,149 @@
+package domainobjectsmvc.infrastructure.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import domainobjectsmvc.domain.model.AggregateCodec;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.persistence.ReadWriteRoutingDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class OrderCacheTests {
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	// Up to 5 items on heap
+	private final OrderCache cache = new OrderCache(
+			new AggregateCodec(1024), 5, 4096, 64, 60_000, meterRegistry);
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	public void cachesDetachedCopyOfLoadedOrder() throws Exception {
+		Order loaded = order(1L, 3);
+		Order cached = cache.get(1L, loader(loaded)).get();
+		assertNotSame(loaded, cached);
+		assertEquals(Long.valueOf(1L), cached.getId());
+		assertEquals(3, cached.getItemCount());
+		assertEquals(3, cached.getItem(new ProductId("product-2")).get().getQuantity());
+		assertSame(cached, cache.get(1L, loader(loaded)).get());
+		assertEquals(1, loads.get());
+		assertEquals(1, gets("heap", "hit"), 0);
+		// Not found
+		assertFalse(cache.get(2L, () -> Optional.empty()).isPresent());
+	}
+
+	@Test
+	public void demotesLeastRecentlyUsedOrdersOffHeap() throws Exception {
+		cache.get(1L, loader(order(1L, 3)));
+		// Over the 5 items on heap, so order 1 is left only off heap
+		cache.get(2L, loader(order(2L, 3)));
+		assertEquals(Integer.valueOf(1), cache.sizes().get("heap"));
+		assertEquals(Integer.valueOf(2), cache.sizes().get("off-heap"));
+		Order order = cache.get(1L, loader(order(1L, 3))).get();
+		assertEquals(3, order.getItemCount());
+		assertEquals(2, loads.get());
+		assertEquals(1, gets("off-heap", "hit"), 0);
+		// Back on heap, in place of order 2
+		assertSame(order, cache.get(1L, loader(order(1L, 3))).get());
+		assertEquals(Integer.valueOf(1), cache.sizes().get("heap"));
+		// Too large for the heap
+		cache.get(3L, loader(order(3L, 6)));
+		assertEquals(Integer.valueOf(1), cache.sizes().get("heap"));
+		assertEquals(Integer.valueOf(3), cache.sizes().get("off-heap"));
+	}
+
+	@Test
+	public void invalidateRemovesFromBothTiers() throws Exception {
+		cache.get(1L, loader(order(1L, 3)));
+		cache.get(2L, loader(order(2L, 3)));
+		cache.invalidate(1L);
+		cache.invalidate(2L);
+		assertEquals(Integer.valueOf(0), cache.sizes().get("heap"));
+		assertEquals(Integer.valueOf(0), cache.sizes().get("off-heap"));
+		cache.get(1L, loader(order(1L, 3)));
+		assertEquals(3, loads.get());
+		cache.clear();
+		cache.get(1L, loader(order(1L, 3)));
+		assertEquals(4, loads.get());
+	}
+
+	@Test
+	public void doesNotCacheLoadThatRacedWithInvalidation() throws Exception {
+		Order loaded = order(1L, 3);
+		// As if the order was saved (and invalidated) while being loaded
+		Optional<Order> order = cache.get(1L, () -> {
+			cache.invalidate(1L);
+			return Optional.of(loaded);
+		});
+		assertEquals(3, order.get().getItemCount());
+		assertEquals(Integer.valueOf(0), cache.sizes().get("heap"));
+		assertEquals(Integer.valueOf(0), cache.sizes().get("off-heap"));
+		cache.get(1L, loader(loaded));
+		assertEquals(1, loads.get());
+		assertEquals(Integer.valueOf(1), cache.sizes().get("heap"));
+	}
+
+	@Test
+	public void expiresOrdersAfterMaxAge() throws Exception {
+		OrderCache expiring = new OrderCache(
+				new AggregateCodec(1024), 5, 4096, 64, 50, meterRegistry);
+		expiring.get(1L, loader(order(1L, 3)));
+		// Left only off heap
+		expiring.get(2L, loader(order(2L, 3)));
+		expiring.get(2L, loader(order(2L, 3)));
+		assertEquals(2, loads.get());
+		Thread.sleep(60);
+		assertEquals(4, expiring.get(1L, loader(order(1L, 4))).get().getItemCount());
+		assertEquals(4, expiring.get(2L, loader(order(2L, 4))).get().getItemCount());
+		assertEquals(4, loads.get());
+		assertEquals(4, expiring.get(1L, loader(order(1L, 5))).get().getItemCount());
+		assertEquals(4, loads.get());
+	}
+
+	@Test
+	public void readsOfOwnWritesBypassTheCache() throws Exception {
+		Order cached = cache.get(1L, loader(order(1L, 3))).get();
+		Order loaded = order(1L, 4);
+		ReadWriteRoutingDataSource.stickToPrimary();
+		try {
+			assertSame(loaded, cache.get(1L, loader(loaded)).get());
+			cache.get(2L, loader(order(2L, 1)));
+		} finally {
+			ReadWriteRoutingDataSource.release();
+		}
+		assertEquals(3, loads.get());
+		assertEquals(Integer.valueOf(1), cache.sizes().get("heap"));
+		assertSame(cached, cache.get(1L, loader(loaded)).get());
+	}
+
+	private Supplier<Optional<Order>> loader(Order order) {
+		return () -> {
+			loads.incrementAndGet();
+			return Optional.of(order);
+		};
+	}
+
+	private static Order order(Long id, int itemCount) {
+		Order order = new Order();
+		ReflectionTestUtils.setField(order, "id", id);
+		for (int i = 0; i < itemCount; i++) {
+			order.addItem(1 + i, new ProductId("product-" + i));
+		}
+		return order;
+	}
+
+	private double gets(String tier, String result) {
+		return meterRegistry.get("order.cache.gets")
+				.tag("tier", tier).tag("result", result).counter().count();
+	}
+
+}
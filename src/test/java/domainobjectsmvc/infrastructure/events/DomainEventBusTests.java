@@ -0,0 +1,153 @@
+package domainobjectsmvc.infrastructure.events;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import domainobjectsmvc.domain.model.DomainEvent;
+import domainobjectsmvc.infrastructure.events.DomainEventBus.Backpressure;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class DomainEventBusTests {
+
+	private static class Event extends DomainEvent {
+
+		final int number;
+
+		Event(int number) {
+			this.number = number;
+		}
+
+	}
+
+	/**
+	 * Records batches, and holds the consumer thread in the first one until
+	 * released.
+	 */
+	private static class HoldingHandler implements DomainEventHandler {
+
+		final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch holding = new CountDownLatch(1);
+		final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public void handle(List<DomainEvent> events) {
+			List<Integer> batch = new ArrayList<>();
+			events.forEach(event -> batch.add(((Event) event).number));
+			batches.add(batch);
+			holding.countDown();
+			try {
+				released.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		List<Integer> handled() {
+			List<Integer> handled = new ArrayList<>();
+			synchronized (batches) {
+				batches.forEach(handled::addAll);
+			}
+			return handled;
+		}
+
+	}
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final HoldingHandler handler = new HoldingHandler();
+
+	private DomainEventBus bus;
+
+	@After
+	public void tearDown() throws Exception {
+		handler.released.countDown();
+		bus.stop();
+	}
+
+	@Test
+	public void handlesEventsInBatchesInOrder() throws Exception {
+		handler.released.countDown();
+		bus = bus(8, 3, Backpressure.BLOCK, 100);
+		for (int i = 0; i < 7; i++) {
+			bus.publish(new Event(i));
+		}
+		// Started after publishing, so that the batches are full
+		bus.start();
+		bus.stop();
+		assertEquals(Arrays.asList(
+				Arrays.asList(0, 1, 2), Arrays.asList(3, 4, 5), Arrays.asList(6)),
+				handler.batches);
+		assertEquals(3, meterRegistry.summary("domain.events.batch.size").count());
+	}
+
+	@Test
+	public void blockWaitsForFreeSpace() throws Exception {
+		bus = fullBus(Backpressure.BLOCK, 10_000);
+		CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> bus.publish(new Event(3)));
+		Thread.sleep(100);
+		assertFalse(blocked.isDone());
+		handler.released.countDown();
+		blocked.get(10, TimeUnit.SECONDS);
+		bus.stop();
+		assertEquals(Arrays.asList(0, 1, 2, 3), handler.handled());
+		assertEquals(0, meterRegistry.counter("domain.events.dropped").count(), 0);
+	}
+
+	@Test
+	public void blockDropsAfterTimeout() throws Exception {
+		bus = fullBus(Backpressure.BLOCK, 50);
+		long start = System.nanoTime();
+		bus.publish(new Event(3));
+		assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50)));
+		handler.released.countDown();
+		bus.stop();
+		assertEquals(Arrays.asList(0, 1, 2), handler.handled());
+		assertEquals(1, meterRegistry.counter("domain.events.dropped").count(), 0);
+	}
+
+	@Test
+	public void dropDropsRightAway() throws Exception {
+		bus = fullBus(Backpressure.DROP, 10_000);
+		long start = System.nanoTime();
+		bus.publish(new Event(3));
+		assertThat(System.nanoTime() - start, lessThan(TimeUnit.SECONDS.toNanos(1)));
+		handler.released.countDown();
+		bus.stop();
+		assertEquals(Arrays.asList(0, 1, 2), handler.handled());
+		assertEquals(1, meterRegistry.counter("domain.events.dropped").count(), 0);
+		assertEquals(3, meterRegistry.counter("domain.events.published").count(), 0);
+	}
+
+	/**
+	 * A started bus with a buffer of two, whose consumer holds event 0, and
+	 * whose buffer holds events 1 and 2.
+	 */
+	private DomainEventBus fullBus(Backpressure backpressure, long blockTimeoutMillis)
+			throws InterruptedException {
+		DomainEventBus bus = bus(2, 1, backpressure, blockTimeoutMillis);
+		bus.start();
+		bus.publish(new Event(0));
+		assertTrue(handler.holding.await(10, TimeUnit.SECONDS));
+		bus.publish(new Event(1));
+		bus.publish(new Event(2));
+		return bus;
+	}
+
+	private DomainEventBus bus(int capacity, int batchSize,
+			Backpressure backpressure, long blockTimeoutMillis) {
+		return new DomainEventBus(capacity, 1, batchSize, backpressure, blockTimeoutMillis,
+				Collections.singletonList(handler), meterRegistry);
+	}
+
+}
@@ -0,0 +1,107 @@
+package domainobjectsmvc.infrastructure.events;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RingBufferTests {
+
+	private final RingBuffer<Integer> buffer = new RingBuffer<>(4);
+
+	@Test
+	public void wrapsAroundInOrder() throws Exception {
+		int next = 0;
+		int expected = 0;
+		for (int lap = 0; lap < 10; lap++) {
+			// Three in, two out, so positions drift across laps
+			for (int i = 0; i < 3 && buffer.offer(next); i++) {
+				next++;
+			}
+			for (int i = 0; i < 2; i++) {
+				Integer element = buffer.poll();
+				if (element != null) {
+					assertEquals(Integer.valueOf(expected++), element);
+				}
+			}
+		}
+		Integer element;
+		while ((element = buffer.poll()) != null) {
+			assertEquals(Integer.valueOf(expected++), element);
+		}
+		assertEquals(next, expected);
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void rejectsWhenFullAndReturnsNullWhenEmpty() throws Exception {
+		assertNull(buffer.poll());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertEquals(4, buffer.size());
+		assertEquals(Integer.valueOf(0), buffer.poll());
+		assertTrue(buffer.offer(4));
+		List<Integer> drained = new ArrayList<>();
+		assertEquals(3, buffer.drainTo(drained, 3));
+		assertEquals(1, buffer.drainTo(drained, 3));
+		assertEquals(0, buffer.drainTo(drained, 3));
+		assertEquals(Arrays.asList(1, 2, 3, 4), drained);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejectsCapacityThatIsNotAPowerOfTwo() throws Exception {
+		new RingBuffer<>(6);
+	}
+
+	@Test
+	public void concurrentProducersAndConsumersLoseNothing() throws Exception {
+		RingBuffer<Long> buffer = new RingBuffer<>(64);
+		int producers = 4;
+		long perProducer = 100_000;
+		ExecutorService executor = Executors.newFixedThreadPool(2 * producers);
+		try {
+			AtomicLong consumedSum = new AtomicLong();
+			AtomicLong consumedCount = new AtomicLong();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int p = 0; p < producers; p++) {
+				futures.add(executor.submit(() -> {
+					for (long i = 1; i <= perProducer; i++) {
+						while (!buffer.offer(i)) {
+							Thread.yield();
+						}
+					}
+				}));
+				futures.add(executor.submit(() -> {
+					while (consumedCount.get() < producers * perProducer) {
+						Long element = buffer.poll();
+						if (element == null) {
+							Thread.yield();
+						} else {
+							consumedSum.addAndGet(element);
+							consumedCount.incrementAndGet();
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+			assertEquals(producers * perProducer, consumedCount.get());
+			assertEquals(producers * perProducer * (perProducer + 1) / 2, consumedSum.get());
+			assertTrue(buffer.isEmpty());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package domainobjectsmvc.infrastructure.export;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderRepository;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.archive.OrderArchiver;
+import domainobjectsmvc.infrastructure.export.OrderExport.PartitionResult;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.export.orders.partitions-per-shard=4",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/order-export-tests-index"
+})
+public class OrderExportTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired
+	private OrderExport orderExport;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private OrderArchiver orderArchiver;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	public void exportsEveryOrderLineOnce() throws Exception {
+		saveOrders(20);
+		Path directory = folder.getRoot().toPath();
+		List<PartitionResult> results = orderExport.export(directory);
+		assertEquals(4, results.size());
+		List<String> rows = rows(directory);
+		assertEquals(results.stream().mapToLong(PartitionResult::getRows).sum(), rows.size());
+		assertEquals(expectedRows(), rows);
+		assertThat(rows, hasItem(endsWith(",,")));
+		assertThat(rows, hasItem(endsWith(",\"a,\"\"b\"\"\",3")));
+	}
+
+	@Test
+	public void exportsArchivedOrders() throws Exception {
+		saveOrders(10);
+		List<Long> ids = jdbcTemplate.queryForList(
+				"select id from orders order by id desc", Long.class);
+		// Archives all but the two most recent orders
+		orderArchiver.archiveBelow(ids.get(1));
+		assertThat(jdbcTemplate.queryForObject(
+				"select count(*) from order_items_archive", Integer.class), greaterThan(0));
+		Path directory = folder.getRoot().toPath();
+		orderExport.export(directory);
+		assertEquals(expectedRows(), rows(directory));
+		assertThat(rows(directory), hasItem(startsWith(ids.get(2) + ",")));
+	}
+
+	@Test
+	public void resumesIncompleteExport() throws Exception {
+		saveOrders(10);
+		Path directory = folder.getRoot().toPath();
+		orderExport.export(directory);
+		List<String> rows = rows(directory);
+		// As if interrupted while writing the second partition
+		Path second = directory.resolve("orders-0-0001.csv");
+		Files.move(second, directory.resolve("orders-0-0001.csv.part"));
+		saveOrders(5);
+		List<PartitionResult> results = orderExport.export(directory);
+		assertEquals(
+				results.stream().map(result -> result.getPartition().getIndex() != 1)
+					.collect(Collectors.toList()),
+				results.stream().map(PartitionResult::isSkipped)
+					.collect(Collectors.toList()));
+		// New orders are outside the recorded partitions
+		assertEquals(rows, rows(directory));
+		assertFalse(Files.exists(directory.resolve("orders-0-0001.csv.part")));
+	}
+
+	private void saveOrders(int count) {
+		for (int i = 0; i < count; i++) {
+			Long id = orderRepository.save(new Order()).getId();
+			if (i % 3 == 1) {
+				orderRepository.incrementQuantity(id, new ProductId("xxx"), i);
+				orderRepository.incrementQuantity(id, new ProductId("a,\"b\""), 3);
+			}
+		}
+	}
+
+	private List<String> expectedRows() {
+		return jdbcTemplate.query("select o.id, i.product_id, i.quantity"
+				+ " from orders o left join order_items i on i.order_id = o.id"
+				+ " union all select o.id, i.product_id, i.quantity"
+				+ " from orders_archive o left join order_items_archive i on i.order_id = o.id"
+				+ " order by 1, 2",
+				(rs, rowNum) -> rs.getLong(1) + "," + csv(rs.getString(2)) + ","
+						+ (rs.getObject(3) != null ? rs.getInt(3) : ""));
+	}
+
+	private static String csv(String value) {
+		if (value == null) {
+			return "";
+		}
+		return value.contains(",") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+	}
+
+	/**
+	 * @return the rows of the partition files, in order, without headers
+	 */
+	private static List<String> rows(Path directory) throws IOException {
+		List<String> rows = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : files.filter(file -> file.toString().endsWith(".csv")
+					&& file.getFileName().toString().startsWith("orders-"))
+					.sorted().collect(Collectors.toList())) {
+				List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+				assertEquals("order_id,product_id,quantity", lines.get(0));
+				rows.addAll(lines.subList(1, lines.size()));
+			}
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,38 @@
+package domainobjectsmvc.infrastructure.index;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import domainobjectsmvc.domain.model.Account;
+import domainobjectsmvc.domain.model.AccountRepository;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/account-name-filter-tests-index"
+})
+public class AccountNameFilterTests {
+
+	@Autowired
+	private AccountNameFilter nameFilter;
+
+	@Autowired
+	private AccountRepository accountRepository;
+
+	@Test
+	public void learnsCommittedNamesAndKeepsThemAcrossRebuilds() throws Exception {
+		assertFalse(nameFilter.mightContain("Filtered account"));
+		assertFalse(accountRepository.existsByName("Filtered account"));
+		accountRepository.save(new Account("Filtered account"));
+		assertTrue(nameFilter.mightContain("Filtered account"));
+		assertTrue(accountRepository.existsByName("Filtered account"));
+		nameFilter.rebuild();
+		assertTrue(nameFilter.mightContain("Filtered account"));
+		assertFalse(nameFilter.mightContain("Unsaved account"));
+	}
+
+}
@@ -0,0 +1,70 @@
+package domainobjectsmvc.infrastructure.index;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+public class AccountNameIndexTests {
+
+	// not initialized, so it does not need a database
+	private final AccountNameIndex index = new AccountNameIndex(null);
+
+	@Before
+	public void setUp() throws Exception {
+		index.add(3L, "Alice Smith");
+		index.add(1L, "Bob Smithers");
+		index.add(2L, "Carol");
+	}
+
+	@Test
+	public void findsFragmentsIgnoringCaseInIdOrder() throws Exception {
+		assertThat(index.search("SMITH", Pageable.unpaged()).getContent(), contains(1L, 3L));
+		assertThat(index.search("ers", Pageable.unpaged()).getContent(), contains(1L));
+		assertThat(index.search("smithy", Pageable.unpaged()).getContent(), empty());
+	}
+
+	@Test
+	public void scansForShortFragments() throws Exception {
+		assertThat(index.search("o", Pageable.unpaged()).getContent(), contains(1L, 2L));
+		assertThat(index.search("", Pageable.unpaged()).getContent(), contains(1L, 2L, 3L));
+	}
+
+	@Test
+	public void pagesMatches() throws Exception {
+		Page<Long> page = index.search("i", PageRequest.of(1, 1));
+		assertThat(page.getContent(), contains(3L));
+		assertEquals(2, page.getTotalElements());
+		assertThat(index.search("i", PageRequest.of(2, 1)).getContent(), empty());
+	}
+
+	@Test
+	public void sortsMatchesBeforePaging() throws Exception {
+		index.add(4L, "alice jones");
+		assertThat(index.search("i", PageRequest.of(0, 2, Sort.by("name"))).getContent(),
+				contains(4L, 3L));
+		assertThat(index.search("i", PageRequest.of(1, 2, Sort.by("name"))).getContent(),
+				contains(1L));
+		assertThat(index.search("i", PageRequest.of(0, 3, Sort.Direction.DESC, "id")).getContent(),
+				contains(4L, 3L, 1L));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejectsSortsByOtherProperties() throws Exception {
+		index.search("i", PageRequest.of(0, 2, Sort.by("version")));
+	}
+
+	@Test
+	public void forgetsRemovedNames() throws Exception {
+		index.remove(1L);
+		index.remove(42L);
+		assertThat(index.search("smith", Pageable.unpaged()).getContent(), contains(3L));
+		assertThat(index.search("ers", Pageable.unpaged()).getContent(), empty());
+	}
+
+}
@@ -0,0 +1,55 @@
+package domainobjectsmvc.infrastructure.index;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BloomFilterTests {
+
+	@Test
+	public void neverAnswersFalseForWhatWasPut() throws Exception {
+		BloomFilter filter = new BloomFilter(10_000, 0.01);
+		for (int i = 0; i < 10_000; i++) {
+			filter.put("name-" + i);
+		}
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(filter.mightContain("name-" + i));
+		}
+	}
+
+	@Test
+	public void falsePositivesStayNearTheConfiguredProbability() throws Exception {
+		BloomFilter filter = new BloomFilter(10_000, 0.01);
+		for (int i = 0; i < 10_000; i++) {
+			filter.put("name-" + i);
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 100_000; i++) {
+			if (filter.mightContain("other-" + i)) {
+				falsePositives++;
+			}
+		}
+		assertThat(falsePositives, lessThan(2_000));
+	}
+
+	@Test
+	public void emptyFilterContainsNothing() throws Exception {
+		BloomFilter filter = new BloomFilter(1, 0.5);
+		assertFalse(filter.mightContain(""));
+		assertFalse(filter.mightContain("name"));
+		filter.put("");
+		assertTrue(filter.mightContain(""));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejectsNoExpectedInsertions() throws Exception {
+		new BloomFilter(0, 0.01);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejectsCertainFalsePositives() throws Exception {
+		new BloomFilter(100, 1);
+	}
+
+}
@@ -0,0 +1,108 @@
+package domainobjectsmvc.infrastructure.index;
+
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.Arrays;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import domainobjectsmvc.domain.model.Product;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.domain.model.ProductRepository;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/product-catalog-index-tests-index"
+})
+@AutoConfigureMockMvc
+public class ProductCatalogIndexTests {
+
+	@Autowired
+	private ProductCatalogIndex catalogIndex;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Test
+	public void loadsCatalogAtStartup() throws Exception {
+		// Written behind Hibernate's back, as by another node
+		jdbcTemplate.update("insert into product (product_id) values (?)", "catalog-startup");
+		// A subclass, since Hibernate allows one listener per class
+		ProductCatalogIndex started = new ProductCatalogIndex(entityManagerFactory) {};
+		started.init();
+		// Before contains, which would query the miss
+		assertEquals(productRepository.count(), started.size());
+		assertTrue(started.contains(new ProductId("catalog-startup")));
+	}
+
+	@Test
+	public void checksMissesWithAQuery() throws Exception {
+		// Written behind Hibernate's back, as by another node
+		jdbcTemplate.update("insert into product (product_id) values (?)", "catalog-other-node");
+		int size = catalogIndex.size();
+		assertTrue(catalogIndex.contains(new ProductId("catalog-other-node")));
+		assertEquals(size + 1, catalogIndex.size());
+		assertFalse(catalogIndex.contains(new ProductId("catalog-missing")));
+		assertEquals(size + 1, catalogIndex.size());
+	}
+
+	@Test
+	public void addsCommittedInserts() throws Exception {
+		new TransactionTemplate(transactionManager).execute(status -> {
+			productRepository.save(new Product(new ProductId("catalog-rolled-back")));
+			status.setRollbackOnly();
+			return null;
+		});
+		assertFalse(catalogIndex.contains(new ProductId("catalog-rolled-back")));
+		productRepository.save(new Product(new ProductId("catalog-insert")));
+		assertTrue(catalogIndex.contains(new ProductId("catalog-insert")));
+	}
+
+	@Test
+	public void removesCommittedDeletes() throws Exception {
+		Product product = productRepository.save(new Product(new ProductId("catalog-delete")));
+		productRepository.save(new Product(new ProductId("catalog-batch-delete")));
+		assertTrue(catalogIndex.contains(new ProductId("catalog-delete")));
+		productRepository.delete(product);
+		assertFalse(catalogIndex.contains(new ProductId("catalog-delete")));
+		assertEquals(1, productRepository.deleteAllByIdInBatch(
+				Arrays.asList(new ProductId("catalog-batch-delete"))));
+		assertFalse(catalogIndex.contains(new ProductId("catalog-batch-delete")));
+	}
+
+	@Test
+	public void productsCreatedOverHttpAreOrderable() throws Exception {
+		mvc.perform(post("/products").param("id", "catalog-http"))
+			.andExpect(redirectedUrl("/products"));
+		assertTrue(catalogIndex.contains(new ProductId("catalog-http")));
+		mvc.perform(delete("/products/{id}", "catalog-http"))
+			.andExpect(redirectedUrl("/products"));
+		assertFalse(catalogIndex.contains(new ProductId("catalog-http")));
+	}
+
+}
@@ -0,0 +1,147 @@
+package domainobjectsmvc.infrastructure.load;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import domainobjectsmvc.domain.model.Product;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.domain.model.ProductRepository;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
+import domainobjectsmvc.infrastructure.load.OrderFileLoader.LoadResult;
+import domainobjectsmvc.infrastructure.load.OrderFileLoader.Rejection;
+
+/**
+ * Uses small batches and mapped windows, so that a file of a few lines
+ * needs several of each.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.load.orders.batch-size=3",
+		"app.load.orders.window-bytes=40",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/order-file-loader-tests-index"
+})
+public class OrderFileLoaderTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired
+	private OrderFileLoader orderFileLoader;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ListPageCache listPageCache;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() throws Exception {
+		for (String productId : Arrays.asList("load-x", "load-y", "load,\"z\"")) {
+			if (!productRepository.existsById(new ProductId(productId))) {
+				productRepository.save(new Product(new ProductId(productId)));
+			}
+		}
+	}
+
+	@Test
+	public void loadsOrdersAndRejectsInvalidLines() throws Exception {
+		long ordersBefore = countOrders();
+		Path file = folder.newFile("orders.csv").toPath();
+		Files.write(file, ("order_number,product_id,quantity\n"
+				+ "1,load-x,2\n"
+				+ "1,load-y,1\n"
+				+ "1,load-x,3\n"
+				+ "2,\"load,\"\"z\"\"\",4\n"
+				+ "2,load-unknown,1\n"
+				+ "2,load-x,0\n"
+				+ "3,,\n"
+				+ "x,load-x,1\n"
+				+ "4,load-x\n"
+				+ "5,load-x,-1\n"
+				+ "\n"
+				+ "6,load-y,7\r\n"
+				+ "6,load-y,1").getBytes(StandardCharsets.UTF_8));
+		LoadResult result = orderFileLoader.load(file);
+		assertEquals(14, result.getLines());
+		assertEquals(4, result.getOrders());
+		assertEquals(4, result.getItems());
+		assertEquals(5, result.getRejected());
+		assertEquals(Arrays.asList(6L, 7L, 9L, 10L, 11L), result.getRejections().stream()
+				.map(Rejection::getLineNumber).collect(Collectors.toList()));
+		assertThat(result.getRejections().get(0).getReason(), containsString("load-unknown"));
+		assertEquals(ordersBefore + 4, countOrders());
+		List<Map<String, Object>> items = jdbcTemplate.queryForList(
+				"select product_id, quantity from order_items"
+				+ " where product_id like 'load%' order by quantity");
+		assertEquals(Arrays.asList("load-y:1", "load,\"z\":4", "load-x:5", "load-y:8"),
+				items.stream().map(item -> item.get("product_id") + ":" + item.get("quantity"))
+					.collect(Collectors.toList()));
+	}
+
+	@Test
+	public void rejectsLineLongerThanWindow() throws Exception {
+		Path file = folder.newFile("orders.csv").toPath();
+		Files.write(file, "1,load-x,1\n1,load-xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx,1\n"
+				.getBytes(StandardCharsets.UTF_8));
+		try {
+			orderFileLoader.load(file);
+			fail();
+		} catch (IOException e) {
+			assertThat(e.getMessage(), containsString("Line 2"));
+		}
+	}
+
+	@Test
+	public void invalidatesCachedListPages() throws Exception {
+		Pageable pageable = PageRequest.of(0, 20);
+		AtomicInteger loads = new AtomicInteger();
+		Supplier<Page<Object>> loader = () -> {
+			loads.incrementAndGet();
+			return new PageImpl<>(Collections.emptyList(), pageable, 0);
+		};
+		listPageCache.get("orders", pageable, loader);
+		listPageCache.get("orders", pageable, loader);
+		assertEquals(1, loads.get());
+		Path file = folder.newFile("orders.csv").toPath();
+		// An order without items
+		Files.write(file, "1,,\n".getBytes(StandardCharsets.UTF_8));
+		assertEquals(1, orderFileLoader.load(file).getOrders());
+		listPageCache.get("orders", pageable, loader);
+		assertEquals(2, loads.get());
+	}
+
+	private long countOrders() {
+		return jdbcTemplate.queryForObject("select count(*) from orders", Long.class);
+	}
+
+}
@@ -0,0 +1,100 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class OptimisticLockRetryTests {
+
+	private final List<Long> sleeps = new ArrayList<>();
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final OptimisticLockRetry retry = new OptimisticLockRetry(4, 10, 25, 4, meterRegistry) {
+		@Override
+		protected void sleep(long millis) {
+			sleeps.add(millis);
+		}
+	};
+
+	@Test
+	public void retriesUntilNoConflict() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		String result = retry.execute("Entity", 1L, () -> {
+			if (attempts.incrementAndGet() < 3) {
+				throw conflict();
+			}
+			return "done";
+		});
+		assertEquals("done", result);
+		assertEquals(3, attempts.get());
+		assertEquals(2, sleeps.size());
+		assertThat(sleeps.get(0), lessThanOrEqualTo(10L));
+		assertThat(sleeps.get(1), lessThanOrEqualTo(20L));
+		assertEquals(Long.valueOf(2), retry.hottest("Entity", 10).get(1L));
+		assertEquals(3, meterRegistry.counter("optimistic.lock.attempts", "entity", "Entity").count(), 0);
+	}
+
+	@Test
+	public void givesUpAfterMaxAttemptsWithCappedBackoff() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		ObjectOptimisticLockingFailureException last = conflict();
+		try {
+			retry.execute("Entity", 1L, () -> {
+				attempts.incrementAndGet();
+				throw last;
+			});
+			fail("Expected the last conflict to be thrown");
+		} catch (ObjectOptimisticLockingFailureException e) {
+			assertSame(last, e);
+		}
+		assertEquals(4, attempts.get());
+		assertEquals(3, sleeps.size());
+		assertThat(sleeps, everyItem(lessThanOrEqualTo(25L)));
+		assertEquals(1, meterRegistry.timer("optimistic.lock.executions",
+				"entity", "Entity", "outcome", "exhausted").count());
+	}
+
+	@Test
+	public void doesNotRetryOtherFailures() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		try {
+			retry.execute("Entity", 1L, () -> {
+				attempts.incrementAndGet();
+				throw new IllegalStateException();
+			});
+			fail("Expected the failure to be thrown");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, attempts.get());
+		assertTrue(sleeps.isEmpty());
+		assertTrue(retry.hottest("Entity", 10).isEmpty());
+	}
+
+	@Test
+	public void tracksBoundedNumberOfIdsKeepingTheHottest() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			retry.recordConflict("Entity", 0L);
+		}
+		for (long id = 1; id <= 100; id++) {
+			retry.recordConflict("Entity", id);
+		}
+		assertThat(retry.hottest("Entity", Integer.MAX_VALUE).size(), lessThanOrEqualTo(4));
+		assertEquals(Long.valueOf(3), retry.hottest("Entity", 1).get(0L));
+		assertTrue(retry.hottest("Entity", 10).containsKey(100L));
+	}
+
+	private static ObjectOptimisticLockingFailureException conflict() {
+		return new ObjectOptimisticLockingFailureException(Object.class, 1L);
+	}
+
+}
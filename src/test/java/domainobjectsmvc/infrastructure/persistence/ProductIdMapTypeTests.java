@@ -0,0 +1,42 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.domain.model.ProductIdMap;
+
+public class ProductIdMapTypeTests {
+
+	private final ProductIdMapType type = new ProductIdMapType();
+
+	@Test
+	public void instantiatesProductIdMaps() throws Exception {
+		assertThat(type.instantiate(-1), instanceOf(ProductIdMap.class));
+		assertThat(type.instantiate(1_000), instanceOf(ProductIdMap.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void findsElementsByIdentity() throws Exception {
+		Map<ProductId, String> map = (Map<ProductId, String>) type.instantiate(2);
+		String a = new String("item");
+		String b = new String("item");
+		map.put(new ProductId("a"), a);
+		map.put(new ProductId("b"), b);
+		assertEquals(new ProductId("b"), type.indexOf(map, b));
+		assertNull(type.indexOf(map, new String("item")));
+		assertTrue(type.contains(map, a));
+		assertFalse(type.contains(map, "other"));
+		List<Object> elements = new ArrayList<>();
+		type.getElementsIterator(map).forEachRemaining(elements::add);
+		assertThat(elements, containsInAnyOrder(a, b));
+	}
+
+}
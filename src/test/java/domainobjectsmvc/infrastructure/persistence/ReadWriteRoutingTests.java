@@ -0,0 +1,154 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import domainobjectsmvc.domain.model.Account;
+import domainobjectsmvc.domain.model.AccountRepository;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderRepository;
+import domainobjectsmvc.domain.model.VersionedEntity;
+import domainobjectsmvc.domain.model.VersionedEntityRepository;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
+
+/**
+ * Uses two embedded HSQLDB databases. The replica gets a copy of the
+ * primary's schema, but no replication, so where a row was read from shows
+ * which database was used.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"spring.datasource.url=jdbc:hsqldb:mem:primary",
+		"app.datasource.replica.url=jdbc:hsqldb:mem:replica",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/read-write-routing-tests-index"
+})
+@AutoConfigureMockMvc
+public class ReadWriteRoutingTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private AccountRepository accountRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private ListPageCache listPageCache;
+
+	@Autowired
+	private VersionedEntityRepository entityRepository;
+
+	private JdbcTemplate primary;
+	private JdbcTemplate replica;
+
+	@Before
+	public void setUp() throws Exception {
+		primary = new JdbcTemplate(new DriverManagerDataSource(
+				"jdbc:hsqldb:mem:primary", "sa", ""));
+		replica = new JdbcTemplate(new DriverManagerDataSource(
+				"jdbc:hsqldb:mem:replica", "sa", ""));
+		if (replica.queryForObject(
+				"select count(*) from information_schema.tables"
+				+ " where table_schema = 'PUBLIC'", Integer.class) == 0) {
+			for (String statement : primary.queryForList("script", String.class)) {
+				if (statement.startsWith("CREATE MEMORY TABLE")
+						|| statement.startsWith("ALTER TABLE")
+						|| statement.startsWith("CREATE INDEX")) {
+					replica.execute(statement);
+				}
+			}
+		}
+		primary.update("delete from accounts");
+		replica.update("delete from accounts");
+		replica.update("insert into accounts (id, name) values (1000, 'replica-only')");
+		listPageCache.clear();
+	}
+
+	@Test
+	public void readOnlyTransactionsUseReplica() throws Exception {
+		accountRepository.save(new Account("primary-only"));
+		assertThat(names(accountRepository.findAll()), contains("replica-only"));
+		assertEquals(Integer.valueOf(1), primary.queryForObject(
+				"select count(*) from accounts where name = 'primary-only'", Integer.class));
+	}
+
+	@Test
+	public void stickToPrimary() throws Exception {
+		accountRepository.save(new Account("primary-only"));
+		ReadWriteRoutingDataSource.stickToPrimary();
+		try {
+			assertThat(names(accountRepository.findAll()), contains("primary-only"));
+		} finally {
+			ReadWriteRoutingDataSource.release();
+		}
+	}
+
+	@Test
+	public void primaryFindsUsePrimary() throws Exception {
+		Long id = orderRepository.save(new Order()).getId();
+		assertFalse(orderRepository.findById(id).isPresent());
+		assertTrue(orderRepository.findPrimaryById(id).isPresent());
+	}
+
+	@Test
+	public void versionChecksUsePrimary() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData("primary-only");
+		Long id = entityRepository.save(entity).getId();
+		assertFalse(entityRepository.findById(id).isPresent());
+		assertEquals(Optional.of(0), entityRepository.findVersionById(id));
+	}
+
+	@Test
+	public void readYourWritesAfterPost() throws Exception {
+		MvcResult result = mvc.perform(post("/accounts").param("name", "primary-only"))
+			.andExpect(redirectedUrl("/accounts"))
+			.andExpect(cookie().exists(ReadYourWritesFilter.COOKIE_NAME))
+			.andReturn();
+		Cookie cookie = result.getResponse().getCookie(ReadYourWritesFilter.COOKIE_NAME);
+		// Another client caches the page, as read from the primary
+		mvc.perform(get("/accounts"))
+			.andExpect(model().attribute("accounts",
+					contains(hasProperty("name", equalTo("primary-only")))));
+		// Written on another node, so the cached page is not invalidated
+		primary.update("insert into accounts (id, name) values (1001, 'other-node')");
+		mvc.perform(get("/accounts").cookie(cookie))
+			.andExpect(model().attribute("accounts", containsInAnyOrder(
+					hasProperty("name", equalTo("primary-only")),
+					hasProperty("name", equalTo("other-node")))));
+		// And what was read by the writer was not cached
+		mvc.perform(get("/accounts"))
+			.andExpect(model().attribute("accounts",
+					contains(hasProperty("name", equalTo("primary-only")))));
+	}
+
+	private static List<String> names(Iterable<Account> accounts) {
+		return ((List<Account>) accounts).stream()
+				.map(Account::getName)
+				.collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,140 @@
+package domainobjectsmvc.infrastructure.persistence;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightReadsTests {
+
+	private final SingleFlightReads reads = new SingleFlightReads(new SimpleMeterRegistry());
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentReadsShareOneRead() throws Exception {
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger readCount = new AtomicInteger();
+		StringBuilder read = new StringBuilder("entity");
+		Future<Optional<StringBuilder>> leader = executor.submit(() -> find(() -> {
+			readCount.incrementAndGet();
+			reading.countDown();
+			await(release);
+			return Optional.of(read);
+		}));
+		reading.await();
+		List<Future<Optional<StringBuilder>>> followers = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			followers.add(executor.submit(() -> find(() -> {
+				readCount.incrementAndGet();
+				return Optional.empty();
+			})));
+		}
+		awaitSharedReads(3);
+		release.countDown();
+		assertSame(read, leader.get().get());
+		for (Future<Optional<StringBuilder>> follower : followers) {
+			StringBuilder copy = follower.get().get();
+			assertNotSame(read, copy);
+			assertEquals("entity", copy.toString());
+		}
+		assertEquals(1, readCount.get());
+		// Once the read has landed, callers read for themselves
+		assertFalse(find(() -> {
+			readCount.incrementAndGet();
+			return Optional.empty();
+		}).isPresent());
+		assertEquals(2, readCount.get());
+	}
+
+	@Test
+	public void failuresAreShared() throws Exception {
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		IllegalStateException failure = new IllegalStateException();
+		Future<?> leader = executor.submit(() -> find(() -> {
+			reading.countDown();
+			await(release);
+			throw failure;
+		}));
+		reading.await();
+		Future<?> follower = executor.submit(() -> find(Optional::empty));
+		awaitSharedReads(1);
+		release.countDown();
+		for (Future<?> caller : new Future<?>[] { leader, follower }) {
+			try {
+				caller.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+	}
+
+	@Test
+	public void readsOfOwnWritesBypassFlights() throws Exception {
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<Optional<StringBuilder>> leader = executor.submit(() -> find(() -> {
+			reading.countDown();
+			await(release);
+			return Optional.of(new StringBuilder("replica"));
+		}));
+		reading.await();
+		ReadWriteRoutingDataSource.stickToPrimary();
+		try {
+			// Does not wait for the leader
+			assertEquals("primary", find(() -> Optional.of(new StringBuilder("primary")))
+					.get().toString());
+		} finally {
+			ReadWriteRoutingDataSource.release();
+		}
+		release.countDown();
+		assertEquals("replica", leader.get().get().toString());
+		assertEquals(0, reads.sharedReads("Entity"));
+	}
+
+	private Optional<StringBuilder> find(Supplier<Optional<StringBuilder>> read) {
+		return reads.findById("Entity", 1L, read,
+				entity -> entity.toString().getBytes(StandardCharsets.UTF_8),
+				bytes -> new StringBuilder(new String(bytes, StandardCharsets.UTF_8)));
+	}
+
+	private void awaitSharedReads(long count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (reads.sharedReads("Entity") < count) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package domainobjectsmvc.infrastructure.search;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.file.Paths;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import domainobjectsmvc.domain.model.VersionedEntity;
+import domainobjectsmvc.domain.model.VersionedEntityRepository;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/versioned-entity-index-tests-index",
+		// nothing commits but the tests
+		"app.search.versioned-entities.commit-interval-millis=3600000"
+})
+public class VersionedEntityIndexTests {
+
+	@Autowired
+	private VersionedEntityIndex index;
+
+	@Autowired
+	private VersionedEntityRepository entityRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Value("${app.search.versioned-entities.index-dir}")
+	private String indexDirectory;
+
+	@Test
+	public void searchesSeeCommittedWrites() throws Exception {
+		Long id = save("quokka sightings");
+		assertThat(index.search("quokka", Pageable.unpaged()).getContent(),
+				contains(hasProperty("id", equalTo(id))));
+		entityRepository.updateData(id, 0, "wombat sightings");
+		assertThat(index.search("quokka", Pageable.unpaged()).getContent(), empty());
+		assertThat(index.search("wombat", Pageable.unpaged()).getContent(),
+				contains(hasProperty("version", equalTo(1))));
+		entityRepository.deleteById(id);
+		assertThat(index.search("wombat", Pageable.unpaged()).getContent(), empty());
+	}
+
+	@Test
+	public void searchesDoNotRepairButRepairDoes() throws Exception {
+		// the database may be shared with other tests' contexts (and indexes)
+		index.repair();
+		Long deleted = save("platypus deleted behind the index's back");
+		Long changed = save("platypus changed behind the index's back");
+		Long missing = save("echidna");
+		jdbcTemplate.update("delete from versioned_entities where id = ?", deleted);
+		jdbcTemplate.update("update versioned_entities set data = 'numbat', version = 7"
+				+ " where id = ?", changed);
+		index.delete(missing);
+
+		assertEquals(1, entityRepository.search("platypus", Pageable.unpaged()).getNumberOfElements());
+		assertEquals(2, index.search("platypus", Pageable.unpaged()).getTotalElements());
+
+		assertEquals(3, index.repair());
+		assertThat(index.search("platypus", Pageable.unpaged()).getContent(), empty());
+		assertThat(index.search("numbat", Pageable.unpaged()).getContent(),
+				contains(hasProperty("version", equalTo(7))));
+		assertThat(index.search("echidna", Pageable.unpaged()).getContent(),
+				contains(hasProperty("id", equalTo(missing))));
+		assertEquals(0, index.repair());
+	}
+
+	@Test
+	public void lastWritesAreCommittedWithoutFurtherWrites() throws Exception {
+		index.commitIfDirty();
+		save("kookaburra");
+		assertEquals(0, committedCount("kookaburra"));
+		index.commitIfDirty();
+		assertEquals(1, committedCount("kookaburra"));
+	}
+
+	private int committedCount(String word) throws Exception {
+		try (DirectoryReader reader = DirectoryReader.open(
+				FSDirectory.open(Paths.get(indexDirectory)))) {
+			return new IndexSearcher(reader).count(new TermQuery(new Term("data", word)));
+		}
+	}
+
+	private Long save(String data) {
+		VersionedEntity entity = new VersionedEntity();
+		entity.setData(data);
+		return entityRepository.save(entity).getId();
+	}
+
+}
@@ -0,0 +1,38 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import domainobjectsmvc.domain.model.ArchivedOrderRepository;
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderRepository;
+
+public class OrderShardingInterceptorTests {
+
+	interface OrderRepositoryWithFinder extends OrderRepository {
+
+		List<Order> findByCustomer(String customer);
+
+	}
+
+	@Test
+	public void orderRepositoriesAreFullyRouted() throws Exception {
+		OrderShardingInterceptor.checkRouted(OrderRepository.class);
+		OrderShardingInterceptor.checkRouted(ArchivedOrderRepository.class);
+	}
+
+	@Test
+	public void unroutedFindersFailEarly() throws Exception {
+		try {
+			OrderShardingInterceptor.checkRouted(OrderRepositoryWithFinder.class);
+			fail("Expected the finder not to be routed");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), containsString("findByCustomer"));
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package domainobjectsmvc.infrastructure.sharding;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import domainobjectsmvc.domain.model.Order;
+import domainobjectsmvc.domain.model.OrderRepository;
+import domainobjectsmvc.domain.model.ProductId;
+
+/**
+ * Uses three embedded HSQLDB databases as order shards.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties={
+		"spring.datasource.url=jdbc:hsqldb:mem:orders-shard0",
+		"app.sharding.orders.urls=jdbc:hsqldb:mem:orders-shard1,jdbc:hsqldb:mem:orders-shard2",
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/order-sharding-tests-index"
+})
+@AutoConfigureMockMvc
+public class OrderShardingTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	private final OrderShards orderShards = new OrderShards(3);
+
+	private List<JdbcTemplate> shards;
+
+	@Before
+	public void setUp() throws Exception {
+		shards = new ArrayList<>();
+		for (int shard = 0; shard < 3; shard++) {
+			shards.add(new JdbcTemplate(new DriverManagerDataSource(
+					"jdbc:hsqldb:mem:orders-shard" + shard, "sa", "")));
+		}
+		for (JdbcTemplate shard : shards) {
+			shard.update("delete from order_items");
+			shard.update("delete from orders");
+		}
+	}
+
+	@Test
+	public void ordersAreSpreadOverShardsById() throws Exception {
+		List<Long> ids = saveOrders(30);
+		int total = 0;
+		for (int shard = 0; shard < 3; shard++) {
+			List<Long> shardIds = shards.get(shard).queryForList(
+					"select id from orders order by id", Long.class);
+			assertThat(shardIds, not(empty()));
+			for (Long id : shardIds) {
+				assertEquals(shard, orderShards.shardOf(id));
+			}
+			total += shardIds.size();
+		}
+		assertEquals(30, total);
+		for (Long id : ids) {
+			assertTrue(orderRepository.findById(id).isPresent());
+		}
+		assertEquals(30, orderRepository.count());
+	}
+
+	@Test
+	public void itemsAreColocatedWithTheirOrder() throws Exception {
+		List<Long> ids = saveOrders(10);
+		for (Long id : ids) {
+			assertEquals(1, orderRepository.incrementQuantity(id, new ProductId("xxx"), 2));
+		}
+		for (Long id : ids) {
+			assertEquals(Integer.valueOf(1), shards.get(orderShards.shardOf(id)).queryForObject(
+					"select count(*) from order_items i join orders o on o.id = i.order_id"
+					+ " where o.id = ?", Integer.class, id));
+		}
+	}
+
+	@Test
+	public void findAllMergesShardsBySortKey() throws Exception {
+		List<Long> ids = saveOrders(7);
+		ids.sort(null);
+		Page<Order> page = orderRepository.findAll(PageRequest.of(1, 3, Sort.by("id")));
+		assertEquals(7, page.getTotalElements());
+		assertEquals(ids.subList(3, 6), ids(page.getContent()));
+		page = orderRepository.findAll(PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "id")));
+		assertEquals(Arrays.asList(ids.get(6), ids.get(5)), ids(page.getContent()));
+	}
+
+	@Test
+	public void batchOperationsAreSplitByShard() throws Exception {
+		List<Long> ids = saveOrders(5);
+		assertThat(ids(orderRepository.findAllById(ids)), containsInAnyOrder(ids.toArray()));
+		assertEquals(3, orderRepository.deleteAllByIdInBatch(ids.subList(0, 3)));
+		assertEquals(2, orderRepository.count());
+	}
+
+	@Test
+	public void editLoadsItemsFromTheOrdersShard() throws Exception {
+		List<Long> ids = saveOrders(10);
+		// An order that is not on shard 0 (the default)
+		Long id = ids.stream().filter(i -> orderShards.shardOf(i) != 0).findFirst().get();
+		orderRepository.incrementQuantity(id, new ProductId("xxx"), 2);
+		mvc.perform(get("/orders/{id}", id).param("edit", ""))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("orderForm",
+					hasProperty("items", contains(hasProperty("quantity", equalTo(2))))));
+	}
+
+	private List<Long> saveOrders(int count) {
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ids.add(orderRepository.save(new Order()).getId());
+		}
+		return ids;
+	}
+
+	private static List<Long> ids(List<Order> orders) {
+		return orders.stream().map(Order::getId).collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,82 @@
+package domainobjectsmvc.infrastructure.startup;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment=SpringBootTest.WebEnvironment.RANDOM_PORT, properties={
+		"app.search.versioned-entities.index-dir=${java.io.tmpdir}/domain-objects-mvc/warm-up-tests-index",
+		"app.warm-up.time-budget-millis=5000"
+})
+@Import(WarmUpTests.WarmUpTestsController.class)
+public class WarmUpTests {
+
+	@Autowired
+	private WarmUp warmUp;
+
+	@LocalServerPort
+	private int port;
+
+	@Test
+	public void warmsHandlersUpUntilTheyFail() throws Exception {
+		Map<String, Object> details = warmUp.health().getDetails();
+		assertEquals("done", details.get("state"));
+		assertThat((Integer) details.get("failedUrls"), greaterThanOrEqualTo(1));
+		assertThat((Integer) details.get("rounds"), greaterThanOrEqualTo(1));
+		assertEquals(1, WarmUpTestsController.failing.get());
+		assertThat(WarmUpTestsController.working.get(), greaterThan(1));
+	}
+
+	@Test
+	public void requestsHandlersThatNeedNoParameters() throws Exception {
+		String baseUrl = "http://localhost:" + port;
+		List<String> urls = warmUp.requests(Collections.singletonMap(
+				"/versioned-entities", Arrays.asList(7L)));
+		assertThat(urls, hasItems(
+				baseUrl + "/versioned-entities/7",
+				baseUrl + "/versioned-entities/7/data",
+				baseUrl + "/reports/top-products",
+				baseUrl + "/warm-up-tests/working"));
+		// Neither ?create, ?edit nor ?ids, and no path variables without IDs
+		for (String url : urls) {
+			assertThat(url, not(containsString("?")));
+			assertThat(url, not(containsString("{")));
+		}
+	}
+
+	@RestController
+	static class WarmUpTestsController {
+
+		static final AtomicInteger working = new AtomicInteger();
+		static final AtomicInteger failing = new AtomicInteger();
+
+		@GetMapping("/warm-up-tests/working")
+		public String working() {
+			return String.valueOf(working.incrementAndGet());
+		}
+
+		@GetMapping("/warm-up-tests/failing")
+		public String failing() {
+			failing.incrementAndGet();
+			throw new IllegalStateException("Failing on purpose");
+		}
+
+	}
+
+}
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -19,6 +20,8 @@ import org.mockito.AdditionalAnswers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -28,11 +31,13 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import domainobjectsmvc.domain.model.Account;
 import domainobjectsmvc.domain.model.AccountRepository;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
 
 @SuppressWarnings("unused")
 @RunWith(SpringRunner.class)
 @WebMvcTest(AccountsController.class)
 @EnableSpringDataWebSupport
+@Import(ListPageCache.class)
 public class AccountsControllerTests {
 
 	@Autowired
@@ -41,11 +46,15 @@ public class AccountsControllerTests {
 	@MockBean
 	private AccountRepository accountRepository;
 
+	@Autowired
+	private ListPageCache listPageCache;
+
 	private Long id;
 
 	@Before
 	public void setUp() throws Exception {
 		this.id = 123L;
+		listPageCache.clear();
 	}
 
 	@After
@@ -66,6 +75,42 @@ public class AccountsControllerTests {
 			.andExpect(view().name("accounts/list"));
 	}
 
+	@Test
+	public void listIsCachedUntilSave() throws Exception {
+		Page<Account> accountsPage = new PageImpl<>(new LinkedList<>());
+		when(accountRepository.findAll(any(Pageable.class)))
+			.thenReturn(accountsPage);
+		when(accountRepository.save(any(Account.class)))
+			.then(AdditionalAnswers.returnsFirstArg());
+		mvc.perform(get("/accounts"))
+			.andExpect(model().attribute("accountsPage", is(accountsPage)));
+		mvc.perform(get("/accounts"))
+			.andExpect(model().attribute("accountsPage", is(accountsPage)));
+		verify(accountRepository, times(1)).findAll(any(Pageable.class));
+		mvc.perform(get("/accounts").param("page", "1"));
+		verify(accountRepository, times(2)).findAll(any(Pageable.class));
+		mvc.perform(post("/accounts").param("name", "test"))
+			.andExpect(redirectedUrl("/accounts"));
+		mvc.perform(get("/accounts"));
+		verify(accountRepository, times(3)).findAll(any(Pageable.class));
+	}
+
+	@Test
+	public void listWithSearch() throws Exception {
+		List<Account> accounts = new LinkedList<>();
+		accounts.add(new Account("test"));
+		Page<Account> accountsPage = new PageImpl<>(accounts);
+		when(accountRepository.searchByName(eq("es"), any(Pageable.class)))
+			.thenReturn(accountsPage);
+		mvc.perform(get("/accounts").param("search", "es"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("accountsPage", is(accountsPage)))
+			.andExpect(model().attribute("accounts", is(accounts)))
+			.andExpect(view().name("accounts/list"));
+		verify(accountRepository).searchByName(eq("es"), any(Pageable.class));
+		verify(accountRepository, times(0)).findAll(any(Pageable.class));
+	}
+
 	@Test
 	public void show() throws Exception {
 		Account account = new Account("test");
@@ -152,6 +197,30 @@ public class AccountsControllerTests {
 		verify(accountRepository).save(any(Account.class));
 	}
 
+	@Test
+	public void saveDuplicate() throws Exception {
+		when(accountRepository.existsByName("test"))
+			.thenReturn(true);
+		mvc.perform(post("/accounts")
+				.param("name", "test"))
+			.andExpect(status().isOk())
+			.andExpect(model().attributeHasFieldErrors("account", "name"))
+			.andExpect(view().name("accounts/edit"));
+		verify(accountRepository).existsByName(eq("test"));
+		verify(accountRepository, times(0)).save(any(Account.class));
+	}
+
+	@Test
+	public void saveDuplicateSavedConcurrently() throws Exception {
+		when(accountRepository.save(any(Account.class)))
+			.thenThrow(new DataIntegrityViolationException("accounts_name_idx"));
+		mvc.perform(post("/accounts")
+				.param("name", "test"))
+			.andExpect(status().isOk())
+			.andExpect(model().attributeHasFieldErrorCode("account", "name", "error.duplicate"))
+			.andExpect(view().name("accounts/edit"));
+	}
+
 	/*
 	@Test
 	public void saveWithErrors() throws Exception {
@@ -181,4 +250,28 @@ public class AccountsControllerTests {
 		verify(accountRepository).findById(eq(id));
 	}
 
+	@Test
+	public void listByIds() throws Exception {
+		List<Account> accounts = new LinkedList<>();
+		when(accountRepository.findAllById(Arrays.asList(1L, 2L, 3L)))
+			.thenReturn(accounts);
+		mvc.perform(get("/accounts").param("ids", "1,2,3"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("accounts", is(accounts)))
+			.andExpect(view().name("accounts/list"));
+		verify(accountRepository).findAllById(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(accountRepository, times(0)).findAll(any(Pageable.class));
+	}
+
+	@Test
+	public void batchDelete() throws Exception {
+		mvc.perform(post("/accounts")
+				.param("batchDelete", "")
+				.param("ids", "1,2,3"))
+			.andExpect(redirectedUrl("/accounts"));
+		verify(accountRepository).deleteAllByIdInBatch(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(accountRepository, times(0)).findById(anyLong());
+		verify(accountRepository, times(0)).save(any(Account.class));
+	}
+
 }
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -19,6 +20,7 @@ import org.mockito.AdditionalAnswers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -30,11 +32,13 @@ import domainobjectsmvc.domain.model.Account;
 import domainobjectsmvc.domain.model.AccountRepository;
 import domainobjectsmvc.domain.model.GeneratedIdEntity;
 import domainobjectsmvc.domain.model.GeneratedIdEntityRepository;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
 
 @SuppressWarnings("unused")
 @RunWith(SpringRunner.class)
 @WebMvcTest(GeneratedIdEntitiesController.class)
 @EnableSpringDataWebSupport
+@Import(ListPageCache.class)
 public class GeneratedIdEntitiesControllerTests {
 
 	@Autowired
@@ -43,11 +47,15 @@ public class GeneratedIdEntitiesControllerTests {
 	@MockBean
 	private GeneratedIdEntityRepository entityRepository;
 
+	@Autowired
+	private ListPageCache listPageCache;
+
 	private Long id;
 
 	@Before
 	public void setUp() throws Exception {
 		this.id = 123L;
+		listPageCache.clear();
 	}
 
 	@After
@@ -180,4 +188,28 @@ public class GeneratedIdEntitiesControllerTests {
 		verify(entityRepository).findById(eq(id));
 	}
 
+	@Test
+	public void listByIds() throws Exception {
+		List<GeneratedIdEntity> entities = new LinkedList<>();
+		when(entityRepository.findAllById(Arrays.asList(1L, 2L, 3L)))
+			.thenReturn(entities);
+		mvc.perform(get("/entities").param("ids", "1,2,3"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("entities", is(entities)))
+			.andExpect(view().name("entities/list"));
+		verify(entityRepository).findAllById(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(entityRepository, times(0)).findAll(any(Pageable.class));
+	}
+
+	@Test
+	public void batchDelete() throws Exception {
+		mvc.perform(post("/entities")
+				.param("batchDelete", "")
+				.param("ids", "1,2,3"))
+			.andExpect(redirectedUrl("/entities"));
+		verify(entityRepository).deleteAllByIdInBatch(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(entityRepository, times(0)).findById(anyLong());
+		verify(entityRepository, times(0)).save(any(GeneratedIdEntity.class));
+	}
+
 }
@@ -13,6 +13,7 @@ import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -26,6 +27,7 @@ import org.mockito.AdditionalAnswers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -36,16 +38,25 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import domainobjectsmvc.domain.model.Account;
 import domainobjectsmvc.domain.model.AccountRepository;
+import domainobjectsmvc.domain.model.ArchivedOrder;
+import domainobjectsmvc.domain.model.ArchivedOrderRepository;
 import domainobjectsmvc.domain.model.Order;
 import domainobjectsmvc.domain.model.OrderRepository;
 import domainobjectsmvc.domain.model.ProductId;
 import domainobjectsmvc.domain.model.GeneratedIdEntity;
 import domainobjectsmvc.domain.model.GeneratedIdEntityRepository;
+import domainobjectsmvc.infrastructure.cache.ListPageCache;
+import domainobjectsmvc.infrastructure.cache.OrderCache;
+import domainobjectsmvc.infrastructure.codec.CodecConfiguration;
+import domainobjectsmvc.infrastructure.index.ProductCatalogIndex;
+import domainobjectsmvc.infrastructure.persistence.SingleFlightReads;
 
 @SuppressWarnings("unused")
 @RunWith(SpringRunner.class)
 @WebMvcTest(OrdersController.class)
 @EnableSpringDataWebSupport
+@Import({ ListPageCache.class, OrderCache.class, CodecConfiguration.class,
+		SingleFlightReads.class })
 public class OrdersControllerTests {
 
 	@Autowired
@@ -54,11 +65,26 @@ public class OrdersControllerTests {
 	@MockBean
 	private OrderRepository orderRepository;
 
+	@MockBean
+	private ArchivedOrderRepository archivedOrderRepository;
+
+	@MockBean
+	private ProductCatalogIndex productCatalog;
+
+	@Autowired
+	private ListPageCache listPageCache;
+
+	@Autowired
+	private OrderCache orderCache;
+
 	private Long id;
 
 	@Before
 	public void setUp() throws Exception {
 		this.id = 123L;
+		listPageCache.clear();
+		orderCache.clear();
+		when(productCatalog.contains(any(ProductId.class))).thenReturn(true);
 	}
 
 	@After
@@ -83,7 +109,7 @@ public class OrdersControllerTests {
 	@Test
 	public void show() throws Exception {
 		Order order = new Order();
-		when(orderRepository.findById(id))
+		when(orderRepository.findPrimaryById(id))
 			.thenReturn(Optional.of(order));
 		OrderForm orderForm = OrderForm.fromDomainEntity(order);
 		mvc.perform(get("/orders/{id}", id))
@@ -91,38 +117,92 @@ public class OrdersControllerTests {
 			.andExpect(model().attribute(
 					"orderForm", is(orderForm)))
 			.andExpect(view().name("orders/show"));
-		verify(orderRepository).findById(eq(id));
+		verify(orderRepository).findPrimaryById(eq(id));
 	}
 
 	@Test
-	public void showNotFound() throws Exception {
+	public void showCachedUntilUpdated() throws Exception {
+		Order order = new Order();
+		order.addItem(2, new ProductId("xxx"));
+		when(orderRepository.findPrimaryById(id))
+			.thenReturn(Optional.of(order));
 		when(orderRepository.findById(id))
+			.thenReturn(Optional.of(order));
+		for (int i = 0; i < 2; i++) {
+			mvc.perform(get("/orders/{id}", id))
+				.andExpect(status().isOk())
+				.andExpect(model().attribute("orderForm", hasProperty("items",
+						Matchers.contains(hasProperty("quantity", equalTo(2))))));
+		}
+		verify(orderRepository, times(1)).findPrimaryById(eq(id));
+		mvc.perform(put("/orders/{id}", id)
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.param("items[0].productId", "xxx")
+				.param("items[0].quantity", "3"))
+			.andExpect(redirectedUrl("/orders"));
+		mvc.perform(get("/orders/{id}", id))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("orderForm", hasProperty("items",
+					Matchers.contains(hasProperty("quantity", equalTo(5))))));
+		verify(orderRepository, times(2)).findPrimaryById(eq(id));
+		verify(orderRepository, times(1)).findById(eq(id));
+	}
+
+	@Test
+	public void showNotFound() throws Exception {
+		when(orderRepository.findPrimaryById(id))
 			.thenReturn(Optional.empty());
 		mvc.perform(get("/orders/{id}", id))
 			.andExpect(status().isNotFound());
-		verify(orderRepository).findById(eq(id));
+		verify(orderRepository).findPrimaryById(eq(id));
+		verify(archivedOrderRepository).findById(eq(id));
+	}
+
+	@Test
+	public void showArchived() throws Exception {
+		Order order = new Order();
+		ArchivedOrder archivedOrder = mock(ArchivedOrder.class);
+		when(archivedOrder.toOrder()).thenReturn(order);
+		when(orderRepository.findPrimaryById(id))
+			.thenReturn(Optional.empty());
+		when(archivedOrderRepository.findById(id))
+			.thenReturn(Optional.of(archivedOrder));
+		mvc.perform(get("/orders/{id}", id))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute(
+					"orderForm", is(OrderForm.fromDomainEntity(order))))
+			.andExpect(view().name("orders/show"));
+	}
+
+	@Test
+	public void editArchived() throws Exception {
+		when(orderRepository.findPrimaryById(id))
+			.thenReturn(Optional.empty());
+		mvc.perform(get("/orders/{id}", id).param("edit", ""))
+			.andExpect(status().isNotFound());
+		verify(archivedOrderRepository, never()).findById(any());
 	}
 
 	@Test
 	public void edit() throws Exception {
 		Order order = new Order();
-		when(orderRepository.findById(id))
+		when(orderRepository.findPrimaryById(id))
 			.thenReturn(Optional.of(order));
 		OrderForm orderForm = OrderForm.fromDomainEntity(order);
 		mvc.perform(get("/orders/{id}", id).param("edit", ""))
 			.andExpect(status().isOk())
 			.andExpect(model().attribute("orderForm", is(orderForm)))
 			.andExpect(view().name("orders/edit"));
-		verify(orderRepository).findById(eq(id));
+		verify(orderRepository).findPrimaryById(eq(id));
 	}
 
 	@Test
 	public void editNotFound() throws Exception {
-		when(orderRepository.findById(id))
+		when(orderRepository.findPrimaryById(id))
 			.thenReturn(Optional.empty());
 		mvc.perform(get("/orders/{id}", id).param("edit", ""))
 			.andExpect(status().isNotFound());
-		verify(orderRepository).findById(eq(id));
+		verify(orderRepository).findPrimaryById(eq(id));
 	}
 
 	@Test
@@ -171,6 +251,26 @@ public class OrdersControllerTests {
 		verify(orderRepository).findById(eq(id));
 	}
 
+	@Test
+	public void updateWithUnknownProduct() throws Exception {
+		Order order = new Order();
+		when(orderRepository.findById(id))
+			.thenReturn(Optional.of(order));
+		when(productCatalog.contains(new ProductId("yyy"))).thenReturn(false);
+		mvc.perform(put("/orders/{id}", id)
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.param("items[0].productId", "xxx")
+				.param("items[0].quantity", "3")
+				.param("items[1].productId", "yyy")
+				.param("items[1].quantity", "2"))
+			.andExpect(status().isOk())
+			.andExpect(model().attributeHasFieldErrors("orderForm", "items[1].productId"))
+			.andExpect(model().attributeErrorCount("orderForm", 1))
+			.andExpect(view().name("orders/edit"));
+		verify(productCatalog, times(2)).contains(any(ProductId.class));
+		verify(orderRepository, never()).save(any(Order.class));
+	}
+
 	@Test
 	public void create() throws Exception {
 		mvc.perform(get("/orders").param("create", ""))
@@ -217,4 +317,73 @@ public class OrdersControllerTests {
 		verify(orderRepository).findById(eq(id));
 	}
 
+	@Test
+	public void addItem() throws Exception {
+		when(orderRepository.incrementQuantity(id, new ProductId("xxx"), 3))
+			.thenReturn(1);
+		mvc.perform(post("/orders/{id}/items", id)
+				.param("productId", "xxx")
+				.param("quantity", "3"))
+			.andExpect(redirectedUrl("/orders/" + id));
+		verify(orderRepository).incrementQuantity(
+				eq(id), eq(new ProductId("xxx")), eq(3));
+		verify(orderRepository, never()).findById(anyLong());
+	}
+
+	@Test
+	public void addItemNotFound() throws Exception {
+		when(orderRepository.incrementQuantity(id, new ProductId("xxx"), 3))
+			.thenReturn(0);
+		mvc.perform(post("/orders/{id}/items", id)
+				.param("productId", "xxx")
+				.param("quantity", "3"))
+			.andExpect(status().isNotFound());
+		verify(orderRepository, never()).findById(anyLong());
+	}
+
+	@Test
+	public void addItemWithUnknownProduct() throws Exception {
+		when(productCatalog.contains(new ProductId("xxx"))).thenReturn(false);
+		mvc.perform(post("/orders/{id}/items", id)
+				.param("productId", "xxx")
+				.param("quantity", "3"))
+			.andExpect(status().isBadRequest());
+		verify(orderRepository, never()).incrementQuantity(
+				anyLong(), any(ProductId.class), anyInt());
+	}
+
+	@Test
+	public void addItemWithInvalidQuantity() throws Exception {
+		mvc.perform(post("/orders/{id}/items", id)
+				.param("productId", "xxx")
+				.param("quantity", "0"))
+			.andExpect(status().isBadRequest());
+		verify(orderRepository, never()).incrementQuantity(
+				anyLong(), any(ProductId.class), anyInt());
+	}
+
+	@Test
+	public void listByIds() throws Exception {
+		List<Order> orders = new LinkedList<>();
+		when(orderRepository.findAllById(Arrays.asList(1L, 2L, 3L)))
+			.thenReturn(orders);
+		mvc.perform(get("/orders").param("ids", "1,2,3"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("orders", is(orders)))
+			.andExpect(view().name("orders/list"));
+		verify(orderRepository).findAllById(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(orderRepository, times(0)).findAll(any(Pageable.class));
+	}
+
+	@Test
+	public void batchDelete() throws Exception {
+		mvc.perform(post("/orders")
+				.param("batchDelete", "")
+				.param("ids", "1,2,3"))
+			.andExpect(redirectedUrl("/orders"));
+		verify(orderRepository).deleteAllByIdInBatch(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(orderRepository, times(0)).findById(anyLong());
+		verify(orderRepository, times(0)).save(any(Order.class));
+	}
+
 }
@@ -0,0 +1,77 @@
+package domainobjectsmvc.webmvc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.config.EnableSpringDataWebSupport;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import domainobjectsmvc.domain.model.Product;
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.domain.model.ProductRepository;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ProductsController.class)
+@EnableSpringDataWebSupport
+public class ProductsControllerTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@MockBean
+	private ProductRepository productRepository;
+
+	@Test
+	public void list() throws Exception {
+		List<Product> products = new LinkedList<>();
+		Page<Product> productsPage = new PageImpl<>(products);
+		when(productRepository.findAll(any(Pageable.class)))
+			.thenReturn(productsPage);
+		mvc.perform(get("/products"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("productsPage", is(productsPage)))
+			.andExpect(model().attribute("products", is(products)))
+			.andExpect(view().name("products/list"));
+	}
+
+	@Test
+	public void save() throws Exception {
+		mvc.perform(post("/products").param("id", "xxx"))
+			.andExpect(redirectedUrl("/products"));
+		verify(productRepository).save(
+				argThat((Product product) -> product.getId().equals(new ProductId("xxx"))));
+	}
+
+	@Test
+	public void saveWithBlankId() throws Exception {
+		mvc.perform(post("/products").param("id", " "))
+			.andExpect(status().isBadRequest());
+		verify(productRepository, never()).save(any(Product.class));
+	}
+
+	@Test
+	public void deleteProduct() throws Exception {
+		mvc.perform(delete("/products/{id}", "xxx"))
+			.andExpect(redirectedUrl("/products"));
+		verify(productRepository).deleteAllByIdInBatch(eq(Arrays.asList(new ProductId("xxx"))));
+	}
+
+}
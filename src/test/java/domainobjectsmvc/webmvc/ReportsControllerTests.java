@@ -0,0 +1,54 @@
+package domainobjectsmvc.webmvc;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import domainobjectsmvc.domain.model.ProductId;
+import domainobjectsmvc.infrastructure.analytics.OrderLinesAnalytics;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ReportsController.class)
+public class ReportsControllerTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@MockBean
+	private OrderLinesAnalytics orderLinesAnalytics;
+
+	@Test
+	public void topProducts() throws Exception {
+		Map<ProductId, Long> report = new LinkedHashMap<>();
+		report.put(new ProductId("yyy"), 12L);
+		report.put(new ProductId("xxx"), 5L);
+		when(orderLinesAnalytics.topProductsByQuantity(2)).thenReturn(report);
+		mvc.perform(get("/reports/top-products").param("limit", "2"))
+			.andExpect(status().isOk())
+			.andExpect(content().json("{\"yyy\":12,\"xxx\":5}", true));
+		verify(orderLinesAnalytics).topProductsByQuantity(2);
+	}
+
+	@Test
+	public void ordersPerProduct() throws Exception {
+		Map<ProductId, Long> report = new LinkedHashMap<>();
+		report.put(new ProductId("xxx"), 3L);
+		when(orderLinesAnalytics.ordersPerProduct(0)).thenReturn(report);
+		mvc.perform(get("/reports/orders-per-product"))
+			.andExpect(status().isOk())
+			.andExpect(content().json("{\"xxx\":3}", true));
+		verify(orderLinesAnalytics).ordersPerProduct(0);
+	}
+
+}
@@ -8,6 +8,7 @@ import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -20,6 +21,8 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -31,11 +34,18 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import domainobjectsmvc.domain.model.VersionedEntity;
 import domainobjectsmvc.domain.model.VersionedEntityRepository;
+import domainobjectsmvc.infrastructure.cache.VersionedEntityCache;
+import domainobjectsmvc.infrastructure.codec.CodecConfiguration;
+import domainobjectsmvc.infrastructure.persistence.OptimisticLockRetry;
+import domainobjectsmvc.infrastructure.persistence.ReadWriteRoutingDataSource;
+import domainobjectsmvc.infrastructure.persistence.SingleFlightReads;
 
 @SuppressWarnings("unused")
 @RunWith(SpringRunner.class)
 @WebMvcTest(VersionedEntitiesController.class)
 @EnableSpringDataWebSupport
+@Import({ OptimisticLockRetry.class, SingleFlightReads.class, CodecConfiguration.class,
+		VersionedEntityCache.class })
 public class VersionedEntitiesControllerTests {
 
 	@Autowired
@@ -44,11 +54,18 @@ public class VersionedEntitiesControllerTests {
 	@MockBean
 	private VersionedEntityRepository entityRepository;
 
+	@Autowired
+	private OptimisticLockRetry optimisticLockRetry;
+
+	@Autowired
+	private VersionedEntityCache entityCache;
+
 	private Long id;
 
 	@Before
 	public void setUp() throws Exception {
 		this.id = 123L;
+		entityCache.clear();
 	}
 
 	@After
@@ -69,6 +86,80 @@ public class VersionedEntitiesControllerTests {
 			.andExpect(view().name("versioned-entities/list"));
 	}
 
+	@Test
+	public void listWithSearch() throws Exception {
+		List<VersionedEntity> entities = new LinkedList<>();
+		Page<VersionedEntity> entitiesPage = new PageImpl<>(entities);
+		when(entityRepository.search(eq("lorem"), any(Pageable.class)))
+			.thenReturn(entitiesPage);
+		mvc.perform(get("/versioned-entities").param("search", "lorem"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("entitiesPage", is(entitiesPage)))
+			.andExpect(model().attribute("entities", is(entities)))
+			.andExpect(view().name("versioned-entities/list"));
+		verify(entityRepository).search(eq("lorem"), any(Pageable.class));
+		verify(entityRepository, times(0)).findAll(any(Pageable.class));
+	}
+
+	@Test
+	public void showFromNearCacheUntilVersionMoves() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		ReflectionTestUtils.setField(entity, "id", id);
+		ReflectionTestUtils.setField(entity, "version", 1);
+		entity.setData("Lorem ipsum");
+		when(entityRepository.findById(id))
+			.thenReturn(Optional.of(entity));
+		when(entityRepository.findVersionById(id))
+			.thenReturn(Optional.of(1));
+		for (int i = 0; i < 2; i++) {
+			mvc.perform(get("/versioned-entities/{id}", id))
+				.andExpect(status().isOk())
+				.andExpect(model().attribute("entity",
+						Matchers.hasProperty("data", is("Lorem ipsum"))))
+				.andExpect(view().name("versioned-entities/show"));
+		}
+		verify(entityRepository, times(1)).findById(eq(id));
+		verify(entityRepository, times(1)).findVersionById(eq(id));
+		// Version moved
+		ReflectionTestUtils.setField(entity, "version", 2);
+		entity.setData("dolor sit amet");
+		when(entityRepository.findVersionById(id))
+			.thenReturn(Optional.of(2));
+		mvc.perform(get("/versioned-entities/{id}", id))
+			.andExpect(model().attribute("entity",
+					Matchers.hasProperty("data", is("dolor sit amet"))));
+		verify(entityRepository, times(2)).findById(eq(id));
+		// Deleted
+		when(entityRepository.findVersionById(id))
+			.thenReturn(Optional.empty());
+		mvc.perform(get("/versioned-entities/{id}", id))
+			.andExpect(status().isNotFound());
+		verify(entityRepository, times(2)).findById(eq(id));
+	}
+
+	@Test
+	public void showReadingOwnWritesBypassesNearCache() throws Exception {
+		VersionedEntity entity = new VersionedEntity();
+		ReflectionTestUtils.setField(entity, "id", id);
+		ReflectionTestUtils.setField(entity, "version", 1);
+		entity.setData("Lorem ipsum");
+		when(entityRepository.findById(id))
+			.thenReturn(Optional.of(entity));
+		when(entityRepository.findVersionById(id))
+			.thenReturn(Optional.of(1));
+		mvc.perform(get("/versioned-entities/{id}", id))
+			.andExpect(status().isOk());
+		ReadWriteRoutingDataSource.stickToPrimary();
+		try {
+			mvc.perform(get("/versioned-entities/{id}", id))
+				.andExpect(status().isOk());
+		} finally {
+			ReadWriteRoutingDataSource.release();
+		}
+		verify(entityRepository, times(2)).findById(eq(id));
+		verify(entityRepository, never()).findVersionById(eq(id));
+	}
+
 	@Test
 	public void update() throws Exception {
 		final int version = 42;
@@ -104,6 +195,105 @@ public class VersionedEntitiesControllerTests {
 		verify(entityRepository, times(0)).save(any(VersionedEntity.class));
 	}
 
+	@Test
+	public void updateWithConcurrentModification() throws Exception {
+		final int version = 42;
+		VersionedEntity entity = new VersionedEntity();
+		ReflectionTestUtils.setField(entity, "version", version);
+		when(entityRepository.findById(id))
+			.thenReturn(Optional.of(entity));
+		when(entityRepository.save(entity))
+			.thenThrow(new ObjectOptimisticLockingFailureException(VersionedEntity.class, id));
+		long conflicts = optimisticLockRetry.hottest("VersionedEntity", 10)
+				.getOrDefault(id, 0L);
+		mvc.perform(put("/versioned-entities/{id}", id)
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.param("version", String.valueOf(version)) // input type="hidden"
+				.param("data", "Lorem ipsum"))
+			.andExpect(status().isOk())
+			.andExpect(view().name("versioned-entities/edit"))
+			.andExpect(model().hasErrors());
+		assertEquals(Long.valueOf(conflicts + 1),
+				optimisticLockRetry.hottest("VersionedEntity", 10).get(id));
+	}
+
+	@Test
+	public void patchData() throws Exception {
+		final int version = 42;
+		when(entityRepository.updateData(id, version, "Lorem ipsum"))
+			.thenReturn(1);
+		mvc.perform(patch("/versioned-entities/{id}", id)
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.param("version", String.valueOf(version))
+				.param("data", "Lorem ipsum"))
+			.andExpect(redirectedUrl("/versioned-entities"));
+		verify(entityRepository).updateData(eq(id), eq(version), eq("Lorem ipsum"));
+		verify(entityRepository, times(0)).findById(anyLong());
+		verify(entityRepository, times(0)).save(any(VersionedEntity.class));
+	}
+
+	@Test
+	public void patchDataWithOptimisticLockingFailure() throws Exception {
+		final int version = 42;
+		when(entityRepository.updateData(id, version, "Lorem ipsum"))
+			.thenReturn(0);
+		when(entityRepository.existsById(id))
+			.thenReturn(true);
+		mvc.perform(patch("/versioned-entities/{id}", id)
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.param("version", String.valueOf(version))
+				.param("data", "Lorem ipsum"))
+			.andExpect(status().isPreconditionFailed());
+		verify(entityRepository, times(0)).findById(anyLong());
+	}
+
+	@Test
+	public void patchDataNotFound() throws Exception {
+		final int version = 42;
+		when(entityRepository.updateData(id, version, "Lorem ipsum"))
+			.thenReturn(0);
+		when(entityRepository.existsById(id))
+			.thenReturn(false);
+		mvc.perform(patch("/versioned-entities/{id}", id)
+				.contentType(MediaType.APPLICATION_FORM_URLENCODED)
+				.param("version", String.valueOf(version))
+				.param("data", "Lorem ipsum"))
+			.andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void streamDataNotFound() throws Exception {
+		when(entityRepository.streamData(eq(id), any()))
+			.thenReturn(false);
+		mvc.perform(get("/versioned-entities/{id}/data", id))
+			.andExpect(status().isNotFound());
+		verify(entityRepository, never()).findById(id);
+	}
+
+	@Test
+	public void listByIds() throws Exception {
+		List<VersionedEntity> entities = new LinkedList<>();
+		when(entityRepository.findAllById(Arrays.asList(1L, 2L, 3L)))
+			.thenReturn(entities);
+		mvc.perform(get("/versioned-entities").param("ids", "1,2,3"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("entities", is(entities)))
+			.andExpect(view().name("versioned-entities/list"));
+		verify(entityRepository).findAllById(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(entityRepository, times(0)).findAll(any(Pageable.class));
+	}
+
+	@Test
+	public void batchDelete() throws Exception {
+		mvc.perform(post("/versioned-entities")
+				.param("batchDelete", "")
+				.param("ids", "1,2,3"))
+			.andExpect(redirectedUrl("/versioned-entities"));
+		verify(entityRepository).deleteAllByIdInBatch(eq(Arrays.asList(1L, 2L, 3L)));
+		verify(entityRepository, times(0)).findById(anyLong());
+		verify(entityRepository, times(0)).save(any(VersionedEntity.class));
+	}
+
 	// For the rest of the tests, please refer to other xxxControllerTests
 
 }